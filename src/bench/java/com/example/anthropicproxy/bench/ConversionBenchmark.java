@@ -0,0 +1,325 @@
+package com.example.anthropicproxy.bench;
+
+import ch.qos.logback.classic.Logger;
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.anthropic.AnthropicCompletionRequest;
+import com.example.anthropicproxy.model.openai.OpenAIChoice;
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.model.openai.OpenAIMessage;
+import com.example.anthropicproxy.model.openai.OpenAIRole;
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.example.anthropicproxy.service.AnthropicStreamTranscoder;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.ModelMappingService;
+import com.example.anthropicproxy.service.TranscodedRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the conversion hot paths: request conversion over
+ * conversations from a short chat up to 200 messages / ~500 KB, both
+ * through the request transcoder and from bound objects as batch requests
+ * are, the next turn of a conversation with its message prefix cached,
+ * stream chunk transcoding, response conversion and model mapping. Run through main() to
+ * get the GC profiler (allocation rate and bytes per operation), or with
+ * org.openjdk.jmh.Main and -prof gc.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ConversionBenchmark {
+
+    /**
+     * Anthropic request body as the controllers receive it, and the same
+     * request bound to objects as the batch executor sees it
+     */
+    @State(Scope.Benchmark)
+    public static class Conversation {
+        // short: 2 x 200 chars, medium: 20 x 2 KB, long: 200 x 2.5 KB (~500 KB)
+        @Param({"short", "medium", "long"})
+        public String size;
+
+        ConversionService conversionService;
+        ObjectMapper objectMapper;
+        byte[] body;
+        AnthropicCompletionRequest request;
+
+        @Setup
+        public void setUp() throws Exception {
+            quietLogging();
+            objectMapper = new ObjectMapper();
+            // Without the prefix cache, so repeated conversions measure the conversion itself
+            conversionService = newConversionService(objectMapper, false);
+
+            int messages;
+            int charsPerMessage;
+            switch (size) {
+                case "short" -> {
+                    messages = 2;
+                    charsPerMessage = 200;
+                }
+                case "medium" -> {
+                    messages = 20;
+                    charsPerMessage = 2_000;
+                }
+                case "long" -> {
+                    messages = 200;
+                    charsPerMessage = 2_500;
+                }
+                default -> throw new IllegalArgumentException("Unknown size: " + size);
+            }
+
+            Random random = new Random(42);
+            ObjectNode json = objectMapper.createObjectNode()
+                    .put("model", "claude-3-sonnet-20240229")
+                    .put("max_tokens", 4096)
+                    .put("temperature", 0.7)
+                    .put("system", "You are a careful assistant working in a large Java code base.");
+            ArrayNode messageArray = json.putArray("messages");
+            for (int i = 0; i < messages; i++) {
+                ObjectNode message = messageArray.addObject();
+                if (i % 2 == 0) {
+                    // User turns arrive as content block arrays, assistant turns as plain strings
+                    message.put("role", "user");
+                    ArrayNode blocks = message.putArray("content");
+                    for (String part : split(text(random, charsPerMessage), 3)) {
+                        blocks.addObject().put("type", "text").put("text", part);
+                    }
+                } else {
+                    message.put("role", "assistant");
+                    message.put("content", text(random, charsPerMessage));
+                }
+            }
+            body = objectMapper.writeValueAsBytes(json);
+            request = objectMapper.readValue(body, AnthropicCompletionRequest.class);
+        }
+    }
+
+    /**
+     * A conversation whose previous turn went through the prefix cache, and
+     * the body of its next turn with an assistant reply and a user message
+     * appended
+     */
+    @State(Scope.Thread)
+    public static class Turn {
+        ConversionService conversionService;
+        ObjectMapper objectMapper;
+        byte[] previous;
+        byte[] next;
+
+        @Setup
+        public void setUp(Conversation conversation) throws Exception {
+            objectMapper = conversation.objectMapper;
+            conversionService = newConversionService(objectMapper, true);
+            previous = conversation.body;
+            ObjectNode json = (ObjectNode) conversation.objectMapper.readTree(conversation.body);
+            ArrayNode messages = (ArrayNode) json.get("messages");
+            Random random = new Random(11);
+            messages.addObject().put("role", "assistant").put("content", text(random, 500));
+            messages.addObject().put("role", "user").put("content", text(random, 200));
+            next = conversation.objectMapper.writeValueAsBytes(json);
+        }
+
+        @Setup(Level.Invocation)
+        public void transcodePrevious() throws Exception {
+            // Transcoding the next turn replaced the cached prefix; put the previous turn back
+            conversionService.transcodeRequest(previous);
+        }
+    }
+
+    /**
+     * Shared services plus a started stream transcoder and a typical response
+     */
+    @State(Scope.Thread)
+    public static class Pipeline {
+        ConversionService conversionService;
+        ModelMappingService modelMappingService;
+        AnthropicResponseWriter responseWriter;
+        PojoResponseConverter pojoConverter;
+        OpenAICompletionResponse response;
+        OpenAIStreamChunk tokenChunk;
+        AnthropicStreamTranscoder transcoder;
+
+        @Setup
+        public void setUp() {
+            quietLogging();
+            ObjectMapper objectMapper = new ObjectMapper();
+            responseWriter = new AnthropicResponseWriter(objectMapper);
+            pojoConverter = new PojoResponseConverter(objectMapper);
+            ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+            modelMappingService = new ModelMappingService(proxyConfig);
+            conversionService = new ConversionService(modelMappingService, responseWriter, objectMapper, proxyConfig,
+                    new ProxyMetrics());
+            response = response(text(new Random(7), 2_000));
+            tokenChunk = OpenAIStreamChunk.builder()
+                    .id("chatcmpl-bench")
+                    .choices(List.of(OpenAIStreamChunk.OpenAIStreamChoice.builder()
+                            .index(0)
+                            .delta(OpenAIStreamChunk.OpenAIDelta.builder().content(" token").build())
+                            .build()))
+                    .build();
+        }
+
+        @Setup(Level.Iteration)
+        public void startStream() {
+            // message_start and content_block_start are emitted by the first chunk only
+            transcoder = conversionService.newStreamTranscoder("claude-3-haiku", "msg_bench");
+            transcoder.onChunk(tokenChunk);
+        }
+    }
+
+    /**
+     * Request body to upstream body through the transcoder, as /v1/messages does
+     */
+    @Benchmark
+    public byte[] transcodeRequest(Conversation conversation) throws Exception {
+        TranscodedRequest request = conversation.conversionService.transcodeRequest(conversation.body);
+        return conversation.objectMapper.writeValueAsBytes(request.openaiRequest());
+    }
+
+    /**
+     * Request body to upstream body by binding it, then converting the bound request
+     */
+    @Benchmark
+    public byte[] bindAndConvertRequest(Conversation conversation) throws Exception {
+        AnthropicCompletionRequest request = conversation.objectMapper.readValue(conversation.body,
+                AnthropicCompletionRequest.class);
+        return conversation.objectMapper.writeValueAsBytes(conversation.conversionService.convertRequest(request));
+    }
+
+    @Benchmark
+    public OpenAICompletionRequest convertRequest(Conversation conversation) {
+        return conversation.conversionService.convertRequest(conversation.request);
+    }
+
+    /**
+     * Only the two appended messages are transcoded; compare with transcodeRequest
+     */
+    @Benchmark
+    public byte[] transcodeNextTurn(Turn turn) throws Exception {
+        TranscodedRequest request = turn.conversionService.transcodeRequest(turn.next);
+        return turn.objectMapper.writeValueAsBytes(request.openaiRequest());
+    }
+
+    @Benchmark
+    public byte[] transcodeStreamChunk(Pipeline pipeline) {
+        return pipeline.transcoder.onChunk(pipeline.tokenChunk);
+    }
+
+    @Benchmark
+    public Object convertResponse(Pipeline pipeline) {
+        // The former POJO conversion, as a baseline for writeResponse
+        return pipeline.pojoConverter.convert(pipeline.response, "claude-3-haiku", "msg_bench");
+    }
+
+    @Benchmark
+    public byte[] writeResponse(Pipeline pipeline) throws Exception {
+        return pipeline.responseWriter.writeMessage(pipeline.response, "claude-3-haiku", "msg_bench");
+    }
+
+    @Benchmark
+    public String mapModelExact(Pipeline pipeline) {
+        return pipeline.modelMappingService.mapModel("claude-3-haiku-20240307");
+    }
+
+    @Benchmark
+    public String mapModelFuzzy(Pipeline pipeline) {
+        return pipeline.modelMappingService.mapModel("anthropic.claude-3-opus-20240229-v1:0");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ConversionBenchmark.class.getSimpleName() + (args.length > 0 ? "." + args[0] : ""))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Outside Spring the application's log levels are not applied; keep the
+     * per-request INFO lines out of the measurement
+     */
+    private static void quietLogging() {
+        ((Logger) LoggerFactory.getLogger("com.example.anthropicproxy"))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+    }
+
+    private static ConversionService newConversionService(ObjectMapper objectMapper, boolean prefixCache) {
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        proxyConfig.getPrefixCache().setEnabled(prefixCache);
+        return new ConversionService(
+                new ModelMappingService(proxyConfig),
+                new AnthropicResponseWriter(objectMapper),
+                objectMapper,
+                proxyConfig,
+                new ProxyMetrics());
+    }
+
+    private static OpenAICompletionResponse response(String content) {
+        return OpenAICompletionResponse.builder()
+                .id("chatcmpl-bench")
+                .model("gpt-3.5-turbo")
+                .choices(List.of(OpenAIChoice.builder()
+                        .index(0)
+                        .message(OpenAIMessage.builder().role(OpenAIRole.ASSISTANT).content(content).build())
+                        .finishReason("stop")
+                        .build()))
+                .usage(OpenAIUsage.builder().promptTokens(1200).completionTokens(450).totalTokens(1650).build())
+                .build();
+    }
+
+    /**
+     * Prose interleaved with code lines, roughly the mix of a coding conversation
+     */
+    private static String text(Random random, int chars) {
+        String[] words = {"the", "request", "returns", "a", "list", "of", "results", "when", "handler",
+                "stream", "value", "is", "null", "and", "we", "should", "check", "before", "calling"};
+        StringBuilder text = new StringBuilder(chars + 64);
+        while (text.length() < chars) {
+            if (random.nextInt(8) == 0) {
+                text.append("\n    if (result == null) { return Optional.empty(); }\n");
+            } else {
+                text.append(words[random.nextInt(words.length)]).append(random.nextInt(12) == 0 ? ". " : " ");
+            }
+        }
+        return text.substring(0, chars);
+    }
+
+    private static List<String> split(String text, int parts) {
+        List<String> result = new ArrayList<>(parts);
+        int step = text.length() / parts;
+        for (int i = 0; i < parts; i++) {
+            result.add(text.substring(i * step, i == parts - 1 ? text.length() : (i + 1) * step));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.anthropicproxy.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end load test of /v1/messages against the embedded mock upstream.
+ * Boots the proxy in each serving mode (or targets an already running one)
+ * and drives it at fixed concurrency (closed loop: each worker sends its next
+ * request when the previous one finishes) and at fixed arrival rates (open
+ * loop: requests are sent on schedule regardless of how many are in flight,
+ * and latency is measured from the scheduled send time so queueing in the
+ * proxy is not hidden). Each step reports throughput, failures by cause,
+ * TTFT and latency percentiles, peak heap and thread counts.
+ *
+ * TTFT is the time to the first response byte; the proxy writes the first SSE
+ * frame when the first upstream token arrives, and for non-streaming requests
+ * it equals the full response time. Heap and threads are sampled in this JVM,
+ * which hosts the proxy, the mock and the load generator unless target= is set.
+ *
+ * Usage: LoadTestHarness [key=value ...] [--proxy.option=value ...]
+ *   modes=servlet,reactive   serving modes to boot, ignored when target= is set
+ *   target=http://host:port  drive an external proxy instead (start the mock with MockOpenAIServer)
+ *   stream=true,false        request modes
+ *   concurrency=50,200,800   closed-loop levels
+ *   rates=                   open-loop levels in requests per second, e.g. 100,400,1600
+ *   duration=20 warmup=5     seconds per step and before the first step of each mode
+ *   ttftMs=200 tokenDelayMs=20 tokens=50 chunkTokens=1
+ *   errorRate=0 rateLimitRate=0 stallRate=0 stallMs=5000
+ * Arguments starting with -- are passed to the embedded proxy.
+ */
+public class LoadTestHarness {
+    private static final ByteBuf ERROR_EVENT = Unpooled.unreleasableBuffer(
+            Unpooled.copiedBuffer("event: error", StandardCharsets.US_ASCII));
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> proxyArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                proxyArgs.add(arg);
+            } else if (arg.contains("=")) {
+                options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                throw new IllegalArgumentException("Expected key=value or --proxy.option=value: " + arg);
+            }
+        }
+
+        List<Boolean> streamModes = list(options.getOrDefault("stream", "true,false")).stream()
+                .map(Boolean::parseBoolean).toList();
+        List<Integer> concurrency = ints(options.getOrDefault("concurrency", "50,200,800"));
+        List<Integer> rates = ints(options.getOrDefault("rates", ""));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "20")));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5")));
+
+        LoadTestHarness harness = new LoadTestHarness();
+        String target = options.get("target");
+        if (target != null) {
+            harness.runSteps(target, "external", streamModes, concurrency, rates, duration, warmup);
+            System.exit(0);
+        }
+
+        try (MockOpenAIServer upstream = new MockOpenAIServer(
+                Duration.ofMillis(Long.parseLong(options.getOrDefault("ttftMs", "200"))),
+                Duration.ofMillis(Long.parseLong(options.getOrDefault("tokenDelayMs", "20"))),
+                Integer.parseInt(options.getOrDefault("tokens", "50")))
+                .chunkTokens(Integer.parseInt(options.getOrDefault("chunkTokens", "1")))
+                .errorRate(Double.parseDouble(options.getOrDefault("errorRate", "0")))
+                .rateLimitRate(Double.parseDouble(options.getOrDefault("rateLimitRate", "0")))
+                .stalls(Double.parseDouble(options.getOrDefault("stallRate", "0")),
+                        Duration.ofMillis(Long.parseLong(options.getOrDefault("stallMs", "5000"))))
+                .start()) {
+            for (String mode : list(options.getOrDefault("modes", "servlet,reactive"))) {
+                WebApplicationType type = WebApplicationType.valueOf(mode.toUpperCase());
+                try (ConfigurableApplicationContext context = ServingModeBenchmark.startProxy(
+                        type, upstream.baseUrl(), proxyArgs.toArray(String[]::new))) {
+                    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                    harness.runSteps("http://localhost:" + port, mode, streamModes, concurrency, rates, duration, warmup);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private void runSteps(String baseUrl, String mode, List<Boolean> streamModes, List<Integer> concurrency,
+                          List<Integer> rates, Duration duration, Duration warmup) {
+        if (!warmup.isZero()) {
+            for (boolean stream : streamModes) {
+                closedLoop(baseUrl, stream, concurrency.isEmpty() ? 16 : concurrency.get(0), warmup);
+            }
+        }
+        for (boolean stream : streamModes) {
+            for (int level : concurrency) {
+                print(mode, stream, "concurrency=" + level, closedLoop(baseUrl, stream, level, duration));
+            }
+            for (int rate : rates) {
+                print(mode, stream, "rate=" + rate + "/s", openLoop(baseUrl, stream, rate, duration));
+            }
+        }
+    }
+
+    /**
+     * Fixed number of workers, each sending back-to-back requests until the step ends
+     */
+    Stats closedLoop(String baseUrl, boolean stream, int concurrency, Duration duration) {
+        return measure(baseUrl, concurrency, (client, stats) -> {
+            long deadline = System.nanoTime() + duration.toNanos();
+            Flux.range(0, concurrency)
+                    .flatMap(worker -> Mono.defer(() -> request(client, stream, System.nanoTime(), stats))
+                            .repeat(() -> System.nanoTime() - deadline < 0), concurrency)
+                    .blockLast(duration.plusMinutes(5));
+        });
+    }
+
+    /**
+     * Requests sent on a fixed schedule; latency is taken from the intended send time
+     */
+    Stats openLoop(String baseUrl, boolean stream, int rate, Duration duration) {
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        return measure(baseUrl, 10_000, (client, stats) -> {
+            long start = System.nanoTime();
+            Flux.interval(Duration.ofNanos(periodNanos))
+                    .take(duration.toNanos() / periodNanos)
+                    .flatMap(tick -> request(client, stream, start + tick * periodNanos, stats), Integer.MAX_VALUE)
+                    .blockLast(duration.plusMinutes(5));
+        });
+    }
+
+    private Stats measure(String baseUrl, int connections, Step step) {
+        ConnectionProvider provider = ConnectionProvider.builder("load")
+                .maxConnections(connections)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        HttpClient client = HttpClient.create(provider)
+                .baseUrl(baseUrl)
+                .headers(h -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"))
+                .responseTimeout(Duration.ofSeconds(120));
+
+        Stats stats = new Stats();
+        ResourceSampler sampler = new ResourceSampler();
+        long start = System.nanoTime();
+        try {
+            step.run(client, stats);
+        } finally {
+            stats.elapsedNanos = System.nanoTime() - start;
+            sampler.stop(stats);
+            provider.disposeLater().block();
+        }
+        return stats;
+    }
+
+    private Mono<Void> request(HttpClient client, boolean stream, long startNanos, Stats stats) {
+        // A distinct prompt per request, so coalescing and the response cache never short-circuit the upstream
+        String body = "{\"model\":\"claude-3-haiku\",\"max_tokens\":256,\"stream\":" + stream + ","
+                + "\"messages\":[{\"role\":\"user\",\"content\":\"Load test request " + sequence.incrementAndGet() + "\"}]}";
+        long[] first = {0};
+        boolean[] streamError = {false};
+        return client.post()
+                .uri("/v1/messages")
+                .send(ByteBufFlux.fromString(Mono.just(body)))
+                .response((response, content) -> content
+                        .doOnNext(buf -> {
+                            if (first[0] == 0) {
+                                first[0] = System.nanoTime();
+                            }
+                            if (stream && ByteBufUtil.indexOf(ERROR_EVENT, buf) >= 0) {
+                                streamError[0] = true;
+                            }
+                        })
+                        .then(Mono.fromRunnable(() -> {
+                            int status = response.status().code();
+                            if (status != 200) {
+                                stats.fail("http_" + status);
+                            } else if (streamError[0]) {
+                                stats.fail("stream_error");
+                            } else {
+                                long end = System.nanoTime();
+                                stats.complete((first[0] == 0 ? end : first[0]) - startNanos, end - startNanos);
+                            }
+                        })))
+                .then()
+                .onErrorResume(e -> {
+                    stats.fail(e.getClass().getSimpleName());
+                    return Mono.empty();
+                });
+    }
+
+    private static void print(String mode, boolean stream, String load, Stats stats) {
+        double seconds = stats.elapsedNanos / 1e9;
+        String failures = stats.failures.isEmpty() ? "" : stats.failures.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue().sum())
+                .collect(Collectors.joining(",", " (", ")"));
+        System.out.printf("%-9s %-9s %-18s ok=%7d failed=%6d%s  rps=%8.1f  ttft p50/p90/p99=%6d/%6d/%6dms"
+                        + "  latency p50/p99=%6d/%6dms  heap peak=%5dMB  threads end/peak=%4d/%4d%n",
+                mode, stream ? "stream" : "unary", load, stats.ttft.size(), stats.failed(), failures,
+                stats.ttft.size() / seconds,
+                ServingModeBenchmark.percentile(stats.ttft, 0.50),
+                ServingModeBenchmark.percentile(stats.ttft, 0.90),
+                ServingModeBenchmark.percentile(stats.ttft, 0.99),
+                ServingModeBenchmark.percentile(stats.latency, 0.50),
+                ServingModeBenchmark.percentile(stats.latency, 0.99),
+                stats.peakHeapBytes >> 20, stats.threads, stats.peakThreads);
+    }
+
+    private static List<String> list(String value) {
+        return value.isBlank() ? List.of() : Arrays.stream(value.split(",")).map(String::trim).toList();
+    }
+
+    private static List<Integer> ints(String value) {
+        return list(value).stream().map(Integer::parseInt).toList();
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void run(HttpClient client, Stats stats);
+    }
+
+    /**
+     * Outcomes of one step; latencies are kept in milliseconds
+     */
+    static final class Stats {
+        final List<Long> ttft = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> latency = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, LongAdder> failures = new ConcurrentSkipListMap<>();
+        long elapsedNanos;
+        long peakHeapBytes;
+        int threads;
+        int peakThreads;
+
+        void complete(long ttftNanos, long latencyNanos) {
+            ttft.add(ttftNanos / 1_000_000);
+            latency.add(latencyNanos / 1_000_000);
+        }
+
+        void fail(String cause) {
+            failures.computeIfAbsent(cause, key -> new LongAdder()).increment();
+        }
+
+        long failed() {
+            return failures.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+    }
+
+    /**
+     * Samples heap usage every 100 ms and tracks the JVM's peak thread count over a step
+     */
+    private static final class ResourceSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "load-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final AtomicLong peakHeap = new AtomicLong();
+
+        ResourceSampler() {
+            threads.resetPeakThreadCount();
+            executor.scheduleAtFixedRate(this::sample, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        void stop(Stats stats) {
+            executor.shutdownNow();
+            sample();
+            stats.peakHeapBytes = peakHeap.get();
+            stats.threads = threads.getThreadCount();
+            stats.peakThreads = threads.getPeakThreadCount();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.anthropicproxy.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.resources.LoopResources;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal OpenAI-compatible /v1/chat/completions server for local benchmarks.
+ * Streams a fixed number of tokens after a configurable time-to-first-token,
+ * optionally grouped into multi-token chunks, and can inject upstream errors,
+ * 429 rate limiting and mid-stream stalls on a random fraction of requests.
+ *
+ * Usage (standalone): MockOpenAIServer [port=8090] [ttftMs=200] [tokenDelayMs=20] [tokens=50]
+ */
+public class MockOpenAIServer implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Duration timeToFirstToken;
+    private final Duration interTokenDelay;
+    private final int tokens;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile int failureStatus;
+    private volatile int port;
+    private volatile int chunkTokens = 1;
+    private volatile double errorRate;
+    private volatile double rateLimitRate;
+    private volatile double stallRate;
+    private volatile Duration stall = Duration.ofSeconds(5);
+    private LoopResources loops;
+    private DisposableServer server;
+
+    public MockOpenAIServer(Duration timeToFirstToken, Duration interTokenDelay, int tokens) {
+        this.timeToFirstToken = timeToFirstToken;
+        this.interTokenDelay = interTokenDelay;
+        this.tokens = tokens;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        long ttftMs = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        long tokenDelayMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        int tokens = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        MockOpenAIServer server = new MockOpenAIServer(
+                Duration.ofMillis(ttftMs), Duration.ofMillis(tokenDelayMs), tokens).port(port).start();
+        System.out.println("Mock OpenAI server listening on " + server.baseUrl());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Listen on a fixed port instead of an ephemeral one; call before start()
+     */
+    public MockOpenAIServer port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public MockOpenAIServer start() {
+        // Dedicated event loops, so shutting down a proxy context (which disposes
+        // the global Reactor Netty resources) does not take the mock down with it.
+        loops = LoopResources.create("mock-openai");
+        server = HttpServer.create()
+                .runOn(loops)
+                .port(port)
+                .route(routes -> routes.post("/v1/chat/completions", this::handle))
+                .bindNow();
+        return this;
+    }
+
+    /**
+     * Answer every request with the given HTTP status (0 restores normal responses)
+     */
+    public MockOpenAIServer failWith(int status) {
+        this.failureStatus = status;
+        return this;
+    }
+
+    /**
+     * Tokens per streamed chunk; the delay between chunks scales with it so the token rate is unchanged
+     */
+    public MockOpenAIServer chunkTokens(int chunkTokens) {
+        this.chunkTokens = Math.max(1, chunkTokens);
+        return this;
+    }
+
+    /**
+     * Fraction of requests answered with a 500
+     */
+    public MockOpenAIServer errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Fraction of requests answered with a 429 and Retry-After: 1
+     */
+    public MockOpenAIServer rateLimitRate(double rateLimitRate) {
+        this.rateLimitRate = rateLimitRate;
+        return this;
+    }
+
+    /**
+     * Fraction of responses that pause for the given duration halfway through generation
+     */
+    public MockOpenAIServer stalls(double stallRate, Duration stall) {
+        this.stallRate = stallRate;
+        this.stall = stall;
+        return this;
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.port();
+    }
+
+    private Mono<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        requests.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int status = failureStatus;
+        if (status == 0) {
+            double roll = random.nextDouble();
+            if (roll < errorRate) {
+                status = 500;
+            } else if (roll < errorRate + rateLimitRate) {
+                status = 429;
+            }
+        }
+        if (status != 0) {
+            if (status == 429) {
+                response.header(HttpHeaderNames.RETRY_AFTER, "1");
+            }
+            String type = status == 429 ? "rate_limit_exceeded" : "server_error";
+            return response.status(status)
+                    .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                    .sendString(Mono.just("{\"error\":{\"message\":\"mock failure\",\"type\":\"" + type + "\"}}"))
+                    .then();
+        }
+        Duration pause = random.nextDouble() < stallRate ? stall : Duration.ZERO;
+        return request.receive().aggregate().asString(StandardCharsets.UTF_8)
+                .flatMap(body -> {
+                    JsonNode json = readTree(body);
+                    String model = json.path("model").asText("gpt-mock");
+                    if (json.path("stream").asBoolean(false)) {
+                        return stream(response, model, pause);
+                    }
+                    return complete(response, model, pause);
+                });
+    }
+
+    private Mono<Void> stream(HttpServerResponse response, String model, Duration pause) {
+        int perChunk = chunkTokens;
+        int chunks = (tokens + perChunk - 1) / perChunk;
+        Flux<String> frames = Flux.range(0, chunks)
+                .delayElements(interTokenDelay.multipliedBy(perChunk))
+                .delaySubscription(timeToFirstToken)
+                .concatMap(i -> i == chunks / 2 && !pause.isZero() ? Mono.just(i).delayElement(pause) : Mono.just(i))
+                .map(i -> "data: " + chunk(model, chunkText(i * perChunk, Math.min(tokens, (i + 1) * perChunk)), null) + "\n\n")
+                .concatWith(Mono.fromSupplier(() -> "data: " + chunk(model, null, "stop") + "\n\n"))
+                .concatWith(Mono.just("data: [DONE]\n\n"));
+
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "text/event-stream; charset=utf-8")
+                .sendString(frames)
+                .then();
+    }
+
+    private Mono<Void> complete(HttpServerResponse response, String model, Duration pause) {
+        String text = chunkText(0, tokens);
+        String body = "{\"id\":\"chatcmpl-mock\",\"object\":\"chat.completion\",\"created\":0,\"model\":\"" + model + "\","
+                + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + text + "\"},"
+                + "\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":10,\"completion_tokens\":" + tokens + ",\"total_tokens\":" + (tokens + 10) + "}}";
+
+        Duration latency = timeToFirstToken.plus(interTokenDelay.multipliedBy(tokens)).plus(pause);
+        return Mono.delay(latency)
+                .then(response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                        .sendString(Mono.just(body))
+                        .then());
+    }
+
+    private static String chunkText(int from, int to) {
+        StringBuilder text = new StringBuilder((to - from) * 6);
+        for (int i = from; i < to; i++) {
+            text.append("tok").append(i).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static String chunk(String model, String content, String finishReason) {
+        String delta = content != null ? "{\"content\":\"" + content + "\"}" : "{}";
+        String finish = finishReason != null ? "\"" + finishReason + "\"" : "null";
+        return "{\"id\":\"chatcmpl-mock\",\"object\":\"chat.completion.chunk\",\"created\":0,\"model\":\"" + model + "\","
+                + "\"choices\":[{\"index\":0,\"delta\":" + delta + ",\"finish_reason\":" + finish + "}]}";
+    }
+
+    private static JsonNode readTree(String body) {
+        try {
+            return MAPPER.readTree(body);
+        } catch (Exception e) {
+            return MAPPER.createObjectNode();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.disposeNow();
+        }
+        if (loops != null) {
+            loops.disposeLater().block();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.anthropicproxy.bench;
+
+import com.example.anthropicproxy.model.anthropic.AnthropicCompletionResponse;
+import com.example.anthropicproxy.model.anthropic.AnthropicContentBlock;
+import com.example.anthropicproxy.model.anthropic.AnthropicUsage;
+import com.example.anthropicproxy.model.openai.OpenAIChoice;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.model.openai.OpenAIMessage;
+import com.example.anthropicproxy.model.openai.OpenAIToolCall;
+import com.example.anthropicproxy.service.ConversionService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The former response conversion into an AnthropicCompletionResponse graph,
+ * serialized through ObjectMapper. Kept as the baseline the benchmarks
+ * compare AnthropicResponseWriter's direct JsonGenerator output against.
+ */
+final class PojoResponseConverter {
+    private final ObjectMapper objectMapper;
+
+    PojoResponseConverter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    AnthropicCompletionResponse convert(OpenAICompletionResponse openaiResponse, String anthropicModel,
+                                        String requestId) {
+        if (openaiResponse.getChoices() == null || openaiResponse.getChoices().isEmpty()) {
+            throw new IllegalArgumentException("OpenAI response has no choices");
+        }
+
+        OpenAIChoice choice = openaiResponse.getChoices().get(0);
+        OpenAIMessage message = choice.getMessage();
+        String contentText = message.getContent() != null ? message.getContent().toString() : "";
+
+        List<AnthropicContentBlock> content = new ArrayList<>();
+        if (!contentText.isEmpty() || message.getToolCalls() == null || message.getToolCalls().isEmpty()) {
+            content.add(AnthropicContentBlock.builder()
+                    .type("text")
+                    .text(contentText)
+                    .build());
+        }
+        if (message.getToolCalls() != null) {
+            for (OpenAIToolCall toolCall : message.getToolCalls()) {
+                OpenAIToolCall.Function function = toolCall.getFunction();
+                content.add(AnthropicContentBlock.builder()
+                        .type("tool_use")
+                        .id(toolCall.getId())
+                        .name(function != null ? function.getName() : null)
+                        .input(toolInput(function != null ? function.getArguments() : null))
+                        .build());
+            }
+        }
+
+        return AnthropicCompletionResponse.builder()
+                .id(requestId)
+                .model(anthropicModel)
+                .content(content)
+                .usage(AnthropicUsage.builder()
+                        .inputTokens(openaiResponse.getUsage() != null ? openaiResponse.getUsage().getPromptTokens() : 0)
+                        .outputTokens(openaiResponse.getUsage() != null ? openaiResponse.getUsage().getCompletionTokens() : 0)
+                        .build())
+                .stopReason(ConversionService.toAnthropicStopReason(choice.getFinishReason()))
+                .build();
+    }
+
+    private Map<String, Object> toolInput(String arguments) {
+        if (arguments == null || arguments.isBlank()) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(arguments, new TypeReference<Map<String, Object>>() {
+            });
+        } catch (JsonProcessingException e) {
+            return Map.of();
+        }
+    }
+}
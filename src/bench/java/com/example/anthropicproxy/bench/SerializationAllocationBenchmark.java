@@ -0,0 +1,126 @@
+package com.example.anthropicproxy.bench;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.openai.OpenAIChoice;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.model.openai.OpenAIMessage;
+import com.example.anthropicproxy.model.openai.OpenAIRole;
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.example.anthropicproxy.service.AnthropicStreamTranscoder;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.ModelMappingService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytes allocated per operation for the response serialization paths: the
+ * POJO/Map graphs serialized through ObjectMapper versus direct JsonGenerator
+ * output. Uses the per-thread allocation counter, so run with a warmed-up JIT
+ * (the harness warms up before measuring).
+ */
+public class SerializationAllocationBenchmark {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        AnthropicResponseWriter writer = new AnthropicResponseWriter(objectMapper);
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        ConversionService conversionService = new ConversionService(new ModelMappingService(proxyConfig), writer,
+                objectMapper, proxyConfig, new ProxyMetrics());
+
+        PojoResponseConverter pojoConverter = new PojoResponseConverter(objectMapper);
+        OpenAICompletionResponse response = response(400);
+        OpenAIStreamChunk chunk = tokenChunk(" token");
+
+        report("message: POJO + ObjectMapper", () -> objectMapper.writeValueAsBytes(
+                pojoConverter.convert(response, "claude-3-haiku", "msg_12345678")));
+        report("message: JsonGenerator", () -> writer.writeMessage(response, "claude-3-haiku", "msg_12345678"));
+
+        report("error: HashMap + ObjectMapper", () -> {
+            Map<String, Object> errorResponse = new HashMap<>();
+            Map<String, Object> errorDetail = new HashMap<>();
+            errorDetail.put("type", "api_error");
+            errorDetail.put("message", "Error processing request: upstream timeout");
+            errorResponse.put("error", errorDetail);
+            return objectMapper.writeValueAsBytes(errorResponse);
+        });
+        report("error: JsonGenerator", () -> writer.writeError("api_error", "Error processing request: upstream timeout"));
+
+        report("stream token: HashMap + ObjectMapper", () -> {
+            Map<String, Object> anthropicChunk = new HashMap<>();
+            anthropicChunk.put("type", "content_block_delta");
+            anthropicChunk.put("index", 0);
+            Map<String, Object> delta = new HashMap<>();
+            delta.put("type", "text_delta");
+            delta.put("text", chunk.getChoices().get(0).getDelta().getContent());
+            anthropicChunk.put("delta", delta);
+            return objectMapper.writeValueAsBytes(anthropicChunk);
+        });
+        AnthropicStreamTranscoder transcoder = conversionService.newStreamTranscoder("claude-3-haiku", "msg_12345678");
+        transcoder.onChunk(chunk);
+        report("stream token: transcoder", () -> transcoder.onChunk(chunk));
+    }
+
+    private static void report(String name, Op op) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long sink = 0;
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink += op.run().length;
+        }
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += op.run().length;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-40s %8.0f B/op %8.0f ns/op (output %d B)%n",
+                name, (double) allocated / ITERATIONS, (double) elapsed / ITERATIONS, sink / (WARMUP + ITERATIONS));
+    }
+
+    private static OpenAICompletionResponse response(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append("word").append(i).append(i % 20 == 0 ? ".\n" : " ");
+        }
+        List<OpenAIChoice> choices = new ArrayList<>();
+        choices.add(OpenAIChoice.builder()
+                .index(0)
+                .message(OpenAIMessage.builder().role(OpenAIRole.ASSISTANT).content(text.toString()).build())
+                .finishReason("stop")
+                .build());
+        return OpenAICompletionResponse.builder()
+                .id("chatcmpl-bench")
+                .model("gpt-3.5-turbo")
+                .choices(choices)
+                .usage(OpenAIUsage.builder().promptTokens(120).completionTokens(words).totalTokens(120 + words).build())
+                .build();
+    }
+
+    private static OpenAIStreamChunk tokenChunk(String content) {
+        return OpenAIStreamChunk.builder()
+                .id("chatcmpl-bench")
+                .choices(List.of(OpenAIStreamChunk.OpenAIStreamChoice.builder()
+                        .index(0)
+                        .delta(OpenAIStreamChunk.OpenAIDelta.builder().content(content).build())
+                        .build()))
+                .build();
+    }
+
+    @FunctionalInterface
+    private interface Op {
+        byte[] run() throws Exception;
+    }
+}
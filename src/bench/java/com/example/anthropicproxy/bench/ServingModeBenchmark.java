@@ -0,0 +1,140 @@
+package com.example.anthropicproxy.bench;
+
+import com.example.anthropicproxy.AnthropicProxyApplication;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares concurrent-stream capacity and latency of the servlet (Tomcat +
+ * SseEmitter) and reactive (Netty + Flux) serving modes against a local mock
+ * upstream. For each concurrency level, all streams are opened at once and the
+ * harness reports how many completed, plus p50/p99 time-to-first-byte and
+ * total stream duration.
+ *
+ * Usage: ServingModeBenchmark [levels=250,1000,2000,4000] [tokens=50] [tokenDelayMs=20]
+ */
+public class ServingModeBenchmark {
+    private static final String BODY = "{\"model\":\"claude-3-haiku\",\"max_tokens\":256,\"stream\":true,"
+            + "\"messages\":[{\"role\":\"user\",\"content\":\"Hello\"}]}";
+
+    public static void main(String[] args) {
+        int[] levels = Arrays.stream((args.length > 0 ? args[0] : "250,1000,2000,4000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int tokens = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        long tokenDelayMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        try (MockOpenAIServer upstream = new MockOpenAIServer(
+                Duration.ofMillis(200), Duration.ofMillis(tokenDelayMs), tokens).start()) {
+            for (WebApplicationType mode : List.of(WebApplicationType.SERVLET, WebApplicationType.REACTIVE)) {
+                try (ConfigurableApplicationContext context = startProxy(mode, upstream.baseUrl())) {
+                    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                    for (int level : levels) {
+                        Result result = run(port, level);
+                        System.out.printf("%-9s concurrency=%5d completed=%5d failed=%5d "
+                                        + "ttfb p50=%6dms p99=%6dms  duration p50=%6dms p99=%6dms%n",
+                                mode, level, result.completed, result.failed,
+                                result.ttfbP50, result.ttfbP99, result.durationP50, result.durationP99);
+                    }
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    static ConfigurableApplicationContext startProxy(WebApplicationType mode, String upstreamBaseUrl, String... extraArgs) {
+        List<String> args = new ArrayList<>(List.of("--server.port=0",
+                "--openai.base-url=" + upstreamBaseUrl,
+                "--openai.api-key=bench",
+                "--openai.timeout=120",
+                "--logging.level.com.example.anthropicproxy=WARN"));
+        for (String extra : extraArgs) {
+            // Extra arguments override the defaults above rather than being merged with them
+            String key = extra.contains("=") ? extra.substring(0, extra.indexOf('=') + 1) : extra;
+            args.removeIf(arg -> arg.startsWith(key));
+            args.add(extra);
+        }
+        return new SpringApplicationBuilder(AnthropicProxyApplication.class)
+                .web(mode)
+                .run(args.toArray(String[]::new));
+    }
+
+    static Result run(int port, int concurrency) {
+        ConnectionProvider provider = ConnectionProvider.builder("bench")
+                .maxConnections(concurrency)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        HttpClient client = HttpClient.create(provider)
+                .baseUrl("http://localhost:" + port)
+                .headers(h -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"))
+                .responseTimeout(Duration.ofSeconds(120));
+
+        List<Long> ttfb = Collections.synchronizedList(new ArrayList<>());
+        List<Long> durations = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong failed = new AtomicLong();
+
+        Flux.range(0, concurrency)
+                .flatMap(i -> stream(client, ttfb, durations).onErrorResume(e -> {
+                    failed.incrementAndGet();
+                    return Mono.empty();
+                }), concurrency)
+                .blockLast(Duration.ofMinutes(10));
+
+        provider.disposeLater().block();
+        return new Result(durations.size(), failed.get(),
+                percentile(ttfb, 0.50), percentile(ttfb, 0.99),
+                percentile(durations, 0.50), percentile(durations, 0.99));
+    }
+
+    private static Mono<Void> stream(HttpClient client, List<Long> ttfb, List<Long> durations) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            long[] first = {0};
+            return client.post()
+                    .uri("/v1/messages")
+                    .send(ByteBufFlux.fromString(Mono.just(BODY)))
+                    .response((response, content) -> {
+                        if (response.status().code() != 200) {
+                            return Mono.error(new IllegalStateException("HTTP " + response.status().code()));
+                        }
+                        return content.doOnNext(buf -> {
+                            if (first[0] == 0) {
+                                first[0] = System.nanoTime();
+                            }
+                        }).then();
+                    })
+                    .then(Mono.fromRunnable(() -> {
+                        long end = System.nanoTime();
+                        ttfb.add((first[0] == 0 ? end - start : first[0] - start) / 1_000_000);
+                        durations.add((end - start) / 1_000_000);
+                    }));
+        });
+    }
+
+    static long percentile(List<Long> values, double quantile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    record Result(long completed, long failed, long ttfbP50, long ttfbP99, long durationP50, long durationP99) {
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.anthropicproxy.bench;
+
+import com.example.anthropicproxy.AnthropicProxyApplication;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How many concurrent streams the servlet proxy holds at a fixed heap with
+ * platform threads (SseEmitter) versus virtual threads (thread per stream).
+ * Each variant runs in a child JVM with the given -Xmx against a local mock
+ * upstream whose streams outlast the measurement. For each level, streams are
+ * opened at 500 per second; after the ramp the harness reports how many are
+ * live (first byte received, not failed), how many failed, and the child's
+ * resident memory and thread count from /proc (Linux only). The virtual
+ * variant needs a Java 21 runtime; on older JVMs it falls back to SseEmitter.
+ *
+ * Usage: StreamCapacityBenchmark [levels=1000,2000,4000,8000] [heap=256m] [variants=platform,virtual]
+ */
+public class StreamCapacityBenchmark {
+    private static final String BODY = "{\"model\":\"claude-3-haiku\",\"max_tokens\":256,\"stream\":true,"
+            + "\"messages\":[{\"role\":\"user\",\"content\":\"Hold stream %d\"}]}";
+    // Streams are opened at a steady rate rather than all at once, so the accept backlog is not the limit
+    private static final Duration OPEN_INTERVAL = Duration.ofMillis(2);
+    private static final Duration RAMP_TIMEOUT = Duration.ofSeconds(60);
+
+    public static void main(String[] args) throws Exception {
+        int[] levels = Arrays.stream((args.length > 0 ? args[0] : "1000,2000,4000,8000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        String heap = args.length > 1 ? args[1] : "256m";
+        List<String> variants = List.of((args.length > 2 ? args[2] : "platform,virtual").split(","));
+        if (variants.contains("virtual") && Runtime.version().feature() < 21) {
+            System.out.println("WARNING: Java " + Runtime.version().feature()
+                    + " has no virtual threads; the virtual variant will use SseEmitter");
+        }
+
+        // 2 s to first token, then one token every 500 ms: streams stay open for the whole run
+        try (MockOpenAIServer upstream = new MockOpenAIServer(
+                Duration.ofSeconds(2), Duration.ofMillis(500), 100_000).start()) {
+            for (String variant : variants) {
+                for (int level : levels) {
+                    int port = freePort();
+                    Process proxy = startProxy(variant, heap, port, upstream.baseUrl());
+                    try {
+                        awaitHealthy(proxy, port);
+                        Result result = hold(port, level);
+                        System.out.printf("%-9s heap=%-5s streams=%6d live=%6d failed=%6d pending=%6d ttfb p99=%6dms"
+                                        + "  rss=%5dMB threads=%5d%n",
+                                variant, heap, level, result.live, result.failed, level - result.live - result.failed,
+                                result.ttfbP99,
+                                rssMegabytes(proxy.pid()), threadCount(proxy.pid()));
+                    } finally {
+                        proxy.destroy();
+                        proxy.waitFor();
+                    }
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Proxy in a fresh JVM per level, so earlier levels leave no garbage or threads behind
+     */
+    private static Process startProxy(String variant, String heap, int port, String upstreamBaseUrl) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<String> command = new ArrayList<>(List.of(java, "-Xms" + heap, "-Xmx" + heap,
+                "-cp", System.getProperty("java.class.path"),
+                AnthropicProxyApplication.class.getName(),
+                "--server.port=" + port,
+                "--openai.base-url=" + upstreamBaseUrl,
+                "--openai.api-key=bench",
+                "--openai.timeout=600",
+                "--logging.level.root=WARN",
+                "--logging.level.com.example.anthropicproxy=WARN",
+                "--server.tomcat.max-connections=20000",
+                "--server.tomcat.accept-count=1000",
+                "--openai.pool.max-connections=20000",
+                "--openai.pool.pending-acquire-max-count=-1",
+                "--proxy.circuit-breaker.enabled=false"));
+        if (variant.equals("virtual")) {
+            command.add("--spring.threads.virtual.enabled=true");
+        }
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+    }
+
+    private static void awaitHealthy(Process proxy, int port) throws Exception {
+        java.net.http.HttpClient client = java.net.http.HttpClient.newHttpClient();
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/v1/health")).build();
+        long deadline = System.nanoTime() + Duration.ofSeconds(60).toNanos();
+        while (System.nanoTime() < deadline && proxy.isAlive()) {
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("Proxy did not start");
+    }
+
+    static Result hold(int port, int streams) throws InterruptedException {
+        ConnectionProvider provider = ConnectionProvider.builder("capacity")
+                .maxConnections(streams)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        HttpClient client = HttpClient.create(provider)
+                .baseUrl("http://localhost:" + port)
+                .headers(h -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"));
+
+        AtomicLong live = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<Long> ttfb = Collections.synchronizedList(new ArrayList<>());
+        Disposable load = Flux.range(0, streams)
+                .delayElements(OPEN_INTERVAL)
+                .flatMap(i -> open(client, i, live, failed, ttfb), streams)
+                .subscribe();
+
+        long deadline = System.nanoTime() + RAMP_TIMEOUT.toNanos();
+        while (live.get() + failed.get() < streams && System.nanoTime() < deadline) {
+            Thread.sleep(250);
+        }
+        // Let the live streams run a few tokens to expose late failures
+        Thread.sleep(5_000);
+        Result result = new Result(live.get(), failed.get(), ServingModeBenchmark.percentile(ttfb, 0.99));
+        load.dispose();
+        provider.disposeLater().block();
+        return result;
+    }
+
+    private static Mono<Void> open(HttpClient client, int index, AtomicLong live, AtomicLong failed, List<Long> ttfb) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            boolean[] first = {false};
+            return client.post()
+                    .uri("/v1/messages")
+                    .send(ByteBufFlux.fromString(Mono.just(String.format(BODY, index))))
+                    .response((response, content) -> {
+                        if (response.status().code() != 200) {
+                            return Mono.error(new IllegalStateException("HTTP " + response.status().code()));
+                        }
+                        return content.doOnNext(buf -> {
+                            if (!first[0]) {
+                                first[0] = true;
+                                ttfb.add((System.nanoTime() - start) / 1_000_000);
+                                live.incrementAndGet();
+                            }
+                        }).then();
+                    })
+                    .then()
+                    .onErrorResume(e -> {
+                        if (first[0]) {
+                            live.decrementAndGet();
+                        }
+                        failed.incrementAndGet();
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    private static long rssMegabytes(long pid) {
+        return procStatus(pid, "VmRSS:") / 1024;
+    }
+
+    private static long threadCount(long pid) {
+        return procStatus(pid, "Threads:");
+    }
+
+    private static long procStatus(long pid, String field) {
+        try {
+            return Files.readAllLines(Path.of("/proc", Long.toString(pid), "status")).stream()
+                    .filter(line -> line.startsWith(field))
+                    .map(line -> line.substring(field.length()).trim().split("\\s+")[0])
+                    .mapToLong(Long::parseLong)
+                    .findFirst().orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    record Result(long live, long failed, long ttfbP99) {
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.anthropicproxy.bench;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the proxy against several local stub upstreams to check the
+ * balancer: two fast endpoints, one slow endpoint and one that only returns
+ * 503. For each strategy it prints how many upstream calls each stub
+ * received, the client-visible failures and latency percentiles. A healthy
+ * result sends most traffic to the fast stubs and ejects the failing one
+ * after a handful of errors.
+ *
+ * Usage: UpstreamBalancingHarness [requests=2000] [concurrency=32]
+ */
+public class UpstreamBalancingHarness {
+    private static final String BODY = "{\"model\":\"claude-3-haiku\",\"max_tokens\":64,"
+            + "\"messages\":[{\"role\":\"user\",\"content\":\"Hello\"}]}";
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        for (String strategy : List.of("least-outstanding", "peak-ewma")) {
+            List<MockOpenAIServer> stubs = List.of(
+                    new MockOpenAIServer(Duration.ofMillis(20), Duration.ZERO, 5).start(),
+                    new MockOpenAIServer(Duration.ofMillis(20), Duration.ZERO, 5).start(),
+                    new MockOpenAIServer(Duration.ofMillis(250), Duration.ZERO, 5).start(),
+                    new MockOpenAIServer(Duration.ofMillis(20), Duration.ZERO, 5).start().failWith(503));
+            String[] names = {"fast-a", "fast-b", "slow", "failing"};
+
+            List<String> proxyArgs = new ArrayList<>();
+            proxyArgs.add("--openai.balancer.strategy=" + strategy);
+            proxyArgs.add("--proxy.cache.enabled=false");
+            proxyArgs.add("--proxy.coalesce.enabled=false");
+            for (int i = 0; i < stubs.size(); i++) {
+                proxyArgs.add("--openai.upstreams[" + i + "].name=" + names[i]);
+                proxyArgs.add("--openai.upstreams[" + i + "].base-url=" + stubs.get(i).baseUrl());
+            }
+
+            try (ConfigurableApplicationContext context = ServingModeBenchmark.startProxy(
+                    WebApplicationType.REACTIVE, stubs.get(0).baseUrl(), proxyArgs.toArray(String[]::new))) {
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                run(strategy, port, requests, concurrency);
+                for (int i = 0; i < stubs.size(); i++) {
+                    System.out.printf("    %-8s upstream calls=%5d%n", names[i], stubs.get(i).requestCount());
+                }
+            } finally {
+                stubs.forEach(MockOpenAIServer::close);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String strategy, int port, int requests, int concurrency) {
+        ConnectionProvider provider = ConnectionProvider.builder("harness")
+                .maxConnections(concurrency)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        HttpClient client = HttpClient.create(provider)
+                .baseUrl("http://localhost:" + port)
+                .headers(h -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"))
+                .responseTimeout(Duration.ofSeconds(30));
+
+        List<Long> latencies = new ArrayList<>();
+        AtomicLong failed = new AtomicLong();
+        Flux.range(0, requests)
+                .flatMap(i -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return client.post()
+                            .uri("/v1/messages")
+                            .send(ByteBufFlux.fromString(Mono.just(BODY)))
+                            .responseSingle((response, body) -> body.thenReturn(response.status().code())
+                                    .defaultIfEmpty(response.status().code()))
+                            .doOnNext(status -> {
+                                if (status != 200) {
+                                    failed.incrementAndGet();
+                                }
+                                synchronized (latencies) {
+                                    latencies.add((System.nanoTime() - start) / 1_000_000);
+                                }
+                            });
+                }), concurrency)
+                .blockLast(Duration.ofMinutes(10));
+        provider.disposeLater().block();
+
+        System.out.printf("%-17s requests=%d failed=%d latency p50=%dms p99=%dms%n", strategy, requests, failed.get(),
+                ServingModeBenchmark.percentile(latencies, 0.50), ServingModeBenchmark.percentile(latencies, 0.99));
+    }
+}
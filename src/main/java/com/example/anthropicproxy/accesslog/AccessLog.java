@@ -0,0 +1,216 @@
+package com.example.anthropicproxy.accesslog;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One structured record per /v1/messages request. Request threads only fill
+ * in an {@link Entry} and offer it to a lock-free ring buffer; a background
+ * thread formats the records as JSON lines and hands them to the
+ * "com.example.anthropicproxy.access" logger. Successful requests are
+ * sampled, and records that do not fit in the buffer are counted and dropped
+ * rather than slowing the request down.
+ */
+@Slf4j
+@Component
+public class AccessLog implements AutoCloseable {
+    public static final String LOGGER_NAME = "com.example.anthropicproxy.access";
+
+    /** Status recorded when the client goes away before the response completes */
+    public static final int CLIENT_CLOSED = 499;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final Logger ACCESS = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private final ProxyConfigProperties.AccessLog config;
+    private final JsonFactory jsonFactory;
+    private final MpscRingBuffer<Entry> buffer;
+    private final ProxyMetrics.Counter written;
+    private final ProxyMetrics.Counter dropped;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public AccessLog(ProxyConfigProperties proxyConfig, ObjectMapper objectMapper, ProxyMetrics metrics) {
+        this.config = proxyConfig.getAccessLog();
+        this.jsonFactory = objectMapper.getFactory();
+        this.buffer = new MpscRingBuffer<>(config.getBufferSize());
+        this.written = metrics.counter("proxy_access_log_records_total", "Access log records written");
+        this.dropped = metrics.counter("proxy_access_log_dropped_total",
+                "Access log records dropped because the buffer was full");
+        this.writer = new Thread(this::drain, "access-log");
+        this.writer.setDaemon(true);
+        if (config.isEnabled()) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Begin the record for a request; receivedAt is its System.nanoTime() arrival
+     */
+    public Entry start(String requestId, String model, boolean stream, long receivedAt) {
+        return new Entry(requestId, model, stream, receivedAt);
+    }
+
+    private void submit(Entry entry) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        boolean failed = entry.status >= 400 || entry.errorType != null;
+        if (!(failed && config.isAlwaysLogErrors())
+                && ThreadLocalRandom.current().nextDouble() >= config.getSampleRate()) {
+            return;
+        }
+        if (!buffer.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        StringWriter line = new StringWriter(256);
+        while (true) {
+            boolean stopping = !running;
+            Entry entry;
+            int drained = 0;
+            while ((entry = buffer.poll()) != null) {
+                write(entry, line);
+                drained++;
+            }
+            if (stopping) {
+                return;
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void write(Entry entry, StringWriter line) {
+        line.getBuffer().setLength(0);
+        try (JsonGenerator gen = jsonFactory.createGenerator(line)) {
+            gen.writeStartObject();
+            gen.writeStringField("ts", Instant.ofEpochMilli(entry.timestamp).toString());
+            gen.writeStringField("id", entry.requestId);
+            gen.writeStringField("model", entry.model);
+            gen.writeStringField("upstream_model", entry.upstreamModel);
+            gen.writeBooleanField("stream", entry.stream);
+            gen.writeNumberField("status", entry.status);
+            if (entry.errorType != null) {
+                gen.writeStringField("error", entry.errorType);
+            }
+            gen.writeNumberField("duration_ms", millis(entry.durationNanos));
+            if (entry.timeToFirstTokenNanos >= 0) {
+                gen.writeNumberField("ttft_ms", millis(entry.timeToFirstTokenNanos));
+            }
+            gen.writeNumberField("input_tokens", entry.inputTokens);
+            gen.writeNumberField("output_tokens", entry.outputTokens);
+            gen.writeEndObject();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to format access log record for {}", entry.requestId, e);
+            return;
+        }
+        ACCESS.info(line.toString());
+        written.increment();
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    /**
+     * Stop the writer after flushing the records already buffered
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(2));
+    }
+
+    /**
+     * Mutable record of one request, filled in by the thread handling it and
+     * immutable once {@link #finish(int)} has queued it
+     */
+    public final class Entry {
+        private final long timestamp = System.currentTimeMillis();
+        private final String requestId;
+        private final String model;
+        private final boolean stream;
+        private final long receivedAt;
+        private String upstreamModel;
+        private String errorType;
+        private long timeToFirstTokenNanos = -1;
+        private long inputTokens;
+        private long outputTokens;
+        private int status;
+        private long durationNanos;
+        // Cancellation and completion can race to finish a request
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Entry(String requestId, String model, boolean stream, long receivedAt) {
+            this.requestId = requestId;
+            this.model = model;
+            this.stream = stream;
+            this.receivedAt = receivedAt;
+        }
+
+        public Entry upstreamModel(String upstreamModel) {
+            this.upstreamModel = upstreamModel;
+            return this;
+        }
+
+        public Entry error(String errorType) {
+            this.errorType = errorType;
+            return this;
+        }
+
+        public Entry timeToFirstToken(long nanos) {
+            this.timeToFirstTokenNanos = nanos;
+            return this;
+        }
+
+        public Entry tokens(long inputTokens, long outputTokens) {
+            this.inputTokens = inputTokens;
+            this.outputTokens = outputTokens;
+            return this;
+        }
+
+        /**
+         * Token counts reported by the upstream, if any
+         */
+        public Entry usage(OpenAIUsage usage) {
+            if (usage != null) {
+                tokens(usage.getPromptTokens() != null ? usage.getPromptTokens() : 0,
+                        usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0);
+            }
+            return this;
+        }
+
+        /**
+         * Complete the record and queue it; only the first call counts
+         */
+        public void finish(int status) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            this.status = status;
+            this.durationNanos = System.nanoTime() - receivedAt;
+            submit(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.anthropicproxy.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer, after
+ * Vyukov's bounded MPMC queue. Each slot carries a sequence number: producers
+ * claim a position with one CAS on the tail and publish by advancing the
+ * slot's sequence; the consumer frees a slot by moving its sequence one lap
+ * ahead. A full buffer fails the offer instead of blocking the producer.
+ */
+final class MpscRingBuffer<T> {
+    private final int mask;
+    private final int capacity;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the consumer thread
+    private long head;
+
+    MpscRingBuffer(int requestedCapacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Enqueue from any thread; returns false without waiting when the buffer is full
+     */
+    boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, item);
+                    // Publishes the item: the consumer reads the sequence before the slot
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                // The slot one lap back has not been consumed yet
+                return false;
+            } else {
+                // Another producer claimed this position first
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Dequeue on the consumer thread; null when empty
+     */
+    T poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        T item = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, head + capacity);
+        head++;
+        return item;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.anthropicproxy.batch;
+
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live state of one batch. The requests file is written once at creation;
+ * results are appended to the results file as requests finish, one JSON line
+ * each, and the counters mirror what that file holds.
+ */
+final class MessageBatch {
+    static final String REQUESTS_FILE = "requests.jsonl";
+    static final String RESULTS_FILE = "results.jsonl";
+
+    private final String id;
+    private final Path directory;
+    private final Instant createdAt;
+    private final Instant expiresAt;
+    private final int total;
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger errored = new AtomicInteger();
+    private final AtomicInteger canceled = new AtomicInteger();
+    private final AtomicInteger expired = new AtomicInteger();
+    private final ReentrantLock resultsLock = new ReentrantLock();
+    // Custom ids that already have a result, only known for batches recovered after a restart
+    private volatile Set<String> finishedIds = Set.of();
+    private volatile Instant cancelInitiatedAt;
+    private volatile Instant endedAt;
+    private OutputStream results;
+
+    MessageBatch(String id, Path directory, Instant createdAt, Instant expiresAt, int total) {
+        this.id = id;
+        this.directory = directory;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+        this.total = total;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Path requestsFile() {
+        return directory.resolve(REQUESTS_FILE);
+    }
+
+    Path resultsFile() {
+        return directory.resolve(RESULTS_FILE);
+    }
+
+    boolean isExpired(Instant now) {
+        return now.isAfter(expiresAt);
+    }
+
+    boolean isCanceling() {
+        return cancelInitiatedAt != null;
+    }
+
+    boolean isEnded() {
+        return endedAt != null;
+    }
+
+    boolean isFinished(String customId) {
+        return finishedIds.contains(customId);
+    }
+
+    int processing() {
+        return total - succeeded.get() - errored.get() - canceled.get() - expired.get();
+    }
+
+    void markCancelInitiated(Instant at) {
+        cancelInitiatedAt = at;
+    }
+
+    void markEnded(Instant at) {
+        endedAt = at;
+        finishedIds = Set.of();
+    }
+
+    /**
+     * Counts and finished ids read back from the results file after a restart
+     */
+    void restore(int succeeded, int errored, int canceled, int expired, Set<String> finishedIds) {
+        this.succeeded.set(succeeded);
+        this.errored.set(errored);
+        this.canceled.set(canceled);
+        this.expired.set(expired);
+        this.finishedIds = finishedIds;
+    }
+
+    /**
+     * Append one result line and count it; returns true when it was the batch's last outstanding request
+     */
+    boolean appendResult(byte[] line, MessageBatchResults.Type type) throws IOException {
+        resultsLock.lock();
+        try {
+            if (results == null) {
+                results = new BufferedOutputStream(Files.newOutputStream(resultsFile(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            }
+            results.write(line);
+            results.write('\n');
+            // Flushed per line so a restart finds every result that was reported as counted
+            results.flush();
+            switch (type) {
+                case SUCCEEDED -> succeeded.incrementAndGet();
+                case ERRORED -> errored.incrementAndGet();
+                case CANCELED -> canceled.incrementAndGet();
+                case EXPIRED -> expired.incrementAndGet();
+            }
+            boolean last = processing() == 0;
+            if (last) {
+                results.close();
+                results = null;
+            }
+            return last;
+        } finally {
+            resultsLock.unlock();
+        }
+    }
+
+    /**
+     * Release the results file; appending reopens it
+     */
+    void close() throws IOException {
+        resultsLock.lock();
+        try {
+            if (results != null) {
+                results.close();
+                results = null;
+            }
+        } finally {
+            resultsLock.unlock();
+        }
+    }
+
+    AnthropicMessageBatch toResponse() {
+        String status = isEnded() ? "ended" : isCanceling() ? "canceling" : "in_progress";
+        return AnthropicMessageBatch.builder()
+                .id(id)
+                .processingStatus(status)
+                .requestCounts(AnthropicMessageBatch.RequestCounts.builder()
+                        .processing(processing())
+                        .succeeded(succeeded.get())
+                        .errored(errored.get())
+                        .canceled(canceled.get())
+                        .expired(expired.get())
+                        .build())
+                .createdAt(createdAt.toString())
+                .expiresAt(expiresAt.toString())
+                .cancelInitiatedAt(cancelInitiatedAt != null ? cancelInitiatedAt.toString() : null)
+                .endedAt(endedAt != null ? endedAt.toString() : null)
+                .resultsUrl(isEnded() ? "/v1/messages/batches/" + id + "/results" : null)
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.anthropicproxy.batch;
+
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatch;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of batch lifecycle events (created, cancel requested,
+ * ended), one JSON line each and forced to disk before the change is
+ * acknowledged. Replaying it at startup rebuilds the set of batches; per
+ * request progress lives in each batch's results file instead.
+ */
+final class MessageBatchLog implements AutoCloseable {
+    static final String CREATED = "created";
+    static final String CANCELED = "cancel_initiated";
+    static final String ENDED = "ended";
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+
+    MessageBatchLog(Path file, ObjectMapper objectMapper) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Events in the order they were appended; a partial last line from a crash is discarded
+     */
+    List<Event> replay() throws IOException {
+        List<Event> events = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return events;
+        }
+        truncateToLastLine(file);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    events.add(objectMapper.readValue(line, Event.class));
+                }
+            }
+        }
+        return events;
+    }
+
+    void append(Event event) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(event);
+        ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+        lock.lock();
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cut the file after its last newline, dropping a line that was only partly written
+     */
+    static void truncateToLastLine(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long end = raf.length();
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < raf.length()) {
+                raf.setLength(end);
+            }
+        }
+    }
+
+    /**
+     * Timestamps are RFC 3339 strings; expires_at and requests are only set on
+     * created events, and the final request counts on ended events
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Event(@JsonProperty("event") String event,
+                 @JsonProperty("id") String id,
+                 @JsonProperty("at") String at,
+                 @JsonProperty("expires_at") String expiresAt,
+                 @JsonProperty("requests") Integer requests,
+                 @JsonProperty("request_counts") AnthropicMessageBatch.RequestCounts counts) {
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.anthropicproxy.batch;
+
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the lines of a batch results file:
+ * {"custom_id":...,"result":{"type":"succeeded","message":{...}}}, or a result
+ * of type errored (with an Anthropic error body), canceled or expired.
+ */
+final class MessageBatchResults {
+    enum Type {
+        SUCCEEDED("succeeded"), ERRORED("errored"), CANCELED("canceled"), EXPIRED("expired");
+
+        private final String value;
+
+        Type(String value) {
+            this.value = value;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final AnthropicResponseWriter responseWriter;
+
+    MessageBatchResults(ObjectMapper objectMapper, AnthropicResponseWriter responseWriter) {
+        this.objectMapper = objectMapper;
+        this.responseWriter = responseWriter;
+    }
+
+    byte[] succeeded(String customId, OpenAICompletionResponse response, String anthropicModel, String messageId) {
+        return write(customId, Type.SUCCEEDED, gen -> {
+            gen.writeFieldName("message");
+            responseWriter.writeMessage(gen, response, anthropicModel, messageId);
+        });
+    }
+
+    byte[] errored(String customId, String errorType, String message) {
+        return write(customId, Type.ERRORED, gen -> {
+            gen.writeFieldName("error");
+            AnthropicResponseWriter.writeErrorObject(gen, errorType, message);
+        });
+    }
+
+    byte[] of(String customId, Type type) {
+        return write(customId, type, gen -> {
+        });
+    }
+
+    private byte[] write(String customId, Type type, ResultBody body) {
+        ByteArrayBuilder buffer = new ByteArrayBuilder(512);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(buffer)) {
+            gen.writeStartObject();
+            gen.writeStringField("custom_id", customId);
+            gen.writeFieldName("result");
+            gen.writeStartObject();
+            gen.writeStringField("type", type.value);
+            body.write(gen);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Counts by type and the custom ids of the results already written. A
+     * partial last line left by a crash is cut off so appending can resume.
+     */
+    Recovered recover(Path resultsFile) throws IOException {
+        Map<Type, Integer> counts = new EnumMap<>(Type.class);
+        Set<String> finished = new HashSet<>();
+        if (!Files.exists(resultsFile)) {
+            return new Recovered(counts, finished);
+        }
+        MessageBatchLog.truncateToLastLine(resultsFile);
+        try (BufferedReader reader = Files.newBufferedReader(resultsFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonNode result = objectMapper.readTree(line);
+                Type type = Type.valueOf(result.path("result").path("type").asText().toUpperCase(Locale.ROOT));
+                counts.merge(type, 1, Integer::sum);
+                finished.add(result.path("custom_id").asText());
+            }
+        }
+        return new Recovered(counts, finished);
+    }
+
+    record Recovered(Map<Type, Integer> counts, Set<String> finishedIds) {
+        int count(Type type) {
+            return counts.getOrDefault(type, 0);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResultBody {
+        void write(JsonGenerator gen) throws IOException;
+    }
+}
@@ -0,0 +1,477 @@
+package com.example.anthropicproxy.batch;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.model.anthropic.AnthropicCompletionRequest;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatch;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchCreateRequest;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchList;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchRequest;
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.service.AnthropicApiException;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.OpenAIApiException;
+import com.example.anthropicproxy.service.OpenAIClientService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs message batches in the background. Requests of all open batches are
+ * merged into one stream of upstream calls with at most
+ * proxy.batches.concurrency in flight, reading each batch's requests file
+ * lazily so that a batch is never held in memory. Rate-limited, overloaded
+ * and failing upstream calls are retried with exponential backoff, honouring
+ * the upstream retry-after, and a 429 pauses every batch rather than only the
+ * request that hit it. Batch state is rebuilt from the event log and the
+ * results files on startup, and unfinished batches resume where they stopped.
+ */
+@Slf4j
+@Service
+public class MessageBatchService implements AutoCloseable {
+    private static final String EVENT_LOG = "batches.log";
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final ProxyConfigProperties.Batches config;
+    private final ConversionService conversionService;
+    private final OpenAIClientService openAIClientService;
+    private final ObjectMapper objectMapper;
+    private final MessageBatchResults results;
+    private final Path directory;
+    private final MessageBatchLog eventLog;
+    private final ReentrantLock lock = new ReentrantLock();
+    // In creation order
+    private final Map<String, MessageBatch> batches = new LinkedHashMap<>();
+    private final Sinks.Many<MessageBatch> queue = Sinks.many().unicast().onBackpressureBuffer();
+    // System.nanoTime() before which no batch request is sent, pushed forward by upstream 429s
+    private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime());
+    private final Disposable worker;
+
+    public MessageBatchService(ProxyConfigProperties proxyConfig, ConversionService conversionService,
+                               OpenAIClientService openAIClientService, AnthropicResponseWriter responseWriter,
+                               ObjectMapper objectMapper) throws IOException {
+        this.config = proxyConfig.getBatches();
+        this.conversionService = conversionService;
+        this.openAIClientService = openAIClientService;
+        this.objectMapper = objectMapper;
+        this.results = new MessageBatchResults(objectMapper, responseWriter);
+        this.directory = Path.of(config.getDirectory()).toAbsolutePath();
+        this.eventLog = new MessageBatchLog(directory.resolve(EVENT_LOG), objectMapper);
+        if (!config.isEnabled()) {
+            this.worker = null;
+            return;
+        }
+        Files.createDirectories(directory);
+        this.worker = queue.asFlux()
+                // One request at a time from each open batch, interleaved
+                .flatMap(this::pendingRequests, Integer.MAX_VALUE, 1)
+                .flatMap(this::execute, config.getConcurrency())
+                .subscribe();
+        recover();
+    }
+
+    public AnthropicMessageBatch create(AnthropicMessageBatchCreateRequest request) {
+        checkEnabled();
+        List<AnthropicMessageBatchRequest> requests = validate(request);
+        String id = "msgbatch_" + UUID.randomUUID().toString().replace("-", "");
+        Instant now = Instant.now();
+        MessageBatch batch = new MessageBatch(id, directory.resolve(id), now, now.plus(config.getExpiry()),
+                requests.size());
+        try {
+            Files.createDirectories(directory.resolve(id));
+            writeRequests(batch.requestsFile(), requests);
+            eventLog.append(new MessageBatchLog.Event(MessageBatchLog.CREATED, id, now.toString(),
+                    batch.toResponse().getExpiresAt(), requests.size(), null));
+        } catch (IOException e) {
+            log.error("Cannot store message batch {}", id, e);
+            throw new AnthropicApiException("api_error", HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Cannot store message batch: " + e.getMessage());
+        }
+        lock.lock();
+        try {
+            batches.put(id, batch);
+            // The unicast sink needs serialized emissions
+            queue.tryEmitNext(batch);
+        } finally {
+            lock.unlock();
+        }
+        log.info("Created message batch {} with {} requests", id, requests.size());
+        return batch.toResponse();
+    }
+
+    public AnthropicMessageBatch get(String id) {
+        return find(id).toResponse();
+    }
+
+    public AnthropicMessageBatchList list(Integer limit, String beforeId, String afterId) {
+        checkEnabled();
+        int pageSize = limit == null ? 20 : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<MessageBatch> newestFirst;
+        lock.lock();
+        try {
+            newestFirst = new ArrayList<>(batches.values());
+        } finally {
+            lock.unlock();
+        }
+        Collections.reverse(newestFirst);
+        int from = 0;
+        int to = newestFirst.size();
+        if (afterId != null) {
+            from = indexOf(newestFirst, afterId) + 1;
+        }
+        if (beforeId != null) {
+            to = indexOf(newestFirst, beforeId);
+            from = Math.max(from, to - pageSize);
+        }
+        int end = Math.max(from, Math.min(to, from + pageSize));
+        List<AnthropicMessageBatch> page = newestFirst.subList(from, end).stream()
+                .map(MessageBatch::toResponse)
+                .toList();
+        return AnthropicMessageBatchList.builder()
+                .data(page)
+                .hasMore(beforeId != null ? from > 0 : end < to)
+                .firstId(page.isEmpty() ? null : page.get(0).getId())
+                .lastId(page.isEmpty() ? null : page.get(page.size() - 1).getId())
+                .build();
+    }
+
+    /**
+     * Results file of an ended batch, one JSON line per request in completion order
+     */
+    public Path results(String id) {
+        MessageBatch batch = find(id);
+        if (!batch.isEnded()) {
+            throw new AnthropicApiException("invalid_request_error", HttpStatus.CONFLICT,
+                    "Message batch " + id + " is still processing; results are available once it has ended");
+        }
+        return batch.resultsFile();
+    }
+
+    /**
+     * Stop sending the batch's remaining requests; they are reported as canceled
+     */
+    public AnthropicMessageBatch cancel(String id) {
+        MessageBatch batch = find(id);
+        if (!batch.isEnded() && !batch.isCanceling()) {
+            Instant now = Instant.now();
+            try {
+                eventLog.append(new MessageBatchLog.Event(MessageBatchLog.CANCELED, id, now.toString(),
+                        null, null, null));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            batch.markCancelInitiated(now);
+            log.info("Canceling message batch {}", id);
+        }
+        return batch.toResponse();
+    }
+
+    private MessageBatch find(String id) {
+        checkEnabled();
+        MessageBatch batch;
+        lock.lock();
+        try {
+            batch = batches.get(id);
+        } finally {
+            lock.unlock();
+        }
+        if (batch == null) {
+            throw new AnthropicApiException("not_found_error", HttpStatus.NOT_FOUND, "Message batch not found: " + id);
+        }
+        return batch;
+    }
+
+    private void checkEnabled() {
+        if (!config.isEnabled()) {
+            throw new AnthropicApiException("not_found_error", HttpStatus.NOT_FOUND, "Message batches are disabled");
+        }
+    }
+
+    private static int indexOf(List<MessageBatch> batches, String id) {
+        for (int i = 0; i < batches.size(); i++) {
+            if (batches.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        throw new AnthropicApiException("not_found_error", HttpStatus.NOT_FOUND, "Message batch not found: " + id);
+    }
+
+    private List<AnthropicMessageBatchRequest> validate(AnthropicMessageBatchCreateRequest request) {
+        List<AnthropicMessageBatchRequest> requests = request != null ? request.getRequests() : null;
+        if (requests == null || requests.isEmpty()) {
+            throw invalid("requests must contain at least one request");
+        }
+        if (requests.size() > config.getMaxRequests()) {
+            throw invalid("A batch holds at most " + config.getMaxRequests() + " requests");
+        }
+        Set<String> customIds = new HashSet<>();
+        for (AnthropicMessageBatchRequest entry : requests) {
+            if (entry.getCustomId() == null || entry.getCustomId().isBlank()) {
+                throw invalid("Every request needs a custom_id");
+            }
+            if (!customIds.add(entry.getCustomId())) {
+                throw invalid("Duplicate custom_id: " + entry.getCustomId());
+            }
+            AnthropicCompletionRequest params = entry.getParams();
+            if (params == null || params.getMessages() == null || params.getMessages().isEmpty()) {
+                throw invalid("Request " + entry.getCustomId() + " has no messages");
+            }
+            if (Boolean.TRUE.equals(params.getStream())) {
+                throw invalid("Request " + entry.getCustomId() + ": streaming is not supported in batches");
+            }
+        }
+        return requests;
+    }
+
+    private static AnthropicApiException invalid(String message) {
+        return new AnthropicApiException("invalid_request_error", HttpStatus.BAD_REQUEST, message);
+    }
+
+    private void writeRequests(Path file, List<AnthropicMessageBatchRequest> requests) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            for (AnthropicMessageBatchRequest request : requests) {
+                out.write(objectMapper.writeValueAsBytes(request));
+                out.write('\n');
+            }
+            out.flush();
+            // On disk before the created event makes the batch visible
+            channel.force(false);
+        }
+    }
+
+    private Flux<BatchItem> pendingRequests(MessageBatch batch) {
+        return Flux.using(
+                        () -> Files.newBufferedReader(batch.requestsFile()),
+                        (BufferedReader reader) -> Flux.fromStream(reader.lines()),
+                        reader -> {
+                            try {
+                                reader.close();
+                            } catch (IOException e) {
+                                log.debug("Closing requests of batch {} failed", batch.getId(), e);
+                            }
+                        })
+                .map(line -> new BatchItem(batch, readRequest(line)))
+                .filter(item -> !batch.isFinished(item.request().getCustomId()))
+                .onErrorResume(error -> {
+                    log.error("Cannot read the requests of message batch {}", batch.getId(), error);
+                    return Flux.empty();
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private AnthropicMessageBatchRequest readRequest(String line) {
+        try {
+            return objectMapper.readValue(line, AnthropicMessageBatchRequest.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Mono<Void> execute(BatchItem item) {
+        MessageBatch batch = item.batch();
+        String customId = item.request().getCustomId();
+        if (batch.isCanceling()) {
+            return record(batch, results.of(customId, MessageBatchResults.Type.CANCELED),
+                    MessageBatchResults.Type.CANCELED);
+        }
+        if (batch.isExpired(Instant.now())) {
+            return record(batch, results.of(customId, MessageBatchResults.Type.EXPIRED),
+                    MessageBatchResults.Type.EXPIRED);
+        }
+        AnthropicCompletionRequest params = item.request().getParams();
+        String messageId = "msg_" + UUID.randomUUID().toString().substring(0, 8);
+        return Mono.defer(() -> {
+                    OpenAICompletionRequest openaiRequest = conversionService.convertRequest(params);
+                    Mono<OpenAICompletionResponse> call = openAIClientService.createCompletion(openaiRequest, true)
+                            .switchIfEmpty(Mono.error(() -> new IllegalStateException("Upstream returned no response")));
+                    long pause = pausedUntil.get() - System.nanoTime();
+                    return pause > 0 ? Mono.delay(Duration.ofNanos(pause)).then(call) : call;
+                })
+                .retryWhen(Retry.from(signals -> signals.concatMap(signal -> backoff(signal.failure(),
+                        signal.totalRetries()))))
+                .map(response -> results.succeeded(customId, response, params.getModel(), messageId))
+                .flatMap(line -> record(batch, line, MessageBatchResults.Type.SUCCEEDED))
+                .onErrorResume(error -> {
+                    log.debug("Request {} of message batch {} failed", customId, batch.getId(), error);
+                    return record(batch, results.errored(customId, errorType(error), error.getMessage()),
+                            MessageBatchResults.Type.ERRORED);
+                });
+    }
+
+    private Mono<Long> backoff(Throwable error, long retries) {
+        if (!isRetryable(error) || retries >= config.getMaxRetries()) {
+            return Mono.error(error);
+        }
+        Duration delay = config.getInitialBackoff().multipliedBy(1L << Math.min(retries, 16));
+        if (error instanceof OpenAIApiException upstreamError && upstreamError.getRetryAfter() != null
+                && upstreamError.getRetryAfter().compareTo(delay) > 0) {
+            delay = upstreamError.getRetryAfter();
+        }
+        if (delay.compareTo(config.getMaxBackoff()) > 0) {
+            delay = config.getMaxBackoff();
+        }
+        if (error instanceof OpenAIApiException upstreamError && upstreamError.getStatusCode().value() == 429) {
+            long until = System.nanoTime() + delay.toNanos();
+            pausedUntil.accumulateAndGet(until, Math::max);
+        }
+        return Mono.delay(delay);
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof OpenAIApiException upstreamError) {
+            return upstreamError.isRetryable();
+        }
+        if (error instanceof AnthropicApiException apiError) {
+            // Open circuit breaker or exhausted upstream pool
+            return apiError.getStatusCode().value() == 529 || apiError.getStatusCode().value() == 429;
+        }
+        return error instanceof WebClientRequestException || error instanceof TimeoutException;
+    }
+
+    private static String errorType(Throwable error) {
+        if (error instanceof AnthropicApiException apiError) {
+            return apiError.getErrorType();
+        }
+        if (error instanceof OpenAIApiException upstreamError) {
+            if (upstreamError.getStatusCode().value() == 429) {
+                return "rate_limit_error";
+            }
+            return upstreamError.getStatusCode().is4xxClientError() ? "invalid_request_error" : "api_error";
+        }
+        return "api_error";
+    }
+
+    /**
+     * Append a result off the event loop, ending the batch after its last one
+     */
+    private Mono<Void> record(MessageBatch batch, byte[] line, MessageBatchResults.Type type) {
+        return Mono.<Void>fromRunnable(() -> {
+                    try {
+                        if (batch.appendResult(line, type)) {
+                            end(batch);
+                        }
+                    } catch (IOException e) {
+                        log.error("Cannot write a result of message batch {}", batch.getId(), e);
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private void end(MessageBatch batch) throws IOException {
+        Instant now = Instant.now();
+        // Logged first, so a batch reported as ended stays ended after a restart
+        eventLog.append(new MessageBatchLog.Event(MessageBatchLog.ENDED, batch.getId(), now.toString(),
+                null, null, batch.toResponse().getRequestCounts()));
+        batch.markEnded(now);
+        log.info("Message batch {} ended: {}", batch.getId(), batch.toResponse().getRequestCounts());
+    }
+
+    /**
+     * Rebuild the batches from the event log, then resume the unfinished ones
+     */
+    private void recover() throws IOException {
+        List<MessageBatch> unfinished = new ArrayList<>();
+        lock.lock();
+        try {
+            for (MessageBatchLog.Event event : eventLog.replay()) {
+                MessageBatch batch = batches.get(event.id());
+                switch (event.event()) {
+                    case MessageBatchLog.CREATED -> batches.put(event.id(), new MessageBatch(event.id(),
+                            directory.resolve(event.id()), Instant.parse(event.at()),
+                            Instant.parse(event.expiresAt()), event.requests()));
+                    case MessageBatchLog.CANCELED -> {
+                        if (batch != null) {
+                            batch.markCancelInitiated(Instant.parse(event.at()));
+                        }
+                    }
+                    case MessageBatchLog.ENDED -> {
+                        if (batch != null) {
+                            AnthropicMessageBatch.RequestCounts counts = event.counts();
+                            batch.restore(counts.getSucceeded(), counts.getErrored(), counts.getCanceled(),
+                                    counts.getExpired(), Set.of());
+                            batch.markEnded(Instant.parse(event.at()));
+                        }
+                    }
+                    default -> log.warn("Unknown message batch event: {}", event.event());
+                }
+            }
+            for (MessageBatch batch : batches.values()) {
+                if (!batch.isEnded()) {
+                    MessageBatchResults.Recovered recovered = results.recover(batch.resultsFile());
+                    batch.restore(recovered.count(MessageBatchResults.Type.SUCCEEDED),
+                            recovered.count(MessageBatchResults.Type.ERRORED),
+                            recovered.count(MessageBatchResults.Type.CANCELED),
+                            recovered.count(MessageBatchResults.Type.EXPIRED),
+                            recovered.finishedIds());
+                    unfinished.add(batch);
+                }
+            }
+            for (MessageBatch batch : unfinished) {
+                if (batch.processing() == 0) {
+                    end(batch);
+                } else {
+                    queue.tryEmitNext(batch);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!batches.isEmpty()) {
+            log.info("Recovered {} message batches, resuming {}", batches.size(),
+                    unfinished.stream().filter(batch -> !batch.isEnded()).count());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (worker != null) {
+            worker.dispose();
+        }
+        lock.lock();
+        try {
+            for (MessageBatch batch : batches.values()) {
+                batch.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        eventLog.close();
+    }
+
+    private record BatchItem(MessageBatch batch, AnthropicMessageBatchRequest request) {
+    }
+}
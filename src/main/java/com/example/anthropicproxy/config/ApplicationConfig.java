@@ -1,5 +1,9 @@
 package com.example.anthropicproxy.config;
 
+import com.example.anthropicproxy.metrics.ConnectionPoolMeterRegistrar;
+import com.example.anthropicproxy.metrics.PipelineMetrics;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.service.GzipCompressor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.RequiredArgsConstructor;
@@ -9,16 +13,24 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.Http2AllocationStrategy;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import io.netty.channel.ChannelOption;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 
 @Configuration
 @RequiredArgsConstructor
 public class ApplicationConfig {
 
     private final OpenAIConfigProperties openAIConfig;
+    private final ProxyMetrics metrics;
+    private final PipelineMetrics pipelineMetrics;
+    private final GzipCompressor gzipCompressor;
 
     @Bean
     public ObjectMapper objectMapper() {
@@ -27,17 +39,64 @@ public class ApplicationConfig {
         return mapper;
     }
 
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider openaiConnectionProvider() {
+        OpenAIConfigProperties.Pool pool = openAIConfig.getPool();
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("openai")
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxLifeTime(pool.getMaxLifeTime())
+                .evictInBackground(pool.getEvictInBackground())
+                .metrics(true, () -> new ConnectionPoolMeterRegistrar(metrics));
+        if ("fifo".equalsIgnoreCase(pool.getLeasingStrategy())) {
+            builder.fifo();
+        } else {
+            builder.lifo();
+        }
+        if (upstreamProtocols().stream().anyMatch(p -> p != HttpProtocol.HTTP11)) {
+            // Multiplex streams over a few connections instead of one connection per request
+            builder.allocationStrategy(Http2AllocationStrategy.builder()
+                    .maxConnections(pool.getMaxConnections())
+                    .minConnections(pool.getHttp2MinConnections())
+                    .maxConcurrentStreams(pool.getHttp2MaxConcurrentStreams())
+                    .build());
+        }
+        return builder.build();
+    }
+
     @Bean
-    public WebClient openaiWebClient() {
-        HttpClient httpClient = HttpClient.create()
+    public WebClient openaiWebClient(ConnectionProvider openaiConnectionProvider) {
+        List<HttpProtocol> protocols = upstreamProtocols();
+        HttpClient httpClient = HttpClient.create(openaiConnectionProvider)
+                .protocol(protocols.toArray(HttpProtocol[]::new))
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) (openAIConfig.getTimeout() * 1000))
-                .responseTimeout(Duration.ofSeconds(openAIConfig.getTimeout()));
+                .responseTimeout(Duration.ofSeconds(openAIConfig.getTimeout()))
+                // Accept-Encoding: gzip, deflate; Netty's decoder inflates bodies and SSE streams chunk by chunk
+                .compress(openAIConfig.getCompression().isResponses());
+        if (protocols.contains(HttpProtocol.H2) && openAIConfig.getBaseUrl().startsWith("https:")) {
+            // h2 is negotiated through ALPN, which needs an explicitly configured TLS context
+            httpClient = httpClient.secure();
+        }
 
-        return WebClient.builder()
+        WebClient.Builder builder = WebClient.builder()
                 .baseUrl(openAIConfig.getBaseUrl())
                 .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + openAIConfig.getApiKey())
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .clientConnector(new ReactorClientHttpConnector(httpClient))
-                .build();
+                .filter(pipelineMetrics.upstreamTiming());
+        OpenAIConfigProperties.Compression compression = openAIConfig.getCompression();
+        if (compression.isRequests()) {
+            builder.filter(gzipCompressor.requestCompression(compression.getMinRequestSize().toBytes()));
+        }
+        return builder.build();
+    }
+
+    private List<HttpProtocol> upstreamProtocols() {
+        return openAIConfig.getPool().getProtocols().stream()
+                .map(name -> HttpProtocol.valueOf(name.trim().toUpperCase(Locale.ROOT)))
+                .distinct()
+                .toList();
     }
 }
\ No newline at end of file
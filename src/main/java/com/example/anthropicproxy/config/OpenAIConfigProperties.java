@@ -4,6 +4,11 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Getter
 @Setter
@@ -14,4 +19,79 @@ public class OpenAIConfigProperties {
     private String baseUrl = "https://api.openai.com";
     private String apiVersion = "v1";
     private Long timeout = 60L;
-}
\ No newline at end of file
+    // Ask for usage in the last chunk of streams (stream_options.include_usage)
+    private boolean streamUsage = true;
+    private Pool pool = new Pool();
+    // Additional endpoints to balance across; when empty, baseUrl/apiKey is the only upstream
+    private List<Upstream> upstreams = new ArrayList<>();
+    private Balancer balancer = new Balancer();
+    private Compression compression = new Compression();
+
+    /**
+     * Upstream connection pool and protocol settings
+     */
+    @Getter
+    @Setter
+    public static class Pool {
+        private int maxConnections = 200;
+        // Requests allowed to queue for a connection; -1 means unbounded
+        private int pendingAcquireMaxCount = 1000;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(10);
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+        // Zero disables background eviction; idle/life limits are then checked on acquire
+        private Duration evictInBackground = Duration.ofSeconds(30);
+        // lifo keeps a hot set of connections and lets the rest idle out
+        private String leasingStrategy = "lifo";
+        // Any of http11, h2 (TLS + ALPN) and h2c (cleartext prior knowledge)
+        private List<String> protocols = List.of("http11");
+        private long http2MaxConcurrentStreams = 100;
+        private int http2MinConnections = 1;
+    }
+
+    /**
+     * One OpenAI-compatible endpoint; baseUrl and apiKey default to the top-level values
+     */
+    @Getter
+    @Setter
+    public static class Upstream {
+        private String name;
+        private String baseUrl;
+        private String apiKey;
+        private int weight = 1;
+    }
+
+    /**
+     * Upstream selection and passive health checking
+     */
+    @Getter
+    @Setter
+    public static class Balancer {
+        private Strategy strategy = Strategy.PEAK_EWMA;
+        // Time constant of the latency moving average
+        private Duration ewmaDecay = Duration.ofSeconds(10);
+        // Consecutive failures (5xx, 429, transport errors) before an endpoint is ejected
+        private int consecutiveFailures = 5;
+        private Duration baseEjectionTime = Duration.ofSeconds(30);
+        private Duration maxEjectionTime = Duration.ofMinutes(5);
+        private int maxEjectedPercent = 50;
+
+        public enum Strategy {
+            LEAST_OUTSTANDING,
+            PEAK_EWMA
+        }
+    }
+
+    /**
+     * Compression on the upstream connection
+     */
+    @Getter
+    @Setter
+    public static class Compression {
+        // Gzip request bodies; only for upstreams that accept Content-Encoding: gzip
+        private boolean requests = false;
+        private DataSize minRequestSize = DataSize.ofKilobytes(16);
+        // Send Accept-Encoding and decode compressed responses, streams included
+        private boolean responses = true;
+    }
+}
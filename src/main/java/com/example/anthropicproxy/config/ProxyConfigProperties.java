@@ -0,0 +1,229 @@
+package com.example.anthropicproxy.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "proxy")
+public class ProxyConfigProperties {
+    private Cache cache = new Cache();
+    private Coalesce coalesce = new Coalesce();
+    private Hedging hedging = new Hedging();
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private RateLimit rateLimit = new RateLimit();
+    private AccessLog accessLog = new AccessLog();
+    private Routing routing = new Routing();
+    private Tokenizer tokenizer = new Tokenizer();
+    private Batches batches = new Batches();
+    private Streaming streaming = new Streaming();
+    private Images images = new Images();
+    private Compression compression = new Compression();
+    private PrefixCache prefixCache = new PrefixCache();
+
+    /**
+     * Response cache for deterministic (temperature 0) non-streaming completions
+     */
+    @Getter
+    @Setter
+    public static class Cache {
+        private boolean enabled = true;
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+        private Duration ttl = Duration.ofMinutes(10);
+    }
+
+    /**
+     * Single-flight sharing of identical in-flight upstream requests
+     */
+    @Getter
+    @Setter
+    public static class Coalesce {
+        private boolean enabled = true;
+    }
+
+    /**
+     * Second attempt for slow non-streaming completions
+     */
+    @Getter
+    @Setter
+    public static class Hedging {
+        private boolean enabled = false;
+        // Fixed hedge delay; when unset, the live latency percentile of the model is used
+        private Duration delay;
+        private double percentile = 0.95;
+        // Delay used until a model has min-samples latency observations
+        private Duration fallbackDelay = Duration.ofSeconds(2);
+        private Duration minDelay = Duration.ofMillis(50);
+        private int minSamples = 50;
+        private int window = 512;
+        // Hedges allowed as a percentage of primary requests, with a small burst allowance
+        private double budgetPercent = 5.0;
+        private int maxBurst = 10;
+    }
+
+    /**
+     * Per-model circuit breaker around upstream calls
+     */
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+        private boolean enabled = true;
+        // Number of most recent calls the failure and slow-call rates are computed over
+        private int windowSize = 50;
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 50;
+        private double slowCallRateThreshold = 80;
+        // Non-streaming latency, or time to first chunk for streams, above which a call counts as slow
+        private Duration slowCallDuration = Duration.ofSeconds(30);
+        private Duration openDuration = Duration.ofSeconds(30);
+        private int halfOpenCalls = 3;
+        // Upstream model to use while a model's breaker is open, e.g. gpt-5: gpt-4.1
+        private Map<String, String> fallbackModels = new LinkedHashMap<>();
+    }
+
+    /**
+     * Per-API-key admission control
+     */
+    @Getter
+    @Setter
+    public static class RateLimit {
+        private boolean enabled = false;
+        private Limits defaults = new Limits();
+        // Limits for individual API keys; when set, all other keys share one bucket with the defaults
+        private Map<String, Limits> clients = new LinkedHashMap<>();
+        // Without configured keys, at most this many keys get buckets of their own; further keys share one
+        private int maxTrackedClients = 100_000;
+
+        @Getter
+        @Setter
+        public static class Limits {
+            private long requestsPerMinute = 1000;
+            // Estimated prompt tokens plus max_tokens, reconciled against reported usage
+            private long tokensPerMinute = 400_000;
+        }
+    }
+
+    /**
+     * Structured per-request log written by a background thread
+     */
+    @Getter
+    @Setter
+    public static class AccessLog {
+        private boolean enabled = true;
+        // Fraction of successful requests logged; failed requests are always logged when always-log-errors is set
+        private double sampleRate = 1.0;
+        private boolean alwaysLogErrors = true;
+        // Records waiting for the writer; further records are dropped and counted
+        private int bufferSize = 8192;
+    }
+
+    /**
+     * Anthropic -> upstream model routing table
+     */
+    @Getter
+    @Setter
+    public static class Routing {
+        // External routes file, reloaded when it changes; the bundled model-routes.yml is used when unset
+        private String file;
+        private boolean watch = true;
+        // Unlisted model names whose resolution is remembered per table version
+        private int memoSize = 1024;
+    }
+
+    /**
+     * Local token counting for /v1/messages/count_tokens
+     */
+    @Getter
+    @Setter
+    public static class Tokenizer {
+        // tiktoken vocabulary file (e.g. cl100k_base.tiktoken); counts are estimated from text length when unset
+        private String vocabulary;
+        private String encoding = "cl100k_base";
+        // Estimate per image, whose size is not decoded: about what a full-resolution image costs
+        private int tokensPerImage = 1600;
+        // Distinct system prompts and tool definitions whose token counts are kept
+        private int systemPromptCacheSize = 256;
+    }
+
+    /**
+     * Message Batches API, processed locally against the upstream
+     */
+    @Getter
+    @Setter
+    public static class Batches {
+        private boolean enabled = true;
+        // Holds the batch event log and each batch's request and result files
+        private String directory = "data/batches";
+        // Upstream calls in flight across all batches
+        private int concurrency = 16;
+        private int maxRequests = 100_000;
+        private Duration expiry = Duration.ofHours(24);
+        // Retries of rate-limited (429), overloaded and 5xx upstream calls before a request errors
+        private int maxRetries = 8;
+        private Duration initialBackoff = Duration.ofSeconds(1);
+        private Duration maxBackoff = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Buffering between an upstream stream and the client reading it
+     */
+    @Getter
+    @Setter
+    public static class Streaming {
+        // SSE events held for a client that reads slower than the upstream produces
+        private int bufferSize = 256;
+        private OverflowPolicy overflow = OverflowPolicy.BACKPRESSURE;
+
+        public enum OverflowPolicy {
+            // Stop reading from the upstream until the client catches up
+            BACKPRESSURE,
+            // Cancel the upstream call and end the stream with an overloaded_error event
+            ERROR
+        }
+    }
+
+    /**
+     * Image content blocks, passed to the upstream as image_url parts
+     */
+    @Getter
+    @Setter
+    public static class Images {
+        // Decoded image data allowed in one request; larger requests get a 413 request_too_large
+        private DataSize maxBytesPerRequest = DataSize.ofMegabytes(20);
+        // Request body held by the reactive mode besides base64 image data
+        private DataSize maxTextBytes = DataSize.ofMegabytes(16);
+    }
+
+    /**
+     * Gzip of non-streaming /v1/messages responses; the deflater pool is shared with upstream request compression
+     */
+    @Getter
+    @Setter
+    public static class Compression {
+        private boolean enabled = true;
+        // Smaller responses are sent as they are; SSE streams are never compressed
+        private DataSize minResponseSize = DataSize.ofKilobytes(1);
+        // Deflate level, 1 (fastest) to 9 (smallest)
+        private int level = 5;
+        // Deflaters kept for reuse; more are created under load and released afterwards
+        private int poolSize = 16;
+    }
+
+    /**
+     * Converted message prefixes reused across the turns of a conversation
+     */
+    @Getter
+    @Setter
+    public static class PrefixCache {
+        private boolean enabled = true;
+        private DataSize maxSize = DataSize.ofMegabytes(32);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.anthropicproxy.config;
+
+import com.example.anthropicproxy.controller.ReactiveMessagesHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.http.client.ReactorResourceFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Routes for the Netty/WebFlux serving mode. Router functions are consulted
+ * before annotated controllers, so POST /v1/messages is served by
+ * {@link ReactiveMessagesHandler} while the remaining read-only endpoints
+ * keep using AnthropicController.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServingConfig {
+
+    /**
+     * Spring Boot picks Tomcat over Reactor Netty when both are on the
+     * classpath, and Tomcat is needed for the servlet mode, so the reactive
+     * mode asks for Netty explicitly
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory(ObjectProvider<ReactorResourceFactory> resourceFactory) {
+        NettyReactiveWebServerFactory factory = new NettyReactiveWebServerFactory();
+        resourceFactory.ifAvailable(factory::setResourceFactory);
+        return factory;
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> messagesRoute(ReactiveMessagesHandler handler) {
+        return route(POST("/v1/messages"), handler::createMessage);
+    }
+}
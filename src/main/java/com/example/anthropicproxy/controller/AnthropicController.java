@@ -1,24 +1,29 @@
 package com.example.anthropicproxy.controller;
 
+import com.example.anthropicproxy.metrics.PipelineMetrics;
 import com.example.anthropicproxy.model.anthropic.AnthropicCompletionRequest;
-import com.example.anthropicproxy.model.anthropic.AnthropicCompletionResponse;
-import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
-import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.anthropicproxy.model.anthropic.AnthropicUsage;
+import com.example.anthropicproxy.service.AnthropicApiException;
 import com.example.anthropicproxy.service.ConversionService;
-import com.example.anthropicproxy.service.OpenAIClientService;
+import com.example.anthropicproxy.service.ModelMappingService;
+import com.example.anthropicproxy.service.TranscodedRequest;
+import com.example.anthropicproxy.tokenizer.TokenCounter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.BaseSubscriber;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/v1")
@@ -26,8 +31,10 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class AnthropicController {
     private final ConversionService conversionService;
-    private final OpenAIClientService openAIClientService;
-    private final ObjectMapper objectMapper;
+    private final ModelMappingService modelMappingService;
+    private final MessagePipeline messagePipeline;
+    private final ThreadPerStreamWriter threadPerStreamWriter;
+    private final TokenCounter tokenCounter;
 
     @GetMapping("/")
     public ResponseEntity<Map<String, Object>> root() {
@@ -37,6 +44,7 @@ public class AnthropicController {
         response.put("status", "running");
         response.put("endpoints", Map.of(
                 "/v1/messages", "Chat messages (main endpoint)",
+                "/v1/messages/count_tokens", "Prompt token count",
                 "/v1/models", "Available models list",
                 "/health", "Health check",
                 "/docs", "API documentation"
@@ -52,32 +60,16 @@ public class AnthropicController {
 
     @GetMapping("/models")
     public ResponseEntity<Map<String, Object>> listModels() {
-        // Return supported Anthropic models (mapped to OpenAI)
+        // Supported Anthropic models, from the routing table currently in use
         List<Map<String, Object>> models = new ArrayList<>();
-
-        // Model mapping from ModelMappingService (hardcoded for now)
-        String[][] modelPairs = {
-                {"claude-3-haiku-20240307", "gpt-3.5-turbo"},
-                {"claude-3-haiku", "gpt-3.5-turbo"},
-                {"claude-3-sonnet-20240229", "gpt-4.1"},
-                {"claude-3-sonnet", "gpt-4.1"},
-                {"claude-3-opus-20240229", "gpt-4o"},
-                {"claude-3-opus", "gpt-4o"},
-                {"claude-2.1", "gpt-4.1"},
-                {"claude-2.0", "gpt-4.1"},
-                {"claude-instant-1.2", "gpt-3.5-turbo"},
-                {"claude-4.5-sonnet-20251209", "gpt-5"},
-                {"claude-4.5-sonnet", "gpt-5"}
-        };
-
-        for (String[] pair : modelPairs) {
+        for (String id : modelMappingService.getModels().keySet()) {
             Map<String, Object> model = new HashMap<>();
-            model.put("id", pair[0]);
+            model.put("id", id);
             model.put("object", "model");
             model.put("created", 1686935000L); // Fixed timestamp
             model.put("owned_by", "openai-via-proxy");
             model.put("permission", Collections.emptyList());
-            model.put("root", pair[0]);
+            model.put("root", id);
             model.put("parent", null);
             models.add(model);
         }
@@ -89,112 +81,102 @@ public class AnthropicController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Prompt token count for a messages request, computed locally without an upstream call
+     */
+    @PostMapping("/messages/count_tokens")
+    public ResponseEntity<AnthropicUsage> countTokens(@RequestBody AnthropicCompletionRequest request) {
+        return ResponseEntity.ok(AnthropicUsage.builder()
+                .inputTokens(tokenCounter.countInputTokens(request))
+                .build());
+    }
+
+    /**
+     * The body is read straight from the request stream by the request
+     * transcoder rather than bound to an AnthropicCompletionRequest
+     */
     @PostMapping("/messages")
-    public Object createMessage(@RequestBody AnthropicCompletionRequest request) {
-        log.info("Received message request, model: {}, streaming: {}",
-                request.getModel(), request.getStream());
-
-        // Generate request ID
-        String requestId = "msg_" + UUID.randomUUID().toString().substring(0, 8);
-
-        // Convert request
-        OpenAICompletionRequest openaiRequest = conversionService.convertRequest(request);
-
-        // Check if streaming
-        if (request.getStream() != null && request.getStream()) {
-            // Streaming response - return SseEmitter directly
-            log.info("Creating streaming response");
-            return createStreamingResponse(openaiRequest, request, requestId);
-        } else {
-            // Non-streaming response - return Mono<ResponseEntity<Object>>
-            return createNonStreamingResponse(openaiRequest, request, requestId);
+    public Object createMessage(
+            @RequestHeader HttpHeaders headers,
+            HttpServletRequest servletRequest,
+            HttpServletResponse servletResponse
+    ) throws IOException {
+        long receivedAt = System.nanoTime();
+
+        // Invalid bodies and rate limit rejections are rendered by handleApiException
+        TranscodedRequest request = conversionService.transcodeRequest(servletRequest.getInputStream());
+        MessagePipeline.Exchange exchange = messagePipeline.admit(request, headers, receivedAt);
+
+        if (exchange.streaming()) {
+            MessagePipeline.Stream stream = messagePipeline.stream(exchange);
+            if (threadPerStreamWriter.isEnabled()) {
+                // Virtual threads: block this request thread on the stream; null marks the response as handled
+                threadPerStreamWriter.write(stream.frames(), servletResponse, stream.observation(), exchange.requestId());
+                return null;
+            }
+            return createStreamingResponse(stream.frames(), exchange.requestId(), stream.observation());
         }
+        return messagePipeline.respond(exchange).map(AnthropicController::toEntity);
     }
 
-    private Mono<ResponseEntity<Object>> createNonStreamingResponse(
-            OpenAICompletionRequest openaiRequest,
-            AnthropicCompletionRequest anthropicRequest,
-            String requestId
-    ) {
-        return openAIClientService.createCompletion(openaiRequest)
-                .map(openaiResponse -> {
-                    AnthropicCompletionResponse anthropicResponse = conversionService.convertResponse(
-                            openaiResponse,
-                            anthropicRequest.getModel(),
-                            requestId
-                    );
-                    return ResponseEntity.ok().body((Object) anthropicResponse);
-                })
-                .onErrorResume(error -> {
-                    log.error("Error processing request", error);
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    Map<String, Object> errorDetail = new HashMap<>();
-                    errorDetail.put("type", "api_error");
-                    errorDetail.put("message", "Error processing request: " + error.getMessage());
-                    errorResponse.put("error", errorDetail);
-                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body((Object) errorResponse));
-                });
+    private static ResponseEntity<byte[]> toEntity(MessagePipeline.Response response) {
+        return ResponseEntity.status(response.status()).headers(response.headers()).body(response.body());
     }
 
     private SseEmitter createStreamingResponse(
-            OpenAICompletionRequest openaiRequest,
-            AnthropicCompletionRequest anthropicRequest,
-            String requestId
+            Flux<byte[]> anthropicFrames,
+            String requestId,
+            PipelineMetrics.StreamObservation observation
     ) {
-        log.info("Starting streaming response for request: {}", requestId);
-
         // Create SSE emitter with long timeout (required for streaming)
         SseEmitter emitter = new SseEmitter(60_000L); // 60 seconds timeout
 
-        // Get streaming flux from OpenAI
-        Flux<String> openaiStream = openAIClientService.createCompletionStream(openaiRequest);
-
-        // Convert each chunk to Anthropic format
-        Flux<String> anthropicChunks = openaiStream
-                .map(chunkLine -> conversionService.convertStreamChunk(chunkLine, anthropicRequest.getModel(), requestId))
-                .filter(chunk -> chunk != null);
-
-        // Subscribe to flux and send SSE events
-        anthropicChunks.subscribe(
-                jsonData -> {
-                    try {
-                        emitter.send(SseEmitter.event().data(jsonData));
-                    } catch (Exception e) {
-                        log.error("Error sending SSE event", e);
-                        emitter.completeWithError(e);
-                    }
-                },
-                error -> {
-                    log.error("Error in streaming response", error);
-                    try {
-                        // Create error response in Anthropic format
-                        Map<String, Object> errorResponse = new HashMap<>();
-                        Map<String, Object> errorDetail = new HashMap<>();
-                        errorDetail.put("type", "api_error");
-                        errorDetail.put("message", "OpenAI API error: " + error.getMessage());
-                        errorResponse.put("error", errorDetail);
-                        String errorJson = objectMapper.writeValueAsString(errorResponse);
-                        emitter.send(SseEmitter.event().data(errorJson));
-                        emitter.complete();
-                    } catch (Exception e) {
-                        log.error("Failed to send error response", e);
-                        emitter.completeWithError(e);
-                    }
-                },
-                () -> {
-                    log.info("Streaming completed for request: {}", requestId);
-                    emitter.complete();
+        BaseSubscriber<byte[]> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnNext(byte[] frame) {
+                try {
+                    long writeStart = System.nanoTime();
+                    emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, MediaType.TEXT_PLAIN)));
+                    observation.recordWrite(System.nanoTime() - writeStart);
+                } catch (IOException e) {
+                    log.debug("Client disconnected from streaming request: {}", requestId);
+                    cancel();
+                    emitter.completeWithError(e);
                 }
-        );
+            }
+
+            @Override
+            protected void hookOnError(Throwable error) {
+                emitter.completeWithError(error);
+            }
+
+            @Override
+            protected void hookOnComplete() {
+                log.debug("Streaming completed for request: {}", requestId);
+                emitter.complete();
+            }
+        };
 
-        // Handle emitter completion and timeout
-        emitter.onCompletion(() -> log.info("SSE emitter completed for request: {}", requestId));
+        // The client going away in any form cancels the upstream stream
+        emitter.onCompletion(subscriber::dispose);
         emitter.onTimeout(() -> {
             log.warn("SSE emitter timeout for request: {}", requestId);
+            subscriber.dispose();
             emitter.complete();
         });
-        emitter.onError(error -> log.error("SSE emitter error for request: {}", requestId, error));
+        emitter.onError(error -> subscriber.dispose());
+
+        // Send pre-encoded SSE frames from a worker thread, one at a time: a slow client
+        // then holds back demand instead of blocking the upstream event loop in send
+        anthropicFrames
+                .publishOn(Schedulers.boundedElastic(), 1)
+                .subscribe(subscriber);
 
         return emitter;
     }
-}
\ No newline at end of file
+
+    @ExceptionHandler(AnthropicApiException.class)
+    public ResponseEntity<byte[]> handleApiException(AnthropicApiException error) {
+        return toEntity(messagePipeline.errorResponse(error));
+    }
+}
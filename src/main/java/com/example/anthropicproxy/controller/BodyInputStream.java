@@ -0,0 +1,121 @@
+package com.example.anthropicproxy.controller;
+
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A reactive request body read as a blocking InputStream, for transcoding
+ * on a worker thread. Only a few buffers are requested ahead of the reader,
+ * so the body is never held as a whole; each buffer is released once read.
+ * Closing the stream cancels the rest of the body.
+ */
+final class BodyInputStream extends InputStream {
+    private static final int PREFETCH = 2;
+    private static final Object COMPLETE = new Object();
+
+    // DataBuffers, then COMPLETE or the error that ended the body
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    private final BaseSubscriber<DataBuffer> subscriber = new BaseSubscriber<>() {
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            subscription.request(PREFETCH);
+        }
+
+        @Override
+        protected void hookOnNext(DataBuffer buffer) {
+            if (isDisposed()) {
+                DataBufferUtils.release(buffer);
+            } else {
+                signals.add(buffer);
+            }
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            signals.add(COMPLETE);
+        }
+
+        @Override
+        protected void hookOnError(Throwable error) {
+            signals.add(error);
+        }
+    };
+    private DataBuffer current;
+    private boolean done;
+    private boolean closed;
+
+    BodyInputStream(Flux<DataBuffer> body) {
+        body.subscribe(subscriber);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || current.readableByteCount() == 0) {
+            if (current != null) {
+                DataBufferUtils.release(current);
+                current = null;
+                subscriber.request(1);
+            }
+            if (done) {
+                return -1;
+            }
+            Object signal;
+            try {
+                signal = signals.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the request body");
+            }
+            if (signal == COMPLETE) {
+                done = true;
+                return -1;
+            }
+            if (signal instanceof Throwable error) {
+                done = true;
+                throw new IOException("Request body failed: " + error.getMessage(), error);
+            }
+            current = (DataBuffer) signal;
+        }
+        int n = Math.min(len, current.readableByteCount());
+        current.read(b, off, n);
+        return n;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        done = true;
+        subscriber.dispose();
+        if (current != null) {
+            DataBufferUtils.release(current);
+            current = null;
+        }
+        // Buffers requested ahead and not read
+        for (Object signal; (signal = signals.poll()) != null; ) {
+            if (signal instanceof DataBuffer buffer) {
+                DataBufferUtils.release(buffer);
+            }
+        }
+    }
+}
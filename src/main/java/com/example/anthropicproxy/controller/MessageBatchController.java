@@ -0,0 +1,69 @@
+package com.example.anthropicproxy.controller;
+
+import com.example.anthropicproxy.batch.MessageBatchService;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatch;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchCreateRequest;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchList;
+import com.example.anthropicproxy.service.AnthropicApiException;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Anthropic Message Batches API. Results are served straight from the batch's
+ * results file, so a large batch is streamed rather than loaded into memory.
+ */
+@RestController
+@RequestMapping("/v1/messages/batches")
+@Slf4j
+@RequiredArgsConstructor
+public class MessageBatchController {
+    private static final MediaType JSONL = MediaType.parseMediaType("application/x-jsonl");
+
+    private final MessageBatchService batchService;
+    private final AnthropicResponseWriter responseWriter;
+
+    @PostMapping
+    public ResponseEntity<AnthropicMessageBatch> create(@RequestBody AnthropicMessageBatchCreateRequest request) {
+        return ResponseEntity.ok(batchService.create(request));
+    }
+
+    @GetMapping
+    public ResponseEntity<AnthropicMessageBatchList> list(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(name = "before_id", required = false) String beforeId,
+            @RequestParam(name = "after_id", required = false) String afterId
+    ) {
+        return ResponseEntity.ok(batchService.list(limit, beforeId, afterId));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<AnthropicMessageBatch> get(@PathVariable String id) {
+        return ResponseEntity.ok(batchService.get(id));
+    }
+
+    @GetMapping("/{id}/results")
+    public ResponseEntity<Resource> results(@PathVariable String id) {
+        return ResponseEntity.ok()
+                .contentType(JSONL)
+                .body(new FileSystemResource(batchService.results(id)));
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<AnthropicMessageBatch> cancel(@PathVariable String id) {
+        return ResponseEntity.ok(batchService.cancel(id));
+    }
+
+    @ExceptionHandler(AnthropicApiException.class)
+    public ResponseEntity<byte[]> handleApiException(AnthropicApiException error) {
+        log.warn("Batch request rejected: {}", error.getMessage());
+        return ResponseEntity.status(error.getStatusCode())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(responseWriter.writeError(error.getErrorType(), error.getMessage()));
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.anthropicproxy.controller;
+
+import com.example.anthropicproxy.accesslog.AccessLog;
+import com.example.anthropicproxy.metrics.PipelineMetrics;
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.example.anthropicproxy.service.AnthropicApiException;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.example.anthropicproxy.service.AnthropicStreamTranscoder;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.GzipCompressor;
+import com.example.anthropicproxy.service.OpenAIClientService;
+import com.example.anthropicproxy.service.RateLimiter;
+import com.example.anthropicproxy.service.ResponseCache;
+import com.example.anthropicproxy.service.TranscodedRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The /v1/messages pipeline after the body is transcoded, shared by the
+ * servlet controller and the reactive handler: admission, the upstream call,
+ * response encoding and the bookkeeping of permits, metrics and the access
+ * log. Responses come back as status, headers and body, and streams as a
+ * Flux of SSE frames, so the web stacks only write them out.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessagePipeline {
+    private final ConversionService conversionService;
+    private final OpenAIClientService openAIClientService;
+    private final AnthropicResponseWriter responseWriter;
+    private final RateLimiter rateLimiter;
+    private final PipelineMetrics pipelineMetrics;
+    private final AccessLog accessLog;
+    private final StreamBuffer streamBuffer;
+    private final GzipCompressor gzipCompressor;
+
+    /**
+     * A response to write: status, headers including the content type, and body
+     */
+    public record Response(HttpStatusCode status, HttpHeaders headers, byte[] body) {
+    }
+
+    /**
+     * An admitted request with its id, rate limiter permit and access log entry
+     */
+    public record Exchange(TranscodedRequest request, String requestId, long receivedAt, RateLimiter.Permit permit,
+                           PipelineMetrics.ModelMetrics modelMetrics, AccessLog.Entry access, boolean useCache,
+                           List<String> acceptEncoding) {
+        public boolean streaming() {
+            return request.stream();
+        }
+    }
+
+    /**
+     * SSE frames of a streaming response and the observation recording it
+     */
+    public record Stream(Flux<byte[]> frames, PipelineMetrics.StreamObservation observation) {
+    }
+
+    /**
+     * Start a transcoded request: assign its id, begin its access log entry
+     * and take a rate limiter permit. Rejections are logged and rethrown.
+     */
+    public Exchange admit(TranscodedRequest request, HttpHeaders headers, long receivedAt) {
+        long conversionTime = System.nanoTime() - receivedAt;
+        OpenAICompletionRequest openaiRequest = request.openaiRequest();
+        String requestId = "msg_" + UUID.randomUUID().toString().substring(0, 8);
+        AccessLog.Entry access = accessLog.start(requestId, request.anthropicModel(), request.stream(), receivedAt);
+
+        RateLimiter.Permit permit;
+        try {
+            permit = rateLimiter.acquire(RateLimiter.clientKey(headers), request);
+        } catch (AnthropicApiException e) {
+            access.error(e.getErrorType()).finish(e.getStatusCode().value());
+            throw e;
+        }
+
+        PipelineMetrics.ModelMetrics modelMetrics =
+                pipelineMetrics.forModels(request.anthropicModel(), openaiRequest.getModel());
+        modelMetrics.recordConversion(conversionTime);
+        access.upstreamModel(openaiRequest.getModel());
+
+        // Cache-Control: no-cache opts out of the response cache and request sharing
+        boolean useCache = ResponseCache.allowedBy(headers.getCacheControl());
+        return new Exchange(request, requestId, receivedAt, permit, modelMetrics, access, useCache,
+                headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * The non-streaming response; upstream and conversion errors become error responses
+     */
+    public Mono<Response> respond(Exchange exchange) {
+        RateLimiter.Permit permit = exchange.permit();
+        AccessLog.Entry access = exchange.access();
+        return openAIClientService.createCompletion(exchange.request().openaiRequest(), exchange.useCache())
+                .doOnNext(openaiResponse -> {
+                    permit.settle(openaiResponse.getUsage());
+                    access.usage(openaiResponse.getUsage());
+                })
+                .doOnError(error -> permit.settle(0))
+                .map(openaiResponse -> messageResponse(responseWriter.writeMessage(openaiResponse,
+                        exchange.request().anthropicModel(), exchange.requestId()), exchange.acceptEncoding()))
+                .onErrorResume(AnthropicApiException.class, error -> {
+                    access.error(error.getErrorType());
+                    return Mono.just(errorResponse(error));
+                })
+                .onErrorResume(error -> {
+                    log.error("Error processing request", error);
+                    access.error("api_error");
+                    return Mono.just(new Response(HttpStatus.INTERNAL_SERVER_ERROR, jsonHeaders(),
+                            responseWriter.writeError("api_error", "Error processing request: " + error.getMessage())));
+                })
+                .doOnNext(response -> access.finish(response.status().value()))
+                .doOnCancel(() -> access.finish(AccessLog.CLIENT_CLOSED));
+    }
+
+    /**
+     * A message body, gzipped when the client accepts it and it is large enough
+     */
+    private Response messageResponse(byte[] body, List<String> acceptEncoding) {
+        HttpHeaders headers = jsonHeaders();
+        if (gzipCompressor.isEnabled()) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzipCompressor.shouldCompressResponse(acceptEncoding, body.length)) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, GzipCompressor.GZIP);
+            return new Response(HttpStatus.OK, headers, gzipCompressor.compressResponse(body));
+        }
+        return new Response(HttpStatus.OK, headers, body);
+    }
+
+    /**
+     * The error response for a rejected or failed request
+     */
+    public Response errorResponse(AnthropicApiException error) {
+        log.warn("Request rejected: {}", error.getMessage());
+        HttpHeaders headers = jsonHeaders();
+        if (error.getRetryAfter() != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, error.retryAfterSeconds());
+        }
+        return new Response(error.getStatusCode(), headers, responseWriter.writeError(error.getErrorType(), error.getMessage()));
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
+
+    /**
+     * Upstream chunks converted to Anthropic SSE frames; the upstream flux completes
+     * on [DONE], after which the transcoder closes the message, and upstream errors
+     * end the stream with an error event
+     */
+    public Stream stream(Exchange exchange) {
+        String requestId = exchange.requestId();
+        RateLimiter.Permit permit = exchange.permit();
+        AccessLog.Entry access = exchange.access();
+        PipelineMetrics.StreamObservation observation = exchange.modelMetrics().startStream(exchange.receivedAt());
+        AnthropicStreamTranscoder transcoder =
+                conversionService.newStreamTranscoder(exchange.request().anthropicModel(), requestId);
+        Flux<byte[]> frames = openAIClientService.createCompletionStream(exchange.request().openaiRequest(),
+                        exchange.useCache())
+                .doOnNext(observation::onChunk)
+                .doFinally(signal -> {
+                    // Usage reported in the final chunk replaces the prompt estimate
+                    int inputTokens = transcoder.getInputTokens();
+                    permit.settle((inputTokens > 0 ? inputTokens : permit.getPromptTokens()) + transcoder.getOutputTokens());
+                    observation.finish(transcoder.getOutputTokens());
+                })
+                .map(transcoder::onChunk)
+                .concatWith(Mono.fromSupplier(transcoder::finish))
+                .transform(streamBuffer::bound)
+                .onErrorResume(error -> {
+                    if (StreamBuffer.isOverflow(error)) {
+                        log.warn("Slow client on streaming request {}, upstream cancelled", requestId);
+                        access.error("overloaded_error");
+                        return Mono.just(transcoder.error("overloaded_error", streamBuffer.overflowMessage()));
+                    }
+                    log.error("Error in streaming response", error);
+                    if (error instanceof AnthropicApiException apiError) {
+                        access.error(apiError.getErrorType());
+                        return Mono.just(transcoder.error(apiError.getErrorType(), apiError.getMessage()));
+                    }
+                    access.error("api_error");
+                    return Mono.just(transcoder.error("api_error", "OpenAI API error: " + error.getMessage()));
+                })
+                .filter(frame -> frame.length > 0)
+                // Recorded at the client end, which sees a cancel when the client goes away
+                .doFinally(signal -> {
+                    int inputTokens = transcoder.getInputTokens();
+                    access.timeToFirstToken(observation.getTimeToFirstToken())
+                            .tokens(inputTokens > 0 ? inputTokens : permit.getPromptTokens(), transcoder.getOutputTokens())
+                            .finish(signal == SignalType.CANCEL ? AccessLog.CLIENT_CLOSED : HttpStatus.OK.value());
+                });
+        return new Stream(frames, observation);
+    }
+}
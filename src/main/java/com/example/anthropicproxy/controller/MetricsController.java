@@ -0,0 +1,23 @@
+package com.example.anthropicproxy.controller;
+
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequiredArgsConstructor
+public class MetricsController {
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ProxyMetrics metrics;
+
+    @GetMapping("/actuator/prometheus")
+    public ResponseEntity<String> prometheus() {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, PROMETHEUS_CONTENT_TYPE)
+                .body(metrics.scrape());
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.anthropicproxy.controller;
+
+import com.example.anthropicproxy.service.AnthropicApiException;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.TranscodedRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * WebFlux handler for /v1/messages, used when the proxy runs on Netty
+ * (spring.main.web-application-type=reactive). Streaming responses stay a
+ * Flux of pre-encoded SSE frames from the upstream connection to the client
+ * socket, so no request thread is held while tokens are being generated.
+ * The request body is parsed as it arrives on a bounded-elastic thread: the
+ * transcoder pulls tokens from a blocking parser, and the body is not
+ * collected into memory first.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveMessagesHandler {
+    private final ConversionService conversionService;
+    private final MessagePipeline messagePipeline;
+
+    public Mono<ServerResponse> createMessage(ServerRequest serverRequest) {
+        long receivedAt = System.nanoTime();
+        // The body is transcoded as it arrives, on a worker thread since the transcoder reads it blocking
+        return Mono.fromCallable(() -> transcode(serverRequest))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(request -> {
+                    MessagePipeline.Exchange exchange =
+                            messagePipeline.admit(request, serverRequest.headers().asHttpHeaders(), receivedAt);
+                    if (exchange.streaming()) {
+                        return streamingResponse(messagePipeline.stream(exchange).frames(), exchange.requestId());
+                    }
+                    return messagePipeline.respond(exchange).flatMap(ReactiveMessagesHandler::toServerResponse);
+                })
+                .onErrorResume(AnthropicApiException.class,
+                        error -> toServerResponse(messagePipeline.errorResponse(error)));
+    }
+
+    private TranscodedRequest transcode(ServerRequest serverRequest) throws IOException {
+        try (InputStream body = new BodyInputStream(serverRequest.body(BodyExtractors.toDataBuffers()))) {
+            return conversionService.transcodeRequest(body);
+        }
+    }
+
+    private static Mono<ServerResponse> toServerResponse(MessagePipeline.Response response) {
+        return ServerResponse.status(response.status())
+                .headers(headers -> headers.addAll(response.headers()))
+                .bodyValue(response.body());
+    }
+
+    private Mono<ServerResponse> streamingResponse(Flux<byte[]> anthropicFrames, String requestId) {
+        Flux<DataBuffer> frames = anthropicFrames
+                .<DataBuffer>map(DefaultDataBufferFactory.sharedInstance::wrap)
+                .doOnCancel(() -> log.debug("Client cancelled streaming request: {}", requestId));
+
+        // Flush after every frame; a plain writeWith lets Netty batch the frames until the stream ends
+        BodyInserter<Flux<DataBuffer>, ReactiveHttpOutputMessage> flushEachFrame =
+                (message, context) -> message.writeAndFlushWith(frames.map(Mono::just));
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(flushEachFrame);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.anthropicproxy.controller;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+/**
+ * Bounded buffer between the upstream stream and a client. At most
+ * buffer-size SSE frames are held for a client that reads slower than the
+ * upstream produces; what happens when it is full depends on the overflow
+ * policy. With backpressure, demand stops and the upstream connection is no
+ * longer read until the client catches up. With error, the upstream call is
+ * cancelled and the client gets the buffered frames followed by an
+ * overloaded_error event.
+ */
+@Component
+public class StreamBuffer {
+    private final int bufferSize;
+    private final ProxyConfigProperties.Streaming.OverflowPolicy overflow;
+    private final ProxyMetrics.Counter overflows;
+
+    public StreamBuffer(ProxyConfigProperties proxyConfig, ProxyMetrics metrics) {
+        ProxyConfigProperties.Streaming config = proxyConfig.getStreaming();
+        this.bufferSize = config.getBufferSize();
+        this.overflow = config.getOverflow();
+        this.overflows = metrics.counter("proxy_stream_buffer_overflows_total",
+                "Streams ended because the client fell more than buffer-size events behind");
+    }
+
+    public Flux<byte[]> bound(Flux<byte[]> frames) {
+        if (overflow == ProxyConfigProperties.Streaming.OverflowPolicy.ERROR) {
+            return frames.onBackpressureBuffer(bufferSize, frame -> overflows.increment(), BufferOverflowStrategy.ERROR);
+        }
+        return frames.limitRate(bufferSize);
+    }
+
+    /**
+     * Whether a stream failed because its buffer overflowed
+     */
+    public static boolean isOverflow(Throwable error) {
+        return Exceptions.isOverflow(error);
+    }
+
+    public String overflowMessage() {
+        return "Client fell more than " + bufferSize + " events behind the stream";
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.anthropicproxy.controller;
+
+import com.example.anthropicproxy.metrics.PipelineMetrics;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Servlet streaming for virtual-thread mode (spring.threads.virtual.enabled on
+ * Java 21). The request thread itself drains the frame flux and writes each
+ * frame to the response with plain blocking I/O, so a stream costs one parked
+ * virtual thread instead of an async dispatch through SseEmitter, whose send
+ * and complete methods are synchronized and would pin the carrier thread for
+ * the duration of every socket write. Closing the iterator on a failed write
+ * cancels the upstream request.
+ */
+@Slf4j
+@Component
+public class ThreadPerStreamWriter {
+    // Hand-off between the event loop and the writing thread; frames are buffered ahead of it by StreamBuffer
+    private static final int PREFETCH = 1;
+
+    private final boolean enabled;
+
+    public ThreadPerStreamWriter(Environment environment) {
+        this.enabled = Threading.VIRTUAL.isActive(environment);
+        if (enabled) {
+            log.info("Virtual threads enabled: streaming responses are written by the request thread");
+        }
+    }
+
+    /**
+     * Whether streams should be written by the request thread instead of an SseEmitter
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void write(Flux<byte[]> frames, HttpServletResponse response,
+                      PipelineMetrics.StreamObservation observation, String requestId) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        try (Stream<byte[]> stream = frames.toStream(PREFETCH)) {
+            OutputStream out = response.getOutputStream();
+            Iterator<byte[]> it = stream.iterator();
+            while (it.hasNext()) {
+                byte[] frame = it.next();
+                long writeStart = System.nanoTime();
+                out.write(frame);
+                out.flush();
+                observation.recordWrite(System.nanoTime() - writeStart);
+            }
+            log.debug("Streaming completed for request: {}", requestId);
+        } catch (IOException e) {
+            log.debug("Client disconnected from streaming request: {}", requestId);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.anthropicproxy.metrics;
+
+import lombok.RequiredArgsConstructor;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Publishes Reactor Netty connection pool state as gauges. One pool exists
+ * per remote address, so tags stay low-cardinality for a single upstream.
+ */
+@RequiredArgsConstructor
+public class ConnectionPoolMeterRegistrar implements ConnectionProvider.MeterRegistrar {
+    private static final String ACTIVE = "proxy_upstream_pool_active_connections";
+    private static final String IDLE = "proxy_upstream_pool_idle_connections";
+    private static final String ALLOCATED = "proxy_upstream_pool_allocated_connections";
+    private static final String PENDING = "proxy_upstream_pool_pending_acquires";
+    private static final String MAX_CONNECTIONS = "proxy_upstream_pool_max_connections";
+    private static final String MAX_PENDING = "proxy_upstream_pool_max_pending_acquires";
+
+    private final ProxyMetrics metrics;
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics pool) {
+        String[] tags = tags(poolName, remoteAddress);
+        metrics.gauge(ACTIVE, "Upstream connections (or HTTP/2 streams) currently acquired", pool::acquiredSize, tags);
+        metrics.gauge(IDLE, "Idle upstream connections in the pool", pool::idleSize, tags);
+        metrics.gauge(ALLOCATED, "Upstream connections allocated by the pool, active or idle", pool::allocatedSize, tags);
+        metrics.gauge(PENDING, "Requests waiting to acquire an upstream connection", pool::pendingAcquireSize, tags);
+        metrics.gauge(MAX_CONNECTIONS, "Maximum upstream connections the pool may allocate", pool::maxAllocatedSize, tags);
+        metrics.gauge(MAX_PENDING, "Maximum requests allowed to wait for a connection", pool::maxPendingAcquireSize, tags);
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        String[] tags = tags(poolName, remoteAddress);
+        for (String name : new String[]{ACTIVE, IDLE, ALLOCATED, PENDING, MAX_CONNECTIONS, MAX_PENDING}) {
+            metrics.remove(name, tags);
+        }
+    }
+
+    private static String[] tags(String poolName, SocketAddress remoteAddress) {
+        String remote = remoteAddress instanceof InetSocketAddress inet
+                ? inet.getHostString() + ":" + inet.getPort()
+                : String.valueOf(remoteAddress);
+        return new String[]{"pool", poolName, "remote", remote};
+    }
+}
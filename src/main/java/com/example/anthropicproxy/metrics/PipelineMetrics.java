@@ -0,0 +1,175 @@
+package com.example.anthropicproxy.metrics;
+
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.example.anthropicproxy.service.ModelMappingService;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms for the /v1/messages pipeline, tagged by Anthropic model
+ * and mapped upstream model. Client-supplied model names are collapsed to
+ * "other" unless they are known to the model mapping, so tag cardinality is
+ * bounded by configuration rather than by traffic.
+ */
+@Component
+public class PipelineMetrics {
+    /** WebClient request attributes read by {@link #upstreamTiming()} */
+    public static final String UPSTREAM_MODEL_ATTRIBUTE = PipelineMetrics.class.getName() + ".upstreamModel";
+    public static final String UPSTREAM_NAME_ATTRIBUTE = PipelineMetrics.class.getName() + ".upstream";
+
+    private static final String OTHER = "other";
+    private static final int MAX_MODEL_TAGS = 64;
+
+    private final ProxyMetrics metrics;
+    private final ModelMappingService modelMappingService;
+    private final Map<String, ModelMetrics> byModels = new ConcurrentHashMap<>();
+    private final Map<String, ProxyMetrics.Histogram> upstreamWait = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(ProxyMetrics metrics, ModelMappingService modelMappingService) {
+        this.metrics = metrics;
+        this.modelMappingService = modelMappingService;
+    }
+
+    /**
+     * Histograms for one Anthropic/upstream model pair; look up once per request
+     */
+    public ModelMetrics forModels(String anthropicModel, String openaiModel) {
+        String model = anthropicModel != null && modelMappingService.isKnownModel(anthropicModel) ? anthropicModel : OTHER;
+        String upstreamModel = openaiModel != null ? openaiModel : OTHER;
+        String key = model + '\u0000' + upstreamModel;
+        ModelMetrics existing = byModels.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (byModels.size() >= MAX_MODEL_TAGS) {
+            return byModels.computeIfAbsent(OTHER + '\u0000' + OTHER, k -> new ModelMetrics(OTHER, OTHER));
+        }
+        return byModels.computeIfAbsent(key, k -> new ModelMetrics(model, upstreamModel));
+    }
+
+    /**
+     * WebClient filter recording the time from issuing an upstream request to
+     * its response headers: pool acquisition, connect and upstream queueing
+     */
+    public ExchangeFilterFunction upstreamTiming() {
+        return (request, next) -> {
+            String upstreamModel = request.attribute(UPSTREAM_MODEL_ATTRIBUTE).map(Object::toString).orElse(OTHER);
+            String upstream = request.attribute(UPSTREAM_NAME_ATTRIBUTE).map(Object::toString).orElse(OTHER);
+            ProxyMetrics.Histogram histogram = upstreamWait.computeIfAbsent(upstreamModel + '\u0000' + upstream,
+                    key -> metrics.histogram("proxy_upstream_wait_seconds",
+                            "Time from sending an upstream request to receiving its response headers",
+                            ProxyMetrics.LATENCY_BUCKETS, "upstream_model", upstreamModel, "upstream", upstream));
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return next.exchange(request)
+                        .doOnNext(response -> histogram.recordNanos(System.nanoTime() - start));
+            });
+        };
+    }
+
+    public final class ModelMetrics {
+        private final ProxyMetrics.Histogram conversion;
+        private final ProxyMetrics.Histogram timeToFirstToken;
+        private final ProxyMetrics.Histogram interTokenGap;
+        private final ProxyMetrics.Histogram streamDuration;
+        private final ProxyMetrics.Histogram tokensPerSecond;
+        private final ProxyMetrics.Histogram sseWrite;
+
+        ModelMetrics(String model, String upstreamModel) {
+            String[] tags = {"model", model, "upstream_model", upstreamModel};
+            conversion = metrics.histogram("proxy_conversion_seconds",
+                    "Time to convert an Anthropic request to the upstream format", ProxyMetrics.FAST_BUCKETS, tags);
+            timeToFirstToken = metrics.histogram("proxy_time_to_first_token_seconds",
+                    "Time from receiving a streaming request to the first generated token", ProxyMetrics.LATENCY_BUCKETS, tags);
+            interTokenGap = metrics.histogram("proxy_inter_token_gap_seconds",
+                    "Time between consecutive generated tokens of a stream", ProxyMetrics.GAP_BUCKETS, tags);
+            streamDuration = metrics.histogram("proxy_stream_duration_seconds",
+                    "Time from receiving a streaming request to the end of the stream", ProxyMetrics.LATENCY_BUCKETS, tags);
+            tokensPerSecond = metrics.histogram("proxy_output_tokens_per_second",
+                    "Output tokens per second after the first token of a stream", ProxyMetrics.RATE_BUCKETS, tags);
+            sseWrite = metrics.histogram("proxy_sse_write_seconds",
+                    "Time spent writing one batch of SSE frames to the client", ProxyMetrics.FAST_BUCKETS, tags);
+        }
+
+        public void recordConversion(long nanos) {
+            conversion.recordNanos(nanos);
+        }
+
+        public StreamObservation startStream(long receivedAt) {
+            return new StreamObservation(this, receivedAt);
+        }
+    }
+
+    /**
+     * Timing of one stream. Calls arrive serially from the stream's signals,
+     * so no synchronization is needed.
+     */
+    public static final class StreamObservation {
+        private final ModelMetrics metrics;
+        private final long receivedAt;
+        private long firstTokenAt;
+        private long lastTokenAt;
+        private boolean finished;
+
+        StreamObservation(ModelMetrics metrics, long receivedAt) {
+            this.metrics = metrics;
+            this.receivedAt = receivedAt;
+        }
+
+        public void onChunk(OpenAIStreamChunk chunk) {
+            if (!hasOutput(chunk)) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (firstTokenAt == 0) {
+                firstTokenAt = now;
+                metrics.timeToFirstToken.recordNanos(now - receivedAt);
+            } else {
+                metrics.interTokenGap.recordNanos(now - lastTokenAt);
+            }
+            lastTokenAt = now;
+        }
+
+        /**
+         * Nanoseconds from receiving the request to the first token, or -1 before it
+         */
+        public long getTimeToFirstToken() {
+            return firstTokenAt != 0 ? firstTokenAt - receivedAt : -1;
+        }
+
+        public void recordWrite(long nanos) {
+            metrics.sseWrite.recordNanos(nanos);
+        }
+
+        public void finish(int outputTokens) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            long now = System.nanoTime();
+            metrics.streamDuration.recordNanos(now - receivedAt);
+            if (firstTokenAt != 0 && lastTokenAt > firstTokenAt && outputTokens > 1) {
+                // Generation rate once tokens flow: the first token's latency is TTFT
+                metrics.tokensPerSecond.record((outputTokens - 1) / ((lastTokenAt - firstTokenAt) / 1e9));
+            }
+        }
+
+        private static boolean hasOutput(OpenAIStreamChunk chunk) {
+            List<OpenAIStreamChunk.OpenAIStreamChoice> choices = chunk.getChoices();
+            if (choices == null || choices.isEmpty()) {
+                return false;
+            }
+            OpenAIStreamChunk.OpenAIDelta delta = choices.get(0).getDelta();
+            if (delta == null) {
+                return false;
+            }
+            return (delta.getContent() != null && !delta.getContent().isEmpty())
+                    || (delta.getToolCalls() != null && !delta.getToolCalls().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.anthropicproxy.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Minimal in-process metrics registry with Prometheus text exposition.
+ * Meters are identified by name plus an even list of tag key/value pairs;
+ * callers on hot paths should keep the returned meter instead of looking it
+ * up per event.
+ */
+@Component
+public class ProxyMetrics {
+    /** Request-scale latencies, in seconds */
+    public static final double[] LATENCY_BUCKETS =
+            {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120};
+    /** In-process work such as conversion and socket writes, in seconds */
+    public static final double[] FAST_BUCKETS =
+            {0.00001, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1};
+    /** Gaps between streamed tokens, in seconds */
+    public static final double[] GAP_BUCKETS = {0.001, 0.005, 0.01, 0.02, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5};
+    /** Generation throughput, in tokens per second */
+    public static final double[] RATE_BUCKETS = {1, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name, String help, String... tags) {
+        return (Counter) family(name, help, "counter").meters
+                .computeIfAbsent(labels(tags), key -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, double[] buckets, String... tags) {
+        return (Histogram) family(name, help, "histogram").meters
+                .computeIfAbsent(labels(tags), key -> new Histogram(buckets));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... tags) {
+        family(name, help, "gauge").meters.put(labels(tags), value);
+    }
+
+    /**
+     * Drop a single meter, e.g. when the resource it observes is disposed
+     */
+    public void remove(String name, String... tags) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.meters.remove(labels(tags));
+        }
+    }
+
+    /**
+     * Render all meters in the Prometheus text format (version 0.0.4)
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> meter : family.meters.entrySet()) {
+                Object value = meter.getValue();
+                if (value instanceof Counter counter) {
+                    out.append(name).append(meter.getKey()).append(' ').append(counter.get()).append('\n');
+                } else if (value instanceof DoubleSupplier gauge) {
+                    out.append(name).append(meter.getKey()).append(' ').append(gauge.getAsDouble()).append('\n');
+                } else if (value instanceof Histogram histogram) {
+                    histogram.scrape(out, name, meter.getKey());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+        }
+        return family;
+    }
+
+    static String labels(String... tags) {
+        if (tags.length == 0) {
+            return "";
+        }
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags must be key/value pairs");
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(tags[i]).append("=\"");
+            String value = tags[i + 1] != null ? tags[i + 1] : "";
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    labels.append('\\').append(c);
+                } else if (c == '\n') {
+                    labels.append("\\n");
+                } else {
+                    labels.append(c);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> meters = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Histogram with fixed bucket upper bounds. Each observation increments a
+     * single LongAdder; cumulative bucket counts are only built on scrape.
+     */
+    public static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds.clone();
+            this.counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void record(double value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            counts[bucket >= 0 ? bucket : -bucket - 1].increment();
+            sum.add(value);
+        }
+
+        public void recordNanos(long nanos) {
+            record(nanos / 1e9);
+        }
+
+        void scrape(StringBuilder out, String name, String labels) {
+            // Splice the le label into the meter's label set
+            String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                String le = i < bounds.length ? Double.toString(bounds[i]) : "+Inf";
+                out.append(name).append("_bucket").append(prefix).append("le=\"").append(le).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum").append(labels).append(' ').append(sum.sum()).append('\n');
+            out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    /**
+     * Monotonic counter backed by a LongAdder
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void increment(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+}
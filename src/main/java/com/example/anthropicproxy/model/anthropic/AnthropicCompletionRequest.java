@@ -45,4 +45,10 @@ public class AnthropicCompletionRequest {
 
     @JsonProperty("thinking")
     private Map<String, Object> thinking;
+
+    @JsonProperty("tools")
+    private List<AnthropicTool> tools;
+
+    @JsonProperty("tool_choice")
+    private AnthropicToolChoice toolChoice;
 }
\ No newline at end of file
@@ -7,6 +7,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Map;
+
 @Data
 @Builder
 @NoArgsConstructor
@@ -18,4 +20,14 @@ public class AnthropicContentBlock {
 
     @JsonProperty("text")
     private String text;
+
+    // tool_use blocks
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("name")
+    private String name;
+
+    @JsonProperty("input")
+    private Map<String, Object> input;
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message content as content blocks, accepting the plain string shorthand as
+ * a single text block
+ */
+public class AnthropicContentDeserializer extends JsonDeserializer<List<AnthropicMessageContent>> {
+    @Override
+    public List<AnthropicMessageContent> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            List<AnthropicMessageContent> blocks = new ArrayList<>(1);
+            blocks.add(AnthropicTextContent.builder().text(parser.getText()).build());
+            return blocks;
+        }
+        JavaType type = context.getTypeFactory().constructCollectionType(List.class, AnthropicMessageContent.class);
+        return context.readValue(parser, type);
+    }
+}
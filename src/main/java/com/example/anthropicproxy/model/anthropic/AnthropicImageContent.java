@@ -0,0 +1,49 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnthropicImageContent extends AnthropicMessageContent {
+    public static final String TYPE = "image";
+
+    @JsonProperty("source")
+    private Source source;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    /**
+     * Inline base64 data with its media type, or a URL
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Source {
+        @JsonProperty("type")
+        private String type; // "base64" or "url"
+
+        @JsonProperty("media_type")
+        private String mediaType;
+
+        @JsonProperty("data")
+        private String data;
+
+        @JsonProperty("url")
+        private String url;
+    }
+}
@@ -2,11 +2,14 @@ package com.example.anthropicproxy.model.anthropic;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,5 +20,6 @@ public class AnthropicMessage {
     private AnthropicRole role;
 
     @JsonProperty("content")
-    private Object content; // Can be String or List<AnthropicMessageContent>
+    @JsonDeserialize(using = AnthropicContentDeserializer.class)
+    private List<AnthropicMessageContent> content; // A plain string binds as one text block
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Message batch status; timestamps are RFC 3339 strings and stay null until the event happens
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.ALWAYS)
+public class AnthropicMessageBatch {
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("type")
+    @Builder.Default
+    private String type = "message_batch";
+
+    // in_progress, canceling or ended
+    @JsonProperty("processing_status")
+    private String processingStatus;
+
+    @JsonProperty("request_counts")
+    private RequestCounts requestCounts;
+
+    @JsonProperty("ended_at")
+    private String endedAt;
+
+    @JsonProperty("created_at")
+    private String createdAt;
+
+    @JsonProperty("expires_at")
+    private String expiresAt;
+
+    @JsonProperty("archived_at")
+    private String archivedAt;
+
+    @JsonProperty("cancel_initiated_at")
+    private String cancelInitiatedAt;
+
+    @JsonProperty("results_url")
+    private String resultsUrl;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RequestCounts {
+        @JsonProperty("processing")
+        private int processing;
+
+        @JsonProperty("succeeded")
+        private int succeeded;
+
+        @JsonProperty("errored")
+        private int errored;
+
+        @JsonProperty("canceled")
+        private int canceled;
+
+        @JsonProperty("expired")
+        private int expired;
+    }
+}
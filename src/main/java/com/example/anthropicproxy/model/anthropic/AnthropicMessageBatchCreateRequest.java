@@ -0,0 +1,20 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnthropicMessageBatchCreateRequest {
+    @JsonProperty("requests")
+    private List<AnthropicMessageBatchRequest> requests;
+}
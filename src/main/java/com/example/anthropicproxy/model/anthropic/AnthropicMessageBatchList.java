@@ -0,0 +1,32 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of message batches, most recently created first
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.ALWAYS)
+public class AnthropicMessageBatchList {
+    @JsonProperty("data")
+    private List<AnthropicMessageBatch> data;
+
+    @JsonProperty("has_more")
+    private boolean hasMore;
+
+    @JsonProperty("first_id")
+    private String firstId;
+
+    @JsonProperty("last_id")
+    private String lastId;
+}
@@ -0,0 +1,24 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One request of a message batch: a messages request tagged with the caller's id
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnthropicMessageBatchRequest {
+    @JsonProperty("custom_id")
+    private String customId;
+
+    @JsonProperty("params")
+    private AnthropicCompletionRequest params;
+}
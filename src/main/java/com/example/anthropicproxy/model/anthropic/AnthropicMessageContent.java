@@ -1,21 +1,25 @@
 package com.example.anthropicproxy.model.anthropic;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
-@Data
-@Builder
-@NoArgsConstructor
-@AllArgsConstructor
-@JsonInclude(JsonInclude.Include.NON_NULL)
-public class AnthropicMessageContent {
+/**
+ * A content block of a message, typed by its "type" property. Block types
+ * without a class of their own bind to AnthropicOtherContent, which keeps
+ * their properties so they serialize back unchanged.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "type",
+        visible = true, defaultImpl = AnthropicOtherContent.class)
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = AnthropicTextContent.class, name = AnthropicTextContent.TYPE),
+        @JsonSubTypes.Type(value = AnthropicImageContent.class, name = AnthropicImageContent.TYPE),
+        @JsonSubTypes.Type(value = AnthropicToolUseContent.class, name = AnthropicToolUseContent.TYPE),
+        @JsonSubTypes.Type(value = AnthropicToolResultContent.class, name = AnthropicToolResultContent.TYPE)
+})
+@JsonIgnoreProperties(ignoreUnknown = true)
+public abstract class AnthropicMessageContent {
     @JsonProperty("type")
-    private String type = "text";
-
-    @JsonProperty("text")
-    private String text;
-}
\ No newline at end of file
+    public abstract String getType();
+}
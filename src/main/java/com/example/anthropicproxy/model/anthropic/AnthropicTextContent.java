@@ -0,0 +1,27 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnthropicTextContent extends AnthropicMessageContent {
+    public static final String TYPE = "text";
+
+    @JsonProperty("text")
+    private String text;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+}
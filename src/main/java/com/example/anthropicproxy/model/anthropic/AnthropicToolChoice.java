@@ -0,0 +1,24 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnthropicToolChoice {
+    @JsonProperty("type")
+    private String type; // "auto", "any", "tool" or "none"
+
+    @JsonProperty("name")
+    private String name; // The tool to call, with type "tool"
+
+    @JsonProperty("disable_parallel_tool_use")
+    private Boolean disableParallelToolUse;
+}
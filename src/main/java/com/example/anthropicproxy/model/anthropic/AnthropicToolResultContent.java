@@ -0,0 +1,40 @@
+package com.example.anthropicproxy.model.anthropic;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The outcome of a tool call, sent back in a user message
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnthropicToolResultContent extends AnthropicMessageContent {
+    public static final String TYPE = "tool_result";
+
+    @JsonProperty("tool_use_id")
+    private String toolUseId;
+
+    @JsonProperty("content")
+    @JsonDeserialize(using = AnthropicContentDeserializer.class)
+    private List<AnthropicMessageContent> content; // A plain string binds as one text block
+
+    @JsonProperty("is_error")
+    private Boolean isError;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+}
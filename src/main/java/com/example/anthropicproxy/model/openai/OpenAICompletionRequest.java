@@ -7,11 +7,10 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import java.util.List;
 import java.util.Map;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -20,7 +19,7 @@ public class OpenAICompletionRequest {
     private String model;
 
     @JsonProperty("messages")
-    private List<OpenAIMessage> messages;
+    private Object messages; // Can be List<OpenAIMessage> or the array already encoded as RawJson
 
     @JsonProperty("temperature")
     private Double temperature;
@@ -34,6 +33,9 @@ public class OpenAICompletionRequest {
     @JsonProperty("stream")
     private Boolean stream;
 
+    @JsonProperty("stream_options")
+    private Map<String, Object> streamOptions;
+
     @JsonProperty("stop")
     private Object stop; // Can be String or List<String>
 
@@ -59,11 +61,14 @@ public class OpenAICompletionRequest {
     private Integer seed;
 
     @JsonProperty("tools")
-    private List<Map<String, Object>> tools;
+    private Object tools; // Can be List<Map<String, Object>> or the array already encoded as RawJson
 
     @JsonProperty("tool_choice")
     private Object toolChoice;
 
+    @JsonProperty("parallel_tool_calls")
+    private Boolean parallelToolCalls;
+
     @JsonProperty("logprobs")
     private Boolean logprobs;
 
@@ -8,7 +8,6 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.List;
-import java.util.Map;
 
 @Data
 @Builder
@@ -26,7 +25,7 @@ public class OpenAIMessage {
     private String name;
 
     @JsonProperty("tool_calls")
-    private List<Map<String, Object>> toolCalls;
+    private List<OpenAIToolCall> toolCalls;
 
     @JsonProperty("tool_call_id")
     private String toolCallId;
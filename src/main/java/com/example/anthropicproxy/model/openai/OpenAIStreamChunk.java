@@ -34,6 +34,9 @@ public class OpenAIStreamChunk {
     @JsonProperty("system_fingerprint")
     private String systemFingerprint;
 
+    @JsonProperty("usage")
+    private OpenAIUsage usage;
+
     @Data
     @Builder
     @NoArgsConstructor
@@ -66,6 +69,6 @@ public class OpenAIStreamChunk {
         private String content;
 
         @JsonProperty("tool_calls")
-        private List<Map<String, Object>> toolCalls;
+        private List<OpenAIToolCall> toolCalls;
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.example.anthropicproxy.model.openai;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A function call made by the assistant. In stream deltas, index identifies
+ * the call a fragment belongs to, and id and name only come with its first
+ * fragment.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OpenAIToolCall {
+    @JsonProperty("index")
+    private Integer index;
+
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("function")
+    private Function function;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Function {
+        @JsonProperty("name")
+        private String name;
+
+        @JsonProperty("arguments")
+        private String arguments; // JSON text of the input, or a fragment of it in stream deltas
+    }
+}
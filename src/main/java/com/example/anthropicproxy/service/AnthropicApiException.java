@@ -0,0 +1,51 @@
+package com.example.anthropicproxy.service;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+
+import java.time.Duration;
+
+/**
+ * Error surfaced to clients in the Anthropic error format, with its
+ * Anthropic error type and HTTP status
+ */
+@Getter
+public class AnthropicApiException extends RuntimeException {
+    private final String errorType;
+    private final HttpStatusCode statusCode;
+    // When set, sent as the retry-after header
+    private final Duration retryAfter;
+
+    public AnthropicApiException(String errorType, HttpStatusCode statusCode, String message) {
+        this(errorType, statusCode, message, null);
+    }
+
+    public AnthropicApiException(String errorType, HttpStatusCode statusCode, String message, Duration retryAfter) {
+        super(message);
+        this.errorType = errorType;
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 529 overloaded_error, as returned by Anthropic when it sheds load
+     */
+    public static AnthropicApiException overloaded(String message) {
+        return new AnthropicApiException("overloaded_error", HttpStatusCode.valueOf(529), message);
+    }
+
+    /**
+     * 429 rate_limit_error telling the client when to retry
+     */
+    public static AnthropicApiException rateLimited(String message, Duration retryAfter) {
+        return new AnthropicApiException("rate_limit_error", HttpStatus.TOO_MANY_REQUESTS, message, retryAfter);
+    }
+
+    /**
+     * Value for the retry-after header, in whole seconds rounded up
+     */
+    public String retryAfterSeconds() {
+        return retryAfter == null ? null : String.valueOf(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAIChoice;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.model.openai.OpenAIMessage;
+import com.example.anthropicproxy.model.openai.OpenAIToolCall;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes Anthropic response bodies straight to bytes with a JsonGenerator,
+ * without building response POJOs or Maps first. Field names are pre-encoded
+ * SerializedStrings and output goes to a reusable buffer from a small pool.
+ */
+@Component
+public class AnthropicResponseWriter {
+    static final SerializedString ID = new SerializedString("id");
+    static final SerializedString TYPE = new SerializedString("type");
+    static final SerializedString ROLE = new SerializedString("role");
+    static final SerializedString CONTENT = new SerializedString("content");
+    static final SerializedString MODEL = new SerializedString("model");
+    static final SerializedString TEXT = new SerializedString("text");
+    static final SerializedString STOP_REASON = new SerializedString("stop_reason");
+    static final SerializedString STOP_SEQUENCE = new SerializedString("stop_sequence");
+    static final SerializedString USAGE = new SerializedString("usage");
+    static final SerializedString INPUT_TOKENS = new SerializedString("input_tokens");
+    static final SerializedString OUTPUT_TOKENS = new SerializedString("output_tokens");
+    static final SerializedString ERROR = new SerializedString("error");
+    static final SerializedString MESSAGE = new SerializedString("message");
+    static final SerializedString INDEX = new SerializedString("index");
+    static final SerializedString DELTA = new SerializedString("delta");
+    static final SerializedString CONTENT_BLOCK = new SerializedString("content_block");
+    static final SerializedString NAME = new SerializedString("name");
+    static final SerializedString INPUT = new SerializedString("input");
+
+    static final SerializedString TYPE_MESSAGE = new SerializedString("message");
+    static final SerializedString TYPE_ERROR = new SerializedString("error");
+    static final SerializedString TYPE_TEXT = new SerializedString("text");
+    static final SerializedString TYPE_TOOL_USE = new SerializedString("tool_use");
+    static final SerializedString ROLE_ASSISTANT = new SerializedString("assistant");
+
+    // Output buffers keep their grown capacity between requests; buffers that
+    // grew past the cap are dropped instead of being retained. They are pooled
+    // rather than kept per thread: a ThreadLocal buffer is never reused on
+    // virtual threads, which live for one request. A buffer is only held while
+    // one body is written, so a few per core cover the concurrent writers, at
+    // the cost of a queue poll and offer per body instead of a ThreadLocal read.
+    // Writers that find the pool empty allocate a buffer and pool it afterwards
+    // if there is room.
+    private static final int BUFFER_INITIAL_SIZE = 4096;
+    private static final int BUFFER_RETAIN_LIMIT = 256 * 1024;
+    private static final int BUFFER_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final JsonFactory jsonFactory;
+    private final BlockingQueue<ReusableOutputStream> buffers = new ArrayBlockingQueue<>(BUFFER_POOL_SIZE);
+
+    public AnthropicResponseWriter(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Serialize the Anthropic message for a non-streaming OpenAI response
+     */
+    public byte[] writeMessage(OpenAICompletionResponse openaiResponse, String anthropicModel, String requestId) {
+        ReusableOutputStream buffer = acquire();
+        try (JsonGenerator gen = jsonFactory.createGenerator(buffer)) {
+            writeMessage(gen, openaiResponse, anthropicModel, requestId);
+        } catch (IOException e) {
+            release(buffer);
+            throw new UncheckedIOException(e);
+        }
+        return drain(buffer);
+    }
+
+    /**
+     * Write the Anthropic message for a non-streaming OpenAI response as the next value of gen
+     */
+    public void writeMessage(JsonGenerator gen, OpenAICompletionResponse openaiResponse,
+                             String anthropicModel, String requestId) throws IOException {
+        if (openaiResponse.getChoices() == null || openaiResponse.getChoices().isEmpty()) {
+            throw new IllegalArgumentException("OpenAI response has no choices");
+        }
+        OpenAIChoice choice = openaiResponse.getChoices().get(0);
+        OpenAIMessage message = choice.getMessage();
+        OpenAIUsage usage = openaiResponse.getUsage();
+
+        gen.writeStartObject();
+        gen.writeFieldName(ID);
+        gen.writeString(requestId);
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_MESSAGE);
+        gen.writeFieldName(ROLE);
+        gen.writeString(ROLE_ASSISTANT);
+
+        String text = message != null && message.getContent() != null ? message.getContent().toString() : "";
+        List<OpenAIToolCall> toolCalls = message != null ? message.getToolCalls() : null;
+        boolean hasToolCalls = toolCalls != null && !toolCalls.isEmpty();
+        gen.writeFieldName(CONTENT);
+        gen.writeStartArray();
+        if (!text.isEmpty() || !hasToolCalls) {
+            gen.writeStartObject();
+            gen.writeFieldName(TYPE);
+            gen.writeString(TYPE_TEXT);
+            gen.writeFieldName(TEXT);
+            gen.writeString(text);
+            gen.writeEndObject();
+        }
+        if (hasToolCalls) {
+            for (OpenAIToolCall toolCall : toolCalls) {
+                OpenAIToolCall.Function function = toolCall.getFunction();
+                gen.writeStartObject();
+                gen.writeFieldName(TYPE);
+                gen.writeString(TYPE_TOOL_USE);
+                gen.writeFieldName(ID);
+                writeNullableString(gen, toolCall.getId());
+                gen.writeFieldName(NAME);
+                writeNullableString(gen, function != null ? function.getName() : null);
+                gen.writeFieldName(INPUT);
+                writeToolInput(gen, function != null ? function.getArguments() : null);
+                gen.writeEndObject();
+            }
+        }
+        gen.writeEndArray();
+
+        gen.writeFieldName(MODEL);
+        gen.writeString(anthropicModel);
+        gen.writeFieldName(STOP_REASON);
+        writeNullableString(gen, ConversionService.toAnthropicStopReason(choice.getFinishReason()));
+        gen.writeFieldName(STOP_SEQUENCE);
+        gen.writeNull();
+
+        gen.writeFieldName(USAGE);
+        gen.writeStartObject();
+        gen.writeFieldName(INPUT_TOKENS);
+        gen.writeNumber(usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0);
+        gen.writeFieldName(OUTPUT_TOKENS);
+        gen.writeNumber(usage != null && usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0);
+        gen.writeEndObject();
+
+        gen.writeEndObject();
+    }
+
+    /**
+     * Copy tool call arguments as the tool_use input. Arguments that are not
+     * a single JSON object (e.g. cut off by max_tokens) are written as {}.
+     */
+    private void writeToolInput(JsonGenerator gen, String arguments) throws IOException {
+        if (arguments != null && isJsonObject(arguments)) {
+            gen.writeRawValue(arguments);
+        } else {
+            gen.writeStartObject();
+            gen.writeEndObject();
+        }
+    }
+
+    private boolean isJsonObject(String json) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serialize an Anthropic error body: {"type":"error","error":{"type":...,"message":...}}
+     */
+    public byte[] writeError(String errorType, String message) {
+        ReusableOutputStream buffer = acquire();
+        try (JsonGenerator gen = jsonFactory.createGenerator(buffer)) {
+            writeErrorObject(gen, errorType, message);
+        } catch (IOException e) {
+            release(buffer);
+            throw new UncheckedIOException(e);
+        }
+        return drain(buffer);
+    }
+
+    /**
+     * Create a generator for a stream's SSE frames. Root-level values are not
+     * separated, so raw SSE field lines can be interleaved with JSON objects.
+     */
+    JsonGenerator createFrameGenerator(ByteArrayBuilder buffer) {
+        try {
+            JsonGenerator gen = jsonFactory.createGenerator(buffer);
+            gen.setRootValueSeparator(null);
+            return gen;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void writeErrorObject(JsonGenerator gen, String errorType, String message) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_ERROR);
+        gen.writeFieldName(ERROR);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(errorType);
+        gen.writeFieldName(MESSAGE);
+        gen.writeString(message != null ? message : "Unknown error");
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    static void writeNullableString(JsonGenerator gen, String value) throws IOException {
+        if (value != null) {
+            gen.writeString(value);
+        } else {
+            gen.writeNull();
+        }
+    }
+
+    private ReusableOutputStream acquire() {
+        ReusableOutputStream buffer = buffers.poll();
+        return buffer != null ? buffer : new ReusableOutputStream(BUFFER_INITIAL_SIZE);
+    }
+
+    private void release(ReusableOutputStream buffer) {
+        if (buffer.capacity() <= BUFFER_RETAIN_LIMIT) {
+            buffer.reset();
+            buffers.offer(buffer);
+        }
+    }
+
+    private byte[] drain(ReusableOutputStream buffer) {
+        byte[] bytes = buffer.toByteArray();
+        release(buffer);
+        return bytes;
+    }
+
+    /**
+     * ByteArrayOutputStream that exposes its capacity so oversized buffers can be released
+     */
+    private static final class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.example.anthropicproxy.model.openai.OpenAIToolCall;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static com.example.anthropicproxy.service.AnthropicResponseWriter.*;
+
+/**
+ * Per-stream state machine that turns OpenAI chat completion chunks into the
+ * Anthropic streaming event sequence:
+ * message_start, content_block_start, content_block_delta*, content_block_stop,
+ * message_delta, message_stop.
+ *
+ * Frames are written as complete SSE events ("event: ...\ndata: ...\n\n") by a
+ * JsonGenerator into a buffer that is reused for the lifetime of the stream.
+ * The message id and model are encoded once when the transcoder is created, so
+ * a text delta only costs the escaped token text plus one copy of the frame.
+ *
+ * Text block 0 is opened with message_start. Each upstream tool call opens a
+ * tool_use block at the next index, and its argument fragments are forwarded
+ * as input_json_delta events as they arrive, without buffering the arguments.
+ * Tool calls are assumed to stream one after another, as OpenAI-compatible
+ * servers send them; a fragment for a call whose block is already closed is
+ * dropped with a warning.
+ *
+ * Instances are not thread-safe; a stream's chunks are delivered serially.
+ */
+@Slf4j
+public class AnthropicStreamTranscoder {
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final SerializedString MESSAGE_START_EVENT = event("message_start");
+    private static final SerializedString CONTENT_BLOCK_START_EVENT = event("content_block_start");
+    private static final SerializedString CONTENT_BLOCK_DELTA_EVENT = event("content_block_delta");
+    private static final SerializedString CONTENT_BLOCK_STOP_EVENT = event("content_block_stop");
+    private static final SerializedString MESSAGE_DELTA_EVENT = event("message_delta");
+    private static final SerializedString MESSAGE_STOP_EVENT = event("message_stop");
+    private static final SerializedString ERROR_EVENT = event("error");
+    private static final SerializedString FRAME_END = new SerializedString("\n\n");
+
+    private static final SerializedString TYPE_MESSAGE_START = new SerializedString("message_start");
+    private static final SerializedString TYPE_CONTENT_BLOCK_START = new SerializedString("content_block_start");
+    private static final SerializedString TYPE_CONTENT_BLOCK_DELTA = new SerializedString("content_block_delta");
+    private static final SerializedString TYPE_CONTENT_BLOCK_STOP = new SerializedString("content_block_stop");
+    private static final SerializedString TYPE_MESSAGE_DELTA = new SerializedString("message_delta");
+    private static final SerializedString TYPE_MESSAGE_STOP = new SerializedString("message_stop");
+    private static final SerializedString TYPE_TEXT_DELTA = new SerializedString("text_delta");
+    private static final SerializedString TYPE_INPUT_JSON_DELTA = new SerializedString("input_json_delta");
+    private static final SerializedString PARTIAL_JSON = new SerializedString("partial_json");
+
+    private final SerializedString encodedId;
+    private final SerializedString encodedModel;
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(512);
+    private final JsonGenerator gen;
+
+    private boolean started;
+    private boolean finished;
+    private String stopReason;
+    private int inputTokens;
+    private int outputTokens;
+    private boolean usageReported;
+    private int blockIndex;
+    private boolean textBlock = true;
+    private int toolCallIndex = -1; // upstream index of the newest tool call
+
+    AnthropicStreamTranscoder(AnthropicResponseWriter writer, String requestId, String anthropicModel) {
+        this.encodedId = new SerializedString(requestId != null ? requestId : "");
+        this.encodedModel = new SerializedString(anthropicModel != null ? anthropicModel : "");
+        this.gen = writer.createFrameGenerator(buffer);
+    }
+
+    /**
+     * Transcode one upstream chunk. Returns the SSE frames to send, or an empty
+     * array when the chunk produces no client-visible event.
+     */
+    public byte[] onChunk(OpenAIStreamChunk chunk) {
+        if (finished) {
+            return EMPTY;
+        }
+        try {
+            ensureStarted();
+
+            if (chunk.getUsage() != null && chunk.getUsage().getCompletionTokens() != null) {
+                outputTokens = chunk.getUsage().getCompletionTokens();
+                usageReported = true;
+                if (chunk.getUsage().getPromptTokens() != null) {
+                    inputTokens = chunk.getUsage().getPromptTokens();
+                }
+            }
+
+            if (chunk.getChoices() != null && !chunk.getChoices().isEmpty()) {
+                OpenAIStreamChunk.OpenAIStreamChoice choice = chunk.getChoices().get(0);
+                OpenAIStreamChunk.OpenAIDelta delta = choice.getDelta();
+                if (delta != null && delta.getContent() != null && !delta.getContent().isEmpty()) {
+                    if (!textBlock) {
+                        writeBlockStop();
+                        blockIndex++;
+                        writeTextBlockStart();
+                        textBlock = true;
+                    }
+                    writeTextDelta(delta.getContent());
+                    if (!usageReported) {
+                        outputTokens++;
+                    }
+                }
+                if (delta != null && delta.getToolCalls() != null) {
+                    onToolCalls(delta.getToolCalls());
+                }
+                if (choice.getFinishReason() != null) {
+                    stopReason = ConversionService.toAnthropicStopReason(choice.getFinishReason());
+                }
+            }
+            return drain();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the open content block and the message. Safe to call more than
+     * once; only the first call produces frames.
+     */
+    public byte[] finish() {
+        if (finished) {
+            return EMPTY;
+        }
+        try {
+            ensureStarted();
+            finished = true;
+
+            writeBlockStop();
+
+            gen.writeRaw(MESSAGE_DELTA_EVENT);
+            gen.writeStartObject();
+            gen.writeFieldName(TYPE);
+            gen.writeString(TYPE_MESSAGE_DELTA);
+            gen.writeFieldName(DELTA);
+            gen.writeStartObject();
+            gen.writeFieldName(STOP_REASON);
+            writeNullableString(gen, stopReason);
+            gen.writeFieldName(STOP_SEQUENCE);
+            gen.writeNull();
+            gen.writeEndObject();
+            gen.writeFieldName(USAGE);
+            gen.writeStartObject();
+            gen.writeFieldName(OUTPUT_TOKENS);
+            gen.writeNumber(outputTokens);
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeRaw(FRAME_END);
+
+            gen.writeRaw(MESSAGE_STOP_EVENT);
+            gen.writeStartObject();
+            gen.writeFieldName(TYPE);
+            gen.writeString(TYPE_MESSAGE_STOP);
+            gen.writeEndObject();
+            gen.writeRaw(FRAME_END);
+            return drainAndClose();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Terminate the stream with an Anthropic error event.
+     */
+    public byte[] error(String errorType, String message) {
+        if (finished) {
+            return EMPTY;
+        }
+        try {
+            finished = true;
+            gen.writeRaw(ERROR_EVENT);
+            writeErrorObject(gen, errorType, message);
+            gen.writeRaw(FRAME_END);
+            return drainAndClose();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Prompt tokens reported by the upstream usage chunk, or 0 when none was sent
+     */
+    public int getInputTokens() {
+        return inputTokens;
+    }
+
+    /**
+     * Output tokens so far: upstream-reported when available, else one per text
+     * delta or tool argument fragment
+     */
+    public int getOutputTokens() {
+        return outputTokens;
+    }
+
+    private void ensureStarted() throws IOException {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        gen.writeRaw(MESSAGE_START_EVENT);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_MESSAGE_START);
+        gen.writeFieldName(MESSAGE);
+        gen.writeStartObject();
+        gen.writeFieldName(ID);
+        gen.writeString(encodedId);
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_MESSAGE);
+        gen.writeFieldName(ROLE);
+        gen.writeString(ROLE_ASSISTANT);
+        gen.writeFieldName(CONTENT);
+        gen.writeStartArray();
+        gen.writeEndArray();
+        gen.writeFieldName(MODEL);
+        gen.writeString(encodedModel);
+        gen.writeFieldName(STOP_REASON);
+        gen.writeNull();
+        gen.writeFieldName(STOP_SEQUENCE);
+        gen.writeNull();
+        gen.writeFieldName(USAGE);
+        gen.writeStartObject();
+        gen.writeFieldName(INPUT_TOKENS);
+        gen.writeNumber(0);
+        gen.writeFieldName(OUTPUT_TOKENS);
+        gen.writeNumber(0);
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeRaw(FRAME_END);
+
+        writeTextBlockStart();
+    }
+
+    private void onToolCalls(List<OpenAIToolCall> toolCalls) throws IOException {
+        for (OpenAIToolCall toolCall : toolCalls) {
+            // A fragment without an index continues the current call
+            int index = toolCall.getIndex() != null ? toolCall.getIndex() : Math.max(toolCallIndex, 0);
+            if (index > toolCallIndex) {
+                writeBlockStop();
+                blockIndex++;
+                writeToolUseBlockStart(toolCall);
+                textBlock = false;
+                toolCallIndex = index;
+            } else if (index < toolCallIndex || textBlock) {
+                log.warn("Dropping fragment for tool call {} after its content block was closed", index);
+                continue;
+            }
+            String arguments = toolCall.getFunction() != null ? toolCall.getFunction().getArguments() : null;
+            if (arguments != null && !arguments.isEmpty()) {
+                writeInputJsonDelta(arguments);
+                if (!usageReported) {
+                    outputTokens++;
+                }
+            }
+        }
+    }
+
+    private void writeTextBlockStart() throws IOException {
+        gen.writeRaw(CONTENT_BLOCK_START_EVENT);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_CONTENT_BLOCK_START);
+        gen.writeFieldName(INDEX);
+        gen.writeNumber(blockIndex);
+        gen.writeFieldName(CONTENT_BLOCK);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_TEXT);
+        gen.writeFieldName(TEXT);
+        gen.writeString("");
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeRaw(FRAME_END);
+    }
+
+    private void writeToolUseBlockStart(OpenAIToolCall toolCall) throws IOException {
+        gen.writeRaw(CONTENT_BLOCK_START_EVENT);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_CONTENT_BLOCK_START);
+        gen.writeFieldName(INDEX);
+        gen.writeNumber(blockIndex);
+        gen.writeFieldName(CONTENT_BLOCK);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_TOOL_USE);
+        gen.writeFieldName(ID);
+        writeNullableString(gen, toolCall.getId());
+        gen.writeFieldName(NAME);
+        writeNullableString(gen, toolCall.getFunction() != null ? toolCall.getFunction().getName() : null);
+        gen.writeFieldName(INPUT);
+        gen.writeStartObject();
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeRaw(FRAME_END);
+    }
+
+    private void writeBlockStop() throws IOException {
+        gen.writeRaw(CONTENT_BLOCK_STOP_EVENT);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_CONTENT_BLOCK_STOP);
+        gen.writeFieldName(INDEX);
+        gen.writeNumber(blockIndex);
+        gen.writeEndObject();
+        gen.writeRaw(FRAME_END);
+    }
+
+    private void writeInputJsonDelta(String partialJson) throws IOException {
+        gen.writeRaw(CONTENT_BLOCK_DELTA_EVENT);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_CONTENT_BLOCK_DELTA);
+        gen.writeFieldName(INDEX);
+        gen.writeNumber(blockIndex);
+        gen.writeFieldName(DELTA);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_INPUT_JSON_DELTA);
+        gen.writeFieldName(PARTIAL_JSON);
+        gen.writeString(partialJson);
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeRaw(FRAME_END);
+    }
+
+    private void writeTextDelta(String text) throws IOException {
+        gen.writeRaw(CONTENT_BLOCK_DELTA_EVENT);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_CONTENT_BLOCK_DELTA);
+        gen.writeFieldName(INDEX);
+        gen.writeNumber(blockIndex);
+        gen.writeFieldName(DELTA);
+        gen.writeStartObject();
+        gen.writeFieldName(TYPE);
+        gen.writeString(TYPE_TEXT_DELTA);
+        gen.writeFieldName(TEXT);
+        gen.writeString(text);
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeRaw(FRAME_END);
+    }
+
+    private byte[] drain() throws IOException {
+        gen.flush();
+        byte[] frames = buffer.toByteArray();
+        buffer.reset();
+        return frames;
+    }
+
+    private byte[] drainAndClose() throws IOException {
+        // Closing returns the generator's recycled buffers; flushes first
+        gen.close();
+        byte[] frames = buffer.toByteArray();
+        buffer.reset();
+        return frames;
+    }
+
+    private static SerializedString event(String name) {
+        return new SerializedString("event: " + name + "\ndata: ");
+    }
+}
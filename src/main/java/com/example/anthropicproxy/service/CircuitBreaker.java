@@ -0,0 +1,170 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker for one upstream model. Outcomes of the last N calls are
+ * kept in a ring buffer; once enough calls were seen and the failure or
+ * slow-call rate crosses its threshold the breaker opens and rejects calls
+ * outright. After the open period it lets a few trial calls through
+ * (half-open) and closes again only if all of them succeed.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final ProxyConfigProperties.CircuitBreaker config;
+    private final long slowCallNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int trialPermits;
+    private int trialSuccesses;
+
+    // Sliding window of outcomes, guarded by lock
+    private final byte[] outcomes;
+    private int recorded;
+    private int next;
+    private int failures;
+    private int slowCalls;
+
+    CircuitBreaker(ProxyConfigProperties.CircuitBreaker config) {
+        this.config = config;
+        this.slowCallNanos = config.getSlowCallDuration().toNanos();
+        this.outcomes = new byte[Math.max(config.getWindowSize(), 1)];
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Whether a call may proceed; every granted permit must be followed by
+     * exactly one of {@link #onSuccess}, {@link #onFailure} or {@link #release}
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < config.getOpenDuration().toNanos()) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialPermits = config.getHalfOpenCalls();
+                trialSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialPermits == 0) {
+                    return false;
+                }
+                trialPermits--;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess(long latencyNanos) {
+        record(latencyNanos > slowCallNanos ? SLOW : SUCCESS);
+    }
+
+    public void onFailure() {
+        record(FAILURE);
+    }
+
+    /**
+     * Give back a permit without an outcome, e.g. when the caller cancelled
+     */
+    public void release() {
+        if (state != State.HALF_OPEN) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                trialPermits++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(byte outcome) {
+        lock.lock();
+        try {
+            switch (state) {
+                case HALF_OPEN -> {
+                    if (outcome == SUCCESS) {
+                        if (++trialSuccesses >= config.getHalfOpenCalls()) {
+                            transitionTo(State.CLOSED);
+                        }
+                    } else {
+                        transitionTo(State.OPEN);
+                    }
+                }
+                case CLOSED -> {
+                    add(outcome);
+                    if (recorded >= config.getMinimumCalls() && tripped()) {
+                        transitionTo(State.OPEN);
+                    }
+                }
+                // Late outcomes of calls admitted before the breaker opened
+                case OPEN -> {
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(byte outcome) {
+        if (recorded == outcomes.length) {
+            byte evicted = outcomes[next];
+            if (evicted == FAILURE) {
+                failures--;
+            } else if (evicted == SLOW) {
+                slowCalls--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+    }
+
+    private boolean tripped() {
+        return failures * 100.0 / recorded >= config.getFailureRateThreshold()
+                || slowCalls * 100.0 / recorded >= config.getSlowCallRateThreshold();
+    }
+
+    private void transitionTo(State target) {
+        state = target;
+        if (target == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (target == State.CLOSED) {
+            recorded = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ClientHttpRequestDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip for whole bodies: non-streaming responses to clients and request
+ * bodies sent upstream. Deflaters hold native zlib state that is costly to
+ * set up, so they are pooled and reset between bodies instead of created per
+ * body as GZIPOutputStream does; the gzip header and trailer are written here
+ * around their raw deflate output.
+ */
+@Component
+public class GzipCompressor {
+    public static final String GZIP = "gzip";
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_LENGTH = 8;
+
+    private final ProxyConfigProperties.Compression config;
+    private final BlockingQueue<Deflater> pool;
+
+    private final ProxyMetrics.Counter responseBytesIn;
+    private final ProxyMetrics.Counter responseBytesOut;
+    private final ProxyMetrics.Counter requestBytesIn;
+    private final ProxyMetrics.Counter requestBytesOut;
+
+    public GzipCompressor(ProxyConfigProperties proxyConfig, ProxyMetrics metrics) {
+        this.config = proxyConfig.getCompression();
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, config.getPoolSize()));
+
+        this.responseBytesIn = metrics.counter("proxy_compression_input_bytes_total",
+                "Bytes of bodies gzipped", "body", "client_response");
+        this.responseBytesOut = metrics.counter("proxy_compression_output_bytes_total",
+                "Bytes of gzipped bodies", "body", "client_response");
+        this.requestBytesIn = metrics.counter("proxy_compression_input_bytes_total",
+                "Bytes of bodies gzipped", "body", "upstream_request");
+        this.requestBytesOut = metrics.counter("proxy_compression_output_bytes_total",
+                "Bytes of gzipped bodies", "body", "upstream_request");
+    }
+
+    /**
+     * Whether a response body of the given length should be gzipped for a
+     * client sending these Accept-Encoding values
+     */
+    public boolean shouldCompressResponse(List<String> acceptEncoding, int length) {
+        return config.isEnabled() && length >= config.getMinResponseSize().toBytes() && acceptsGzip(acceptEncoding);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Gzip a response body, counting it toward the client response metrics
+     */
+    public byte[] compressResponse(byte[] body) {
+        byte[] compressed = compress(List.of(ByteBuffer.wrap(body)).iterator(), body.length);
+        responseBytesIn.increment(body.length);
+        responseBytesOut.increment(compressed.length);
+        return compressed;
+    }
+
+    /**
+     * WebClient filter that gzips request bodies of at least minBytes and
+     * marks them with Content-Encoding. The body is encoded in full before it
+     * is written, which holds for the JSON values sent upstream.
+     */
+    public ExchangeFilterFunction requestCompression(long minBytes) {
+        return (request, next) -> next.exchange(ClientRequest.from(request)
+                .body((outputMessage, context) -> request.body().insert(new ClientHttpRequestDecorator(outputMessage) {
+                    @Override
+                    public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                        return DataBufferUtils.join(body)
+                                .defaultIfEmpty(bufferFactory().wrap(new byte[0]))
+                                .flatMap(buffer -> {
+                                    int length = buffer.readableByteCount();
+                                    if (length < minBytes) {
+                                        return super.writeWith(Mono.just(buffer));
+                                    }
+                                    byte[] compressed;
+                                    try (DataBuffer.ByteBufferIterator input = buffer.readableByteBuffers()) {
+                                        compressed = compress(input, length);
+                                    } finally {
+                                        DataBufferUtils.release(buffer);
+                                    }
+                                    requestBytesIn.increment(length);
+                                    requestBytesOut.increment(compressed.length);
+                                    getHeaders().set(HttpHeaders.CONTENT_ENCODING, GZIP);
+                                    getHeaders().setContentLength(compressed.length);
+                                    return super.writeWith(Mono.just(bufferFactory().wrap(compressed)));
+                                });
+                    }
+                }, context))
+                .build());
+    }
+
+    /**
+     * Gzip the buffers in order into one member; length is their total size
+     */
+    byte[] compress(Iterator<ByteBuffer> input, int length) {
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(config.getLevel(), true);
+        }
+        try {
+            CRC32 crc = new CRC32();
+            // JSON usually shrinks several times over; the buffer grows if it does not
+            byte[] out = Arrays.copyOf(HEADER, Math.max(HEADER.length + 64, length / 4));
+            int position = HEADER.length;
+            while (input.hasNext()) {
+                ByteBuffer chunk = input.next();
+                crc.update(chunk.duplicate());
+                deflater.setInput(chunk);
+                while (!deflater.needsInput()) {
+                    if (position == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    position += deflater.deflate(out, position, out.length - position);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (position == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                position += deflater.deflate(out, position, out.length - position);
+            }
+            if (position + TRAILER_LENGTH > out.length) {
+                out = Arrays.copyOf(out, position + TRAILER_LENGTH);
+            }
+            position = writeIntLE(out, position, (int) crc.getValue());
+            position = writeIntLE(out, position, length);
+            return out.length == position ? out : Arrays.copyOf(out, position);
+        } finally {
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    private static int writeIntLE(byte[] out, int position, int value) {
+        out[position] = (byte) value;
+        out[position + 1] = (byte) (value >> 8);
+        out[position + 2] = (byte) (value >> 16);
+        out[position + 3] = (byte) (value >> 24);
+        return position + 4;
+    }
+
+    /**
+     * Whether Accept-Encoding allows gzip: listed with a non-zero quality,
+     * or covered by a non-zero "*" when gzip is not listed
+     */
+    static boolean acceptsGzip(List<String> acceptEncoding) {
+        Boolean gzip = null;
+        boolean any = false;
+        for (String value : acceptEncoding) {
+            for (String coding : value.split(",")) {
+                int parameters = coding.indexOf(';');
+                String name = (parameters >= 0 ? coding.substring(0, parameters) : coding).trim();
+                boolean accepted = parameters < 0 || quality(coding.substring(parameters + 1)) > 0;
+                if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                    gzip = accepted;
+                } else if ("*".equals(name)) {
+                    any = accepted;
+                }
+            }
+        }
+        return gzip != null ? gzip : any;
+    }
+
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2));
+                } catch (NumberFormatException e) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded LRU cache of transcoded conversation prefixes. Clients resend
+ * the whole history on every turn, so the request transcoder keeps the
+ * leading messages it read and the OpenAI messages it wrote for them, with
+ * the position of every message boundary in both. The next turn then reuses
+ * the output for the longest run of leading messages whose bytes are
+ * identical, and only converts the messages after it. A prefix ends before
+ * the first message with an image, so no image data is kept.
+ *
+ * Entries are found by a hash of the array up to the end of its first
+ * message, but only reused as far as the request bytes compare equal to
+ * the cached ones, so a hash collision costs a comparison and never reuses
+ * another conversation's output. An entry that a later turn shares most of
+ * is replaced by the later one; a few entries are kept per first message,
+ * for conversations that share their opening.
+ */
+final class MessagePrefixCache {
+    // Rough per-entry overhead: map node, entry and array headers
+    private static final long ENTRY_OVERHEAD_BYTES = 256;
+    private static final int MAX_ENTRIES_PER_KEY = 4;
+    static final int KEY_BYTES = 1024;
+
+    private final boolean enabled;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Prefix[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+
+    private final ProxyMetrics.Counter hits;
+    private final ProxyMetrics.Counter misses;
+    private final ProxyMetrics.Counter reusedMessages;
+
+    MessagePrefixCache(ProxyConfigProperties.PrefixCache config, ProxyMetrics metrics) {
+        this.enabled = config.isEnabled();
+        this.maxBytes = config.getMaxSize().toBytes();
+
+        this.hits = metrics.counter("proxy_prefix_cache_hits_total", "Requests that reused a cached message prefix");
+        this.misses = metrics.counter("proxy_prefix_cache_misses_total", "Requests that found no cached message prefix");
+        this.reusedMessages = metrics.counter("proxy_prefix_cache_reused_messages_total",
+                "Anthropic messages whose conversion was reused from the prefix cache");
+        metrics.gauge("proxy_prefix_cache_bytes", "Estimated bytes retained by the message prefix cache", this::size);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Most request bytes worth keeping for a prefix: with its encoded
+     * messages, which take about as much again, it still fits in the cache
+     */
+    long getMaxSourceBytes() {
+        return maxBytes / 2;
+    }
+
+    /**
+     * A transcoded prefix. source holds the messages array from its opening
+     * bracket, and message i ends at sourceEnds[i] in it; its OpenAI messages
+     * end at encodedEnds[i] in encoded, where they are separated by commas
+     * without brackets. promptChars and imageBytes are the transcoder's
+     * running totals after message i.
+     */
+    record Prefix(byte[] source, int[] sourceEnds, byte[] encoded, int[] encodedEnds,
+                  long[] promptChars, long[] imageBytes) {
+        int messages() {
+            return sourceEnds.length;
+        }
+
+        /**
+         * Number of leading messages whose bytes match the array at offset
+         * start of body, reading body ahead as far as this prefix goes
+         */
+        int matchingMessages(RequestBodyStream body, long start) throws IOException {
+            int length = sourceEnds[sourceEnds.length - 1];
+            int available = (int) Math.min(length, body.fillTo(start + length) - start);
+            int mismatch = body.mismatch(start, source, 0, available);
+            int matched = mismatch < 0 ? available : mismatch;
+            int messages = 0;
+            while (messages < sourceEnds.length && sourceEnds[messages] <= matched) {
+                messages++;
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * A cached prefix and how many of its messages the request shares
+     */
+    record Match(Prefix prefix, int messages) {
+    }
+
+    /**
+     * Lookup key of a messages array: a hash of its length up to the end of
+     * its first message and its first KEY_BYTES bytes or fewer, which head
+     * holds. Only the start of a long first message is hashed, since matches
+     * are verified against the bytes anyway.
+     */
+    static long key(byte[] head, long length) {
+        long hash = 0xcbf29ce484222325L ^ length;
+        for (byte b : head) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * The cached prefix sharing the most leading messages with the messages
+     * array at offset start of body, or null
+     */
+    Match longest(long key, RequestBodyStream body, long start) throws IOException {
+        Prefix[] candidates;
+        lock.lock();
+        try {
+            candidates = entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+        Match best = null;
+        if (candidates != null) {
+            // Entries are immutable, so they are compared outside the lock
+            for (Prefix candidate : candidates) {
+                int messages = candidate.matchingMessages(body, start);
+                if (messages > 0 && (best == null || messages > best.messages())) {
+                    best = new Match(candidate, messages);
+                }
+            }
+        }
+        if (best == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        reusedMessages.increment(best.messages());
+        return best;
+    }
+
+    /**
+     * Store a prefix under key, dropping the entry it supersedes
+     */
+    void put(long key, Prefix prefix, Prefix superseded) {
+        long weight = weigh(prefix);
+        if (weight > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            Prefix[] previous = entries.get(key);
+            Prefix[] updated;
+            if (previous == null) {
+                updated = new Prefix[]{prefix};
+            } else {
+                // Newest first; the superseded entry and the oldest beyond the limit are dropped
+                Prefix[] kept = new Prefix[Math.min(previous.length + 1, MAX_ENTRIES_PER_KEY)];
+                kept[0] = prefix;
+                int count = 1;
+                for (Prefix entry : previous) {
+                    if (entry != superseded && count < kept.length) {
+                        kept[count++] = entry;
+                    } else {
+                        currentBytes -= weigh(entry);
+                    }
+                }
+                updated = Arrays.copyOf(kept, count);
+            }
+            entries.put(key, updated);
+            currentBytes += weight;
+            Iterator<Map.Entry<Long, Prefix[]>> it = entries.entrySet().iterator();
+            while (it.hasNext() && currentBytes > maxBytes) {
+                for (Prefix entry : it.next().getValue()) {
+                    currentBytes -= weigh(entry);
+                }
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long size() {
+        lock.lock();
+        try {
+            return currentBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimated retained bytes: the source and encoded messages and the
+     * boundary arrays
+     */
+    static long weigh(Prefix prefix) {
+        return ENTRY_OVERHEAD_BYTES + prefix.source().length + prefix.encoded().length + 24L * prefix.messages();
+    }
+}
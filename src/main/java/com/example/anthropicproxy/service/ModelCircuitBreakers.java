@@ -0,0 +1,161 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Circuit breakers keyed by upstream model. A call for a model whose breaker
+ * is open is routed to the model's configured fallback if that one is
+ * healthy, and otherwise rejected immediately with overloaded_error instead
+ * of waiting for the upstream to time out.
+ */
+@Component
+@Slf4j
+public class ModelCircuitBreakers {
+    private final ProxyConfigProperties.CircuitBreaker config;
+    private final ModelMappingService modelMappingService;
+    private final ProxyMetrics metrics;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public ModelCircuitBreakers(ProxyConfigProperties proxyConfig, ModelMappingService modelMappingService,
+                                ProxyMetrics metrics) {
+        this.config = proxyConfig.getCircuitBreaker();
+        this.modelMappingService = modelMappingService;
+        this.metrics = metrics;
+    }
+
+    public CircuitBreaker forModel(String model) {
+        return breakers.computeIfAbsent(model, this::newBreaker);
+    }
+
+    /**
+     * Run a single-response call for model, passing the model actually used
+     */
+    public <T> Mono<T> execute(String model, Function<String, Mono<T>> call) {
+        if (!config.isEnabled()) {
+            return call.apply(model);
+        }
+        return Mono.defer(() -> {
+            String target = admit(model);
+            if (target == null) {
+                return Mono.error(rejection(model));
+            }
+            CircuitBreaker breaker = forModel(target);
+            long start = System.nanoTime();
+            return call.apply(target)
+                    .doOnSuccess(value -> breaker.onSuccess(System.nanoTime() - start))
+                    .doOnError(error -> recordError(breaker, error, System.nanoTime() - start))
+                    .doOnCancel(breaker::release);
+        });
+    }
+
+    /**
+     * Run a streaming call for model; latency is the time to the first element
+     */
+    public <T> Flux<T> executeStream(String model, Function<String, Flux<T>> call) {
+        if (!config.isEnabled()) {
+            return call.apply(model);
+        }
+        return Flux.defer(() -> {
+            String target = admit(model);
+            if (target == null) {
+                return Flux.error(rejection(model));
+            }
+            CircuitBreaker breaker = forModel(target);
+            long start = System.nanoTime();
+            long[] firstElementAt = {0};
+            return call.apply(target)
+                    .doOnNext(value -> {
+                        if (firstElementAt[0] == 0) {
+                            firstElementAt[0] = System.nanoTime();
+                        }
+                    })
+                    .doOnComplete(() -> breaker.onSuccess(elapsedToFirst(start, firstElementAt[0])))
+                    .doOnError(error -> recordError(breaker, error, elapsedToFirst(start, firstElementAt[0])))
+                    .doOnCancel(() -> {
+                        // A client hanging up mid-stream says nothing bad about the model
+                        if (firstElementAt[0] != 0) {
+                            breaker.onSuccess(firstElementAt[0] - start);
+                        } else {
+                            breaker.release();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Model to call, switching to the fallback while the breaker is open;
+     * null when neither may be called
+     */
+    private String admit(String model) {
+        if (forModel(model).tryAcquire()) {
+            return model;
+        }
+        String fallback = modelMappingService.getFallbackModel(model);
+        if (fallback != null && !fallback.equals(model) && forModel(fallback).tryAcquire()) {
+            log.debug("Circuit open for {}, falling back to {}", model, fallback);
+            metrics.counter("proxy_circuit_breaker_fallbacks_total",
+                    "Calls routed to a fallback model because the breaker was open", "model", model).increment();
+            return fallback;
+        }
+        return null;
+    }
+
+    private AnthropicApiException rejection(String model) {
+        metrics.counter("proxy_circuit_breaker_rejected_total",
+                "Calls rejected because the model's breaker was open", "model", model).increment();
+        return AnthropicApiException.overloaded("Model " + model + " is temporarily overloaded, please retry later");
+    }
+
+    private static void recordError(CircuitBreaker breaker, Throwable error, long latencyNanos) {
+        if (isModelFailure(error)) {
+            breaker.onFailure();
+        } else if (isRateLimited(error)) {
+            breaker.release();
+        } else {
+            breaker.onSuccess(latencyNanos);
+        }
+    }
+
+    /**
+     * 5xx responses, timeouts and transport errors count against a model.
+     * Unlike for endpoint ejection, 429 does not: opening the breaker on it
+     * would move the traffic to the fallback model and spend its quota too,
+     * rather than backing off.
+     */
+    static boolean isModelFailure(Throwable error) {
+        if (error instanceof OpenAIApiException apiError) {
+            return apiError.getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+
+    /**
+     * A rate-limited call says nothing about the model either way, so it
+     * gives back its permit without an outcome
+     */
+    private static boolean isRateLimited(Throwable error) {
+        return error instanceof OpenAIApiException apiError
+                && apiError.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    private static long elapsedToFirst(long start, long firstElementAt) {
+        return (firstElementAt != 0 ? firstElementAt : System.nanoTime()) - start;
+    }
+
+    private CircuitBreaker newBreaker(String model) {
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        metrics.gauge("proxy_circuit_breaker_state", "Circuit breaker state (0 closed, 1 open, 2 half-open)",
+                () -> breaker.getState().ordinal(), "model", model);
+        return breaker;
+    }
+}
@@ -1,60 +1,147 @@
 package com.example.anthropicproxy.service;
 
+import com.example.anthropicproxy.config.ProxyConfigProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Map;
 
+/**
+ * Routes Anthropic model names to upstream models using the table in
+ * model-routes.yml. With proxy.routing.file set, the table is read from that
+ * file and recompiled whenever it changes; requests keep using the previous
+ * table until the new one has parsed, and a broken edit leaves it in place.
+ */
 @Service
 @Slf4j
-public class ModelMappingService {
-    private final Map<String, String> modelMapping = new HashMap<>();
+public class ModelMappingService implements AutoCloseable {
+    private static final String BUNDLED_ROUTES = "model-routes.yml";
+    // Editors often write a file in several steps; wait for them to settle before reloading
+    private static final long RELOAD_SETTLE_MILLIS = 100;
 
-    public ModelMappingService() {
-        // Initialize model mapping (Anthropic -> OpenAI)
-        // Claude 3 Haiku -> GPT-3.5 level
-        modelMapping.put("claude-3-haiku-20240307", "gpt-3.5-turbo");
-        modelMapping.put("claude-3-haiku", "gpt-3.5-turbo");
+    private final ProxyConfigProperties.Routing config;
+    private final Map<String, String> fallbackModels;
+    private final Path routesFile;
+    private final WatchService watchService;
+    private volatile ModelRoutes routes;
 
-        // Claude 3 Sonnet -> GPT-4 level
-        modelMapping.put("claude-3-sonnet-20240229", "gpt-4.1");
-        modelMapping.put("claude-3-sonnet", "gpt-4.1");
+    public ModelMappingService(ProxyConfigProperties proxyConfig) {
+        // Upstream model -> model to route to while its circuit breaker is open
+        this.fallbackModels = Map.copyOf(proxyConfig.getCircuitBreaker().getFallbackModels());
+        this.config = proxyConfig.getRouting();
+        this.routesFile = config.getFile() != null ? Path.of(config.getFile()).toAbsolutePath() : null;
+        this.routes = load();
+        log.info("Loaded {} model routes from {}", routes.size(), routesFile != null ? routesFile : BUNDLED_ROUTES);
+        this.watchService = routesFile != null && config.isWatch() ? watch(routesFile) : null;
+    }
 
-        // Claude 3 Opus -> GPT-4o level
-        modelMapping.put("claude-3-opus-20240229", "gpt-4o");
-        modelMapping.put("claude-3-opus", "gpt-4o");
+    public String mapModel(String anthropicModel) {
+        return routes.resolve(anthropicModel);
+    }
 
-        // Claude 4 Sonnet -> GPT-5 level
-        modelMapping.put("claude-4.5-sonnet-20251229", "gpt-5");
-        modelMapping.put("claude-4.5-sonnet", "gpt-5");
+    /**
+     * Whether the name is one of the listed Anthropic models (used to bound metric tags)
+     */
+    public boolean isKnownModel(String anthropicModel) {
+        return routes.isListed(anthropicModel);
+    }
 
-        // Claude 2 series
-        modelMapping.put("claude-2.1", "gpt-4.1");
-        modelMapping.put("claude-2.0", "gpt-4.1");
+    /**
+     * Listed Anthropic models and their upstream models, in file order
+     */
+    public Map<String, String> getModels() {
+        return routes.models();
+    }
 
-        // Claude Instant
-        modelMapping.put("claude-instant-1.2", "gpt-3.5-turbo");
+    /**
+     * Fallback for an upstream model, or null when none is configured
+     */
+    public String getFallbackModel(String openaiModel) {
+        return fallbackModels.get(openaiModel);
+    }
 
-        // Default mapping
-        modelMapping.put("default", "gpt-4.1");
+    private ModelRoutes load() {
+        try (InputStream in = routesFile != null
+                ? Files.newInputStream(routesFile)
+                : ModelMappingService.class.getClassLoader().getResourceAsStream(BUNDLED_ROUTES)) {
+            if (in == null) {
+                throw new IllegalStateException(BUNDLED_ROUTES + " not found on the classpath");
+            }
+            return ModelRoutes.parse(in, config.getMemoSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read model routes from " + routesFile, e);
+        }
     }
 
-    public String mapModel(String anthropicModel) {
-        // Exact match
-        if (modelMapping.containsKey(anthropicModel)) {
-            return modelMapping.get(anthropicModel);
+    /**
+     * Swap in the current file contents, keeping the old table if they do not parse
+     */
+    void reload() {
+        try {
+            ModelRoutes reloaded = load();
+            routes = reloaded;
+            log.info("Reloaded {} model routes from {}", reloaded.size(), routesFile);
+        } catch (RuntimeException e) {
+            log.warn("Keeping previous model routes, {} could not be loaded: {}", routesFile, e.getMessage());
         }
+    }
 
-        // Fuzzy match
-        for (Map.Entry<String, String> entry : modelMapping.entrySet()) {
-            if (anthropicModel.toLowerCase().contains(entry.getKey().toLowerCase())) {
-                return entry.getValue();
+    private WatchService watch(Path file) {
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            // Watch the directory: editors and config management replace files by renaming over them
+            file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread watcher = new Thread(() -> awaitChanges(service, file.getFileName()), "model-routes-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            return service;
+        } catch (IOException e) {
+            log.warn("Cannot watch {} for changes, routes will not be reloaded", file, e);
+            return null;
+        }
+    }
+
+    private void awaitChanges(WatchService service, Path fileName) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(RELOAD_SETTLE_MILLIS);
+                    // Collapse the events of the same write into one reload
+                    WatchKey pending;
+                    while ((pending = service.poll()) != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    reload();
+                }
             }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // shutting down
         }
+    }
 
-        // Default mapping
-        log.warn("No mapping found for model '{}', using default", anthropicModel);
-        return modelMapping.get("default");
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,182 @@
+package com.example.anthropicproxy.service;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable, compiled form of a model-routes.yml file: an exact-match map of
+ * the listed models plus a case-insensitive longest-prefix trie over the
+ * listed models and the extra prefixes. Resolutions of unlisted names are
+ * memoized up to a fixed number of entries, and the memo is dropped with the
+ * table when a new version replaces it.
+ */
+final class ModelRoutes {
+    private final String defaultModel;
+    // Listed models in file order, as served by /v1/models
+    private final Map<String, String> models;
+    private final Node trie;
+    private final Map<String, String> memo = new ConcurrentHashMap<>();
+    private final int memoSize;
+
+    private ModelRoutes(String defaultModel, Map<String, String> models, Map<String, String> prefixes, int memoSize) {
+        this.defaultModel = defaultModel;
+        this.models = models;
+        this.memoSize = memoSize;
+        // Sorted so each node's children come out ordered for binary search
+        TreeMap<String, String> routes = new TreeMap<>();
+        prefixes.forEach((prefix, target) -> routes.put(prefix.toLowerCase(Locale.ROOT), target));
+        models.forEach((model, target) -> routes.put(model.toLowerCase(Locale.ROOT), target));
+        this.trie = Node.build(routes, 0, List.copyOf(routes.keySet()), null);
+    }
+
+    /**
+     * Parse a routes file; fails with IllegalArgumentException on a malformed table
+     */
+    static ModelRoutes parse(InputStream in, int memoSize) {
+        Object root = new Yaml(new SafeConstructor(new LoaderOptions())).load(in);
+        if (!(root instanceof Map<?, ?> table)) {
+            throw new IllegalArgumentException("Routes file must be a mapping");
+        }
+        if (!(table.get("default") instanceof String defaultModel) || defaultModel.isBlank()) {
+            throw new IllegalArgumentException("Routes file has no default model");
+        }
+        return new ModelRoutes(defaultModel, section(table, "models"), section(table, "prefixes"), memoSize);
+    }
+
+    private static Map<String, String> section(Map<?, ?> table, String name) {
+        Object value = table.get(name);
+        if (value == null) {
+            return Map.of();
+        }
+        if (!(value instanceof Map<?, ?> entries)) {
+            throw new IllegalArgumentException("'" + name + "' must be a mapping of model names");
+        }
+        Map<String, String> section = new LinkedHashMap<>();
+        entries.forEach((key, target) -> {
+            if (key == null || key.toString().isBlank()
+                    || !(target instanceof String) || ((String) target).isBlank()) {
+                throw new IllegalArgumentException("Invalid route in '" + name + "': " + key + " -> " + target);
+            }
+            section.put(key.toString(), (String) target);
+        });
+        return Collections.unmodifiableMap(section);
+    }
+
+    /**
+     * Upstream model for an Anthropic model name; never null
+     */
+    String resolve(String anthropicModel) {
+        if (anthropicModel == null) {
+            return defaultModel;
+        }
+        String target = models.get(anthropicModel);
+        if (target != null) {
+            return target;
+        }
+        target = memo.get(anthropicModel);
+        if (target != null) {
+            return target;
+        }
+        target = trie.longestPrefix(anthropicModel);
+        if (target == null) {
+            target = defaultModel;
+        }
+        if (memo.size() < memoSize) {
+            memo.put(anthropicModel, target);
+        }
+        return target;
+    }
+
+    boolean isListed(String anthropicModel) {
+        return models.containsKey(anthropicModel);
+    }
+
+    Map<String, String> models() {
+        return models;
+    }
+
+    int size() {
+        return models.size();
+    }
+
+    /**
+     * Trie node; children are kept in parallel arrays sorted by character
+     */
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private final char[] keys;
+        private final Node[] children;
+        // Route ending at this node, or null
+        private final String target;
+
+        private Node(char[] keys, Node[] children, String target) {
+            this.keys = keys;
+            this.children = children;
+            this.target = target;
+        }
+
+        /**
+         * Node for the sorted keys sharing their first depth characters
+         */
+        static Node build(Map<String, String> routes, int depth, List<String> keys, String target) {
+            if (keys.isEmpty()) {
+                return new Node(NO_KEYS, NO_CHILDREN, target);
+            }
+            char[] chars = new char[keys.size()];
+            Node[] nodes = new Node[keys.size()];
+            int count = 0;
+            int start = 0;
+            while (start < keys.size()) {
+                char c = keys.get(start).charAt(depth);
+                int end = start;
+                String childTarget = null;
+                while (end < keys.size() && keys.get(end).charAt(depth) == c) {
+                    end++;
+                }
+                // Keys ending on this character terminate at the child; the rest continue below it
+                List<String> deeper = keys.subList(start, end).stream()
+                        .filter(key -> key.length() > depth + 1)
+                        .toList();
+                for (String key : keys.subList(start, end)) {
+                    if (key.length() == depth + 1) {
+                        childTarget = routes.get(key);
+                    }
+                }
+                chars[count] = c;
+                nodes[count] = build(routes, depth + 1, deeper, childTarget);
+                count++;
+                start = end;
+            }
+            return new Node(Arrays.copyOf(chars, count), Arrays.copyOf(nodes, count), target);
+        }
+
+        String longestPrefix(String name) {
+            Node node = this;
+            String match = null;
+            for (int i = 0; i < name.length(); i++) {
+                int index = Arrays.binarySearch(node.keys, Character.toLowerCase(name.charAt(i)));
+                if (index < 0) {
+                    break;
+                }
+                node = node.children[index];
+                if (node.target != null) {
+                    match = node.target;
+                }
+            }
+            return match;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.anthropicproxy.service;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatusCode;
+
+import java.time.Duration;
+
+/**
+ * Error status returned by an OpenAI-compatible upstream
+ */
+@Getter
+public class OpenAIApiException extends RuntimeException {
+    private final HttpStatusCode statusCode;
+    // Upstream retry-after header, when it sent one in seconds
+    private final Duration retryAfter;
+
+    public OpenAIApiException(String message, HttpStatusCode statusCode) {
+        this(message, statusCode, null);
+    }
+
+    public OpenAIApiException(String message, HttpStatusCode statusCode, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Rate limited or failing upstream, worth another attempt after a pause
+     */
+    public boolean isRetryable() {
+        return statusCode.value() == 429 || statusCode.is5xxServerError();
+    }
+}
@@ -1,89 +1,205 @@
 package com.example.anthropicproxy.service;
 
 import com.example.anthropicproxy.config.OpenAIConfigProperties;
+import com.example.anthropicproxy.metrics.PipelineMetrics;
 import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
 import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpStatus;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Supplier;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class OpenAIClientService {
-    private final WebClient openaiWebClient;
+    private static final Map<String, Object> STREAM_USAGE = Map.of("include_usage", true);
+
+    private final UpstreamPool upstreamPool;
     private final ObjectMapper objectMapper;
     private final OpenAIConfigProperties openAIConfig;
+    private final ResponseCache responseCache;
+    private final RequestCoalescer requestCoalescer;
+    private final RequestHedger requestHedger;
+    private final ModelCircuitBreakers circuitBreakers;
 
     /**
      * Create non-streaming completion
      */
     public Mono<OpenAICompletionResponse> createCompletion(OpenAICompletionRequest request) {
-        String endpoint = "/" + openAIConfig.getApiVersion() + "/chat/completions";
-        log.debug("Calling OpenAI API: {}", endpoint);
-
-        return openaiWebClient.post()
-                .uri(endpoint)
-                .bodyValue(request)
-                .retrieve()
-                .onStatus(statusCode -> statusCode.isError(), response -> {
-                    log.error("OpenAI API error: {}", response.statusCode());
-                    return response.bodyToMono(String.class)
-                            .flatMap(errorBody -> {
-                                try {
-                                    // Try to parse error response
-                                    var errorNode = objectMapper.readTree(errorBody);
-                                    log.error("OpenAI error details: {}", errorNode.toPrettyString());
-                                } catch (JsonProcessingException e) {
-                                    log.error("OpenAI raw error: {}", errorBody);
-                                }
-                                return Mono.error(new RuntimeException("OpenAI API error: " + response.statusCode()));
-                            });
-                })
-                .bodyToMono(OpenAICompletionResponse.class)
-                .doOnSuccess(response -> log.debug("OpenAI response received"))
-                .doOnError(error -> log.error("OpenAI API call failed", error));
+        return createCompletion(request, true);
     }
 
     /**
-     * Create streaming completion (returns Flux of SSE strings)
+     * Create non-streaming completion, serving deterministic requests from the
+     * response cache and sharing identical in-flight calls unless the caller
+     * opted out
      */
-    public Flux<String> createCompletionStream(OpenAICompletionRequest request) {
+    public Mono<OpenAICompletionResponse> createCompletion(OpenAICompletionRequest request, boolean useCache) {
+        boolean cacheable = useCache && responseCache.isCacheable(request);
+        boolean coalesce = useCache && requestCoalescer.isEnabled();
+        if (!cacheable && !coalesce) {
+            return hedgedCompletion(request);
+        }
+
+        RequestFingerprint key = RequestFingerprint.of(request);
+        if (cacheable) {
+            OpenAICompletionResponse cached = responseCache.get(key);
+            if (cached != null) {
+                log.debug("Response cache hit: {}", key);
+                return Mono.just(cached);
+            }
+        }
+        Supplier<Mono<OpenAICompletionResponse>> call = cacheable
+                ? () -> hedgedCompletion(request).doOnNext(response -> responseCache.put(key, response))
+                : () -> hedgedCompletion(request);
+        return coalesce ? requestCoalescer.coalesce(key, call) : call.get();
+    }
+
+    private Mono<OpenAICompletionResponse> hedgedCompletion(OpenAICompletionRequest request) {
+        if (!requestHedger.isEnabled()) {
+            return guardedCompletion(request);
+        }
+        return requestHedger.hedge(request.getModel(), () -> guardedCompletion(request));
+    }
+
+    private Mono<OpenAICompletionResponse> guardedCompletion(OpenAICompletionRequest request) {
+        return circuitBreakers.execute(request.getModel(), model -> callCompletion(withModel(request, model)));
+    }
+
+    private Mono<OpenAICompletionResponse> callCompletion(OpenAICompletionRequest request) {
         String endpoint = "/" + openAIConfig.getApiVersion() + "/chat/completions";
-        log.debug("Calling OpenAI API with streaming: {}", endpoint);
 
-        // Ensure streaming is enabled
+        return upstreamPool.execute(upstream -> {
+            log.debug("Calling OpenAI API: {} via {}", endpoint, upstream.getName());
+            return upstream.getWebClient().post()
+                    .uri(endpoint)
+                    .bodyValue(request)
+                    .attribute(PipelineMetrics.UPSTREAM_MODEL_ATTRIBUTE, request.getModel())
+                    .attribute(PipelineMetrics.UPSTREAM_NAME_ATTRIBUTE, upstream.getName())
+                    .retrieve()
+                    .onStatus(statusCode -> statusCode.isError(), response -> {
+                        log.error("OpenAI API error from {}: {}", upstream.getName(), response.statusCode());
+                        return response.bodyToMono(String.class)
+                                .flatMap(errorBody -> {
+                                    try {
+                                        // Try to parse error response
+                                        var errorNode = objectMapper.readTree(errorBody);
+                                        log.error("OpenAI error details: {}", errorNode.toPrettyString());
+                                    } catch (JsonProcessingException e) {
+                                        log.error("OpenAI raw error: {}", errorBody);
+                                    }
+                                    return Mono.error(new OpenAIApiException(
+                                            "OpenAI API error: " + response.statusCode(), response.statusCode(),
+                                            retryAfter(response)));
+                                });
+                    })
+                    .bodyToMono(OpenAICompletionResponse.class)
+                    .doOnError(error -> log.error("OpenAI API call failed", error));
+        });
+    }
+
+    /**
+     * Create streaming completion (returns Flux of parsed chunks, completing on [DONE])
+     */
+    public Flux<OpenAIStreamChunk> createCompletionStream(OpenAICompletionRequest request) {
+        return createCompletionStream(request, true);
+    }
+
+    /**
+     * Create streaming completion, joining an identical in-flight stream when
+     * one exists unless the caller opted out
+     */
+    public Flux<OpenAIStreamChunk> createCompletionStream(OpenAICompletionRequest request, boolean shareable) {
+        // Ensure streaming is enabled, with usage in the last chunk for token accounting
         request.setStream(true);
+        if (openAIConfig.isStreamUsage()) {
+            request.setStreamOptions(STREAM_USAGE);
+        }
+
+        if (!shareable || !requestCoalescer.isEnabled()) {
+            return guardedCompletionStream(request);
+        }
+        return requestCoalescer.coalesceStream(RequestFingerprint.of(request), () -> guardedCompletionStream(request));
+    }
+
+    private Flux<OpenAIStreamChunk> guardedCompletionStream(OpenAICompletionRequest request) {
+        return circuitBreakers.executeStream(request.getModel(), model -> callCompletionStream(withModel(request, model)));
+    }
+
+    private static OpenAICompletionRequest withModel(OpenAICompletionRequest request, String model) {
+        return model.equals(request.getModel()) ? request : request.toBuilder().model(model).build();
+    }
+
+    private Flux<OpenAIStreamChunk> callCompletionStream(OpenAICompletionRequest request) {
+        String endpoint = "/" + openAIConfig.getApiVersion() + "/chat/completions";
 
-        return openaiWebClient.post()
-                .uri(endpoint)
-                .bodyValue(request)
-                .accept(MediaType.TEXT_EVENT_STREAM)
-                .retrieve()
-                .onStatus(statusCode -> statusCode.isError(), response -> {
-                    log.error("OpenAI API streaming error: {}", response.statusCode());
-                    return response.bodyToMono(String.class)
-                            .flatMap(errorBody -> {
-                                try {
-                                    var errorNode = objectMapper.readTree(errorBody);
-                                    log.error("OpenAI streaming error details: {}", errorNode.toPrettyString());
-                                } catch (JsonProcessingException e) {
-                                    log.error("OpenAI raw streaming error: {}", errorBody);
-                                }
-                                return Mono.error(new RuntimeException("OpenAI API streaming error: " + response.statusCode()));
-                            });
-                })
-                .bodyToFlux(String.class)
-                .doOnNext(data -> log.trace("Received streaming data: {}", data))
-                .doOnComplete(() -> log.debug("OpenAI streaming completed"))
-                .doOnError(error -> log.error("OpenAI streaming API call failed", error));
+        return upstreamPool.executeStream(upstream -> {
+            log.debug("Calling OpenAI API with streaming: {} via {}", endpoint, upstream.getName());
+            return upstream.getWebClient().post()
+                    .uri(endpoint)
+                    .bodyValue(request)
+                    .attribute(PipelineMetrics.UPSTREAM_MODEL_ATTRIBUTE, request.getModel())
+                    .attribute(PipelineMetrics.UPSTREAM_NAME_ATTRIBUTE, upstream.getName())
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .retrieve()
+                    .onStatus(statusCode -> statusCode.isError(), response -> {
+                        log.error("OpenAI API streaming error from {}: {}", upstream.getName(), response.statusCode());
+                        return response.bodyToMono(String.class)
+                                .flatMap(errorBody -> {
+                                    try {
+                                        var errorNode = objectMapper.readTree(errorBody);
+                                        log.error("OpenAI streaming error details: {}", errorNode.toPrettyString());
+                                    } catch (JsonProcessingException e) {
+                                        log.error("OpenAI raw streaming error: {}", errorBody);
+                                    }
+                                    return Mono.error(new OpenAIApiException(
+                                            "OpenAI API streaming error: " + response.statusCode(), response.statusCode(),
+                                            retryAfter(response)));
+                                });
+                    })
+                    .bodyToFlux(DataBuffer.class)
+                    .transform(this::decodeStream)
+                    .doOnError(error -> log.error("OpenAI streaming API call failed", error));
+        });
+    }
+
+    /**
+     * Frame raw upstream bytes into chunks without decoding them to Strings
+     */
+    private Flux<OpenAIStreamChunk> decodeStream(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            OpenAISseDecoder decoder = new OpenAISseDecoder(objectMapper);
+            return body.concatMapIterable(decoder::decode)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(decoder.flush())))
+                    .takeWhile(chunk -> chunk != OpenAISseDecoder.DONE);
+        });
+    }
+
+    /**
+     * Delay from a retry-after header given in seconds; HTTP dates are ignored
+     */
+    private static Duration retryAfter(ClientResponse response) {
+        String value = response.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1024 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts an Anthropic messages request into an OpenAI chat request in one
+ * pass over its JSON tokens. Message text is copied from the parser's buffer
+ * into a generator writing the OpenAI messages array, so no message objects
+ * or joined strings are built for it; the encoded array is sent upstream as
+ * RawJson. Text blocks of a message are joined with newlines, as is the text
+ * of tool results. Image blocks turn the message content into an array of
+ * text and image_url parts; their base64 data is decoded and re-encoded in
+ * chunks straight into the output, never held as a String, and the decoded
+ * bytes of a request are capped. Leading tool_result blocks become tool
+ * messages and tool_use blocks of assistant messages become tool_calls, their
+ * input copied token by token into the arguments string. Tool definitions are
+ * copied the same way into RawJson. Other content blocks are dropped.
+ *
+ * With the prefix cache, the output for the leading messages of a request is
+ * reused when an earlier request of the conversation had the same bytes for
+ * them; those messages are skipped by the parser rather than converted.
+ */
+@Slf4j
+final class OpenAIRequestTranscoder {
+    private static final Set<String> IMAGE_MEDIA_TYPES = Set.of("image/jpeg", "image/png", "image/gif", "image/webp");
+    private static final byte[] EMPTY_OBJECT = {'{', '}'};
+    private static final Base64Variant BASE64 =
+            Base64Variants.MIME_NO_LINEFEEDS.withReadPadding(Base64Variant.PaddingReadBehaviour.PADDING_ALLOWED);
+
+    private final ModelMappingService modelMappingService;
+    private final JsonFactory jsonFactory;
+    private final long maxImageBytes;
+    private final MessagePrefixCache prefixCache;
+
+    OpenAIRequestTranscoder(ModelMappingService modelMappingService, JsonFactory jsonFactory, long maxImageBytes,
+                            MessagePrefixCache prefixCache) {
+        this.modelMappingService = modelMappingService;
+        this.jsonFactory = jsonFactory;
+        this.maxImageBytes = maxImageBytes;
+        this.prefixCache = prefixCache;
+    }
+
+    /**
+     * Transcode the request the parser is positioned before, body being the
+     * stream it reads from; throws an invalid_request_error for a body that
+     * is not a valid messages request
+     */
+    TranscodedRequest transcode(JsonParser parser, RequestBodyStream body) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw invalid("Request body must be a JSON object");
+        }
+        Pass pass = new Pass(body);
+        String model = null;
+        String system = null;
+        Integer maxTokens = null;
+        Double temperature = null;
+        Double topP = null;
+        Boolean stream = null;
+        List<String> stopSequences = null;
+        RawJson tools = null;
+        Object toolChoice = null;
+        boolean disableParallelToolUse = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "model" -> model = stringValue(parser, field);
+                case "messages" -> pass.writeMessages(parser);
+                case "system" -> system = pass.systemText(parser);
+                case "max_tokens" -> maxTokens = intValue(parser, field);
+                case "temperature" -> temperature = doubleValue(parser, field);
+                case "top_p" -> topP = doubleValue(parser, field);
+                case "stream" -> stream = booleanValue(parser, field);
+                case "stop_sequences" -> stopSequences = stringList(parser, field);
+                case "tools" -> tools = tools(parser);
+                case "tool_choice" -> {
+                    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                        break;
+                    }
+                    if (parser.currentToken() != JsonToken.START_OBJECT) {
+                        throw invalid("tool_choice: Input should be an object");
+                    }
+                    String type = null;
+                    String name = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String choiceField = parser.currentName();
+                        parser.nextToken();
+                        switch (choiceField) {
+                            case "type" -> type = stringValue(parser, "tool_choice.type");
+                            case "name" -> name = stringValue(parser, "tool_choice.name");
+                            case "disable_parallel_tool_use" -> disableParallelToolUse = Boolean.TRUE.equals(
+                                    booleanValue(parser, "tool_choice.disable_parallel_tool_use"));
+                            default -> parser.skipChildren();
+                        }
+                    }
+                    toolChoice = toolChoice(type, name);
+                }
+                case "metadata", "thinking" -> {
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        log.warn("Anthropic parameter '{}' not supported in OpenAI", field);
+                    }
+                    parser.skipChildren();
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (model == null) {
+            throw invalid("model: Field required");
+        }
+        if (!pass.messagesWritten) {
+            throw invalid("messages: Field required");
+        }
+
+        String openaiModel = modelMappingService.mapModel(model);
+        OpenAICompletionRequest.OpenAICompletionRequestBuilder request = OpenAICompletionRequest.builder()
+                .model(openaiModel)
+                .messages(pass.finish(system))
+                .temperature(adjustTemperature(temperature))
+                .topP(topP)
+                .stream(stream)
+                .maxTokens(maxTokens)
+                .tools(tools)
+                .toolChoice(toolChoice)
+                .n(1); // Anthropic only supports n=1
+
+        if (disableParallelToolUse) {
+            request.parallelToolCalls(false);
+        }
+        if (stopSequences != null && !stopSequences.isEmpty()) {
+            request.stop(stopSequences.size() == 1 ? stopSequences.get(0) : stopSequences);
+        }
+
+        log.debug("Request conversion complete: Anthropic model '{}' -> OpenAI model '{}', {} messages",
+                model, openaiModel, pass.messageCount);
+
+        long promptChars = pass.promptChars + (system != null ? system.length() : 0)
+                + (tools != null ? tools.length() : 0);
+        return new TranscodedRequest(request.build(), model, Boolean.TRUE.equals(stream), maxTokens,
+                promptChars, pass.messageCount);
+    }
+
+    /**
+     * Transcode tool definitions into OpenAI function tools, the parser on the
+     * tools array. Each tool is written to a scratch buffer first, since its
+     * type may come last; server tools have no OpenAI equivalent and are dropped.
+     */
+    private RawJson tools(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw invalid("tools: Input should be a valid list");
+        }
+        ByteArrayBuilder toolsOut = new ByteArrayBuilder();
+        ByteArrayBuilder toolOut = new ByteArrayBuilder();
+        toolsOut.write('[');
+        int index = 0;
+        int written = 0;
+        for (; parser.nextToken() != JsonToken.END_ARRAY; index++) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw invalid("tools." + index + ": Input should be an object");
+            }
+            toolOut.reset();
+            String type = null;
+            String name = null;
+            try (JsonGenerator gen = jsonFactory.createGenerator(toolOut)) {
+                gen.writeStartObject();
+                gen.writeStringField("type", "function");
+                gen.writeObjectFieldStart("function");
+                boolean hasSchema = false;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if ("type".equals(field)) {
+                        type = stringValue(parser, "tools." + index + ".type");
+                    } else if ("name".equals(field)) {
+                        name = stringValue(parser, "tools." + index + ".name");
+                        gen.writeStringField("name", name);
+                    } else if ("description".equals(field) && value == JsonToken.VALUE_STRING) {
+                        gen.writeFieldName("description");
+                        gen.writeString(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                    } else if ("input_schema".equals(field) && value == JsonToken.START_OBJECT) {
+                        gen.writeFieldName("parameters");
+                        gen.copyCurrentStructure(parser);
+                        hasSchema = true;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (!hasSchema) {
+                    gen.writeObjectFieldStart("parameters");
+                    gen.writeStringField("type", "object");
+                    gen.writeEndObject();
+                }
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+            if (type != null && !"custom".equals(type)) {
+                log.warn("Anthropic server tool '{}' not supported in OpenAI", type);
+                continue;
+            }
+            if (name == null) {
+                throw invalid("tools." + index + ".name: Field required");
+            }
+            if (written++ > 0) {
+                toolsOut.write(',');
+            }
+            toolsOut.write(toolOut.toByteArray());
+        }
+        toolsOut.write(']');
+        return written > 0 ? new RawJson(toolsOut.toByteArray()) : null;
+    }
+
+    /**
+     * Map an Anthropic tool_choice to the OpenAI tool_choice value
+     */
+    private static Object toolChoice(String type, String name) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "auto":
+                return "auto";
+            case "any":
+                return "required";
+            case "none":
+                return "none";
+            case "tool":
+                if (name == null) {
+                    throw invalid("tool_choice.name: Field required");
+                }
+                Map<String, Object> function = new LinkedHashMap<>();
+                function.put("type", "function");
+                function.put("function", Map.of("name", name));
+                return function;
+            default:
+                throw invalid("tool_choice.type: Input should be 'auto', 'any', 'tool' or 'none'");
+        }
+    }
+
+    /**
+     * Adjust temperature: Anthropic uses 0-1, OpenAI uses 0-2
+     */
+    private static Double adjustTemperature(Double temperature) {
+        if (temperature == null) {
+            return 1.0;
+        }
+        return Math.min(temperature * 2.0, 2.0);
+    }
+
+    /**
+     * State of one transcoding: the generator for the messages array, a
+     * reusable buffer for joining content blocks and the image bytes so far
+     */
+    private final class Pass {
+        private final RequestBodyStream body;
+        private final ByteArrayBuilder messagesOut = new ByteArrayBuilder();
+        private byte[] messagesTail;
+        private JsonGenerator gen;
+        private char[] text = new char[256];
+        private int textLength;
+        // The current message: its role, whether its object and content field are written yet,
+        // whether only tool_result blocks came so far, and its tool calls
+        private String role;
+        private boolean messageOpen;
+        private boolean contentWritten;
+        private boolean leadingToolResults;
+        private int toolMessages;
+        private final List<ToolCall> toolCalls = new ArrayList<>();
+        // Whether the current message content is being written as an array of parts
+        private boolean parts;
+        private boolean messagesWritten;
+        private int messageCount;
+        private long promptChars;
+        private long imageBytes;
+        // Prefix cache: the key and body offset of the messages array, the boundaries of its messages
+        // while they can be cached, whether any of those were converted in this pass, the copy of
+        // their bytes once the prefix ends, and the cached prefix they supersede
+        private long cacheKey;
+        private long messagesStart;
+        private Boundaries boundaries;
+        private boolean caching;
+        private boolean converted;
+        private byte[] cachedSource;
+        private MessagePrefixCache.Prefix superseded;
+
+        Pass(RequestBodyStream body) {
+            this.body = body;
+        }
+
+        void writeMessages(JsonParser parser) throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return;
+            }
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                throw invalid("messages: Input should be a valid list");
+            }
+            if (messagesWritten) {
+                throw invalid("messages: Specified more than once");
+            }
+            messagesWritten = true;
+            gen = jsonFactory.createGenerator(messagesOut);
+            // The opening bracket goes into the head, ahead of a system message that may still follow
+            gen.writeStartArray();
+            gen.flush();
+            messagesOut.reset();
+            if (prefixCache.isEnabled()) {
+                writeMessagesCached(parser);
+            } else {
+                while (nextMessage(parser)) {
+                    writeMessage(parser);
+                    messageCount++;
+                }
+            }
+            gen.writeEndArray();
+            gen.close();
+            messagesTail = messagesOut.toByteArray();
+            if (cachedSource != null) {
+                prefixCache.put(cacheKey, boundaries.toPrefix(cachedSource, messagesTail), superseded);
+            }
+        }
+
+        private boolean nextMessage(JsonParser parser) throws IOException {
+            if (parser.nextToken() == JsonToken.END_ARRAY) {
+                return false;
+            }
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw invalid("messages." + messageCount + ": Input should be an object");
+            }
+            return true;
+        }
+
+        /**
+         * Write the messages, reusing the output for a cached prefix. The
+         * body is kept from the opening bracket while the messages can be
+         * cached; the first message is converted to find the lookup key, and
+         * the rest of a matching prefix is skipped.
+         */
+        private void writeMessagesCached(JsonParser parser) throws IOException {
+            messagesStart = parser.currentTokenLocation().getByteOffset();
+            body.keep(messagesStart, prefixCache.getMaxSourceBytes());
+            boundaries = new Boundaries(messagesStart);
+            caching = true;
+            if (nextMessage(parser)) {
+                writeMessage(parser);
+                messageCount++;
+                endMessage(parser);
+                if (caching) {
+                    reuseCached(parser);
+                }
+                while (nextMessage(parser)) {
+                    writeMessage(parser);
+                    messageCount++;
+                    endMessage(parser);
+                }
+            }
+            stopCaching();
+        }
+
+        /**
+         * Record the end of a converted message while caching, or end the
+         * prefix if the body kept for it grew too large
+         */
+        private void endMessage(JsonParser parser) throws IOException {
+            if (!caching) {
+                return;
+            }
+            if (!body.isKept()) {
+                stopCaching();
+                return;
+            }
+            gen.flush();
+            boundaries.add(parser.currentLocation().getByteOffset(), messagesOut.size(), promptChars, imageBytes);
+            converted = true;
+        }
+
+        /**
+         * Look up the array by its first message, which has been converted,
+         * and write the output of the cached messages it shares after that
+         */
+        private void reuseCached(JsonParser parser) throws IOException {
+            long firstEnd = messagesStart + boundaries.sourceEnds[0];
+            byte[] head = body.copy(messagesStart, Math.min(firstEnd, messagesStart + MessagePrefixCache.KEY_BYTES));
+            cacheKey = MessagePrefixCache.key(head, firstEnd - messagesStart);
+            MessagePrefixCache.Match match = prefixCache.longest(cacheKey, body, messagesStart);
+            if (match == null) {
+                return;
+            }
+            MessagePrefixCache.Prefix prefix = match.prefix();
+            int reused = match.messages();
+            for (int i = 1; i < reused; i++) {
+                parser.nextToken();
+                parser.skipChildren();
+            }
+            // The output of the first message is the same; the rest starts with the separator after it,
+            // and the generator writes the one before the next message itself
+            int from = prefix.encodedEnds()[0];
+            messagesOut.write(prefix.encoded(), from, prefix.encodedEnds()[reused - 1] - from);
+            messageCount = reused;
+            promptChars = prefix.promptChars()[reused - 1];
+            imageBytes = prefix.imageBytes()[reused - 1];
+            boundaries.copy(prefix, 1, reused);
+            converted = false;
+            // Supersede an entry this request shares most of, e.g. all but a last message that clients
+            // rewrite between turns; one sharing only an opening belongs to another conversation
+            if (reused * 2 > prefix.messages()) {
+                superseded = prefix;
+            }
+        }
+
+        /**
+         * End the cached prefix at the last complete message and release the
+         * body. Its bytes are copied if it has messages converted in this
+         * pass, so that it is worth storing.
+         */
+        private void stopCaching() {
+            if (!caching) {
+                return;
+            }
+            caching = false;
+            if (converted && boundaries.count > 0 && body.isKept()) {
+                cachedSource = body.copy(messagesStart, messagesStart + boundaries.sourceEnds[boundaries.count - 1]);
+            }
+            body.release();
+        }
+
+        /**
+         * Message boundaries of the array being written, as recorded in a
+         * cached prefix
+         */
+        private static final class Boundaries {
+            private final long start;
+            private int count;
+            private int[] sourceEnds = new int[16];
+            private int[] encodedEnds = new int[16];
+            private long[] promptChars = new long[16];
+            private long[] imageBytes = new long[16];
+
+            Boundaries(long start) {
+                this.start = start;
+            }
+
+            void add(long sourceEnd, int encodedEnd, long promptCharsSoFar, long imageBytesSoFar) {
+                if (count == sourceEnds.length) {
+                    int length = count * 2;
+                    sourceEnds = Arrays.copyOf(sourceEnds, length);
+                    encodedEnds = Arrays.copyOf(encodedEnds, length);
+                    promptChars = Arrays.copyOf(promptChars, length);
+                    imageBytes = Arrays.copyOf(imageBytes, length);
+                }
+                sourceEnds[count] = (int) (sourceEnd - start);
+                encodedEnds[count] = encodedEnd;
+                promptChars[count] = promptCharsSoFar;
+                imageBytes[count] = imageBytesSoFar;
+                count++;
+            }
+
+            /**
+             * Add the boundaries of messages from up to to of a cached prefix
+             */
+            void copy(MessagePrefixCache.Prefix prefix, int from, int to) {
+                for (int i = from; i < to; i++) {
+                    add(start + prefix.sourceEnds()[i], prefix.encodedEnds()[i], prefix.promptChars()[i],
+                            prefix.imageBytes()[i]);
+                }
+            }
+
+            /**
+             * The prefix of source, the array up to the last boundary, and of
+             * the output in tail, which it shares when it covers all messages
+             */
+            MessagePrefixCache.Prefix toPrefix(byte[] source, byte[] tail) {
+                int encodedEnd = encodedEnds[count - 1];
+                // The tail ends with the closing bracket after the last message
+                byte[] encoded = encodedEnd == tail.length - 1 ? tail : Arrays.copyOf(tail, encodedEnd);
+                return new MessagePrefixCache.Prefix(source, Arrays.copyOf(sourceEnds, count), encoded,
+                        Arrays.copyOf(encodedEnds, count), Arrays.copyOf(promptChars, count),
+                        Arrays.copyOf(imageBytes, count));
+            }
+        }
+
+        /**
+         * Write one message. Its object is opened on the first output that
+         * belongs in it, so tool messages for leading tool results can be
+         * written ahead of it; it is left out when those were all it had.
+         */
+        private void writeMessage(JsonParser parser) throws IOException {
+            role = null;
+            messageOpen = false;
+            contentWritten = false;
+            toolMessages = 0;
+            toolCalls.clear();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("role".equals(field)) {
+                    role = role(parser);
+                    if (messageOpen) {
+                        gen.writeStringField("role", role);
+                    }
+                } else if ("content".equals(field)) {
+                    writeContent(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (role == null) {
+                throw invalid("messages." + messageCount + ".role: Field required");
+            }
+            if (!"assistant".equals(role)) {
+                toolCalls.clear();
+            }
+            if (!messageOpen && toolMessages > 0 && toolCalls.isEmpty()) {
+                return;
+            }
+            openMessage();
+            if (!contentWritten) {
+                gen.writeFieldName("content");
+                if (toolCalls.isEmpty()) {
+                    gen.writeString("");
+                } else {
+                    gen.writeNull();
+                }
+            }
+            if (!toolCalls.isEmpty()) {
+                writeToolCalls();
+            }
+            gen.writeEndObject();
+        }
+
+        private void openMessage() throws IOException {
+            if (messageOpen) {
+                return;
+            }
+            gen.writeStartObject();
+            if (role != null) {
+                gen.writeStringField("role", role);
+            }
+            messageOpen = true;
+        }
+
+        private void writeToolCalls() throws IOException {
+            gen.writeArrayFieldStart("tool_calls");
+            for (ToolCall toolCall : toolCalls) {
+                gen.writeStartObject();
+                gen.writeStringField("id", toolCall.id);
+                gen.writeStringField("type", "function");
+                gen.writeObjectFieldStart("function");
+                gen.writeStringField("name", toolCall.name);
+                gen.writeFieldName("arguments");
+                byte[] arguments = toolCall.input != null ? toolCall.input.toByteArray() : EMPTY_OBJECT;
+                gen.writeUTF8String(arguments, 0, arguments.length);
+                gen.writeEndObject();
+                gen.writeEndObject();
+                promptChars += arguments.length;
+            }
+            gen.writeEndArray();
+        }
+
+        private String role(JsonParser parser) throws IOException {
+            String role = parser.currentToken() == JsonToken.VALUE_STRING ? parser.getText() : null;
+            if (!"user".equals(role) && !"assistant".equals(role)) {
+                throw invalid("messages." + messageCount + ".role: Input should be 'user' or 'assistant'");
+            }
+            return role;
+        }
+
+        private void writeContent(JsonParser parser) throws IOException {
+            switch (parser.currentToken()) {
+                case VALUE_STRING -> {
+                    int length = parser.getTextLength();
+                    startContent();
+                    gen.writeString(parser.getTextCharacters(), parser.getTextOffset(), length);
+                    promptChars += length;
+                }
+                case VALUE_NULL -> {
+                    // Written as "" when the message is complete
+                }
+                case START_ARRAY -> {
+                    textLength = 0;
+                    parts = false;
+                    leadingToolResults = true;
+                    appendBlocks(parser, true);
+                    if (parts) {
+                        writeTextPart();
+                        gen.writeEndArray();
+                    } else if (textLength > 0 || (toolMessages == 0 && toolCalls.isEmpty())) {
+                        startContent();
+                        gen.writeString(text, 0, textLength);
+                        promptChars += textLength;
+                    }
+                }
+                default -> throw invalid("messages." + messageCount + ".content: Input should be a string or a list");
+            }
+        }
+
+        /**
+         * Switch the content to an array of parts, ahead of an image part
+         */
+        private void startImagePart() throws IOException {
+            if (!parts) {
+                startContent();
+                gen.writeStartArray();
+                parts = true;
+            }
+            writeTextPart();
+            gen.writeStartObject();
+            gen.writeStringField("type", "image_url");
+            gen.writeObjectFieldStart("image_url");
+            gen.writeFieldName("url");
+        }
+
+        private void endImagePart() throws IOException {
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+
+        private void startContent() throws IOException {
+            openMessage();
+            gen.writeFieldName("content");
+            contentWritten = true;
+        }
+
+        /**
+         * Write the text joined since the previous image as a text part
+         */
+        private void writeTextPart() throws IOException {
+            if (textLength == 0) {
+                return;
+            }
+            gen.writeStartObject();
+            gen.writeStringField("type", "text");
+            gen.writeFieldName("text");
+            gen.writeString(text, 0, textLength);
+            gen.writeEndObject();
+            promptChars += textLength;
+            textLength = 0;
+        }
+
+        String systemText(JsonParser parser) throws IOException {
+            switch (parser.currentToken()) {
+                case VALUE_STRING:
+                    return parser.getText();
+                case VALUE_NULL:
+                    return null;
+                case START_ARRAY:
+                    textLength = 0;
+                    appendBlocks(parser, false);
+                    return new String(text, 0, textLength);
+                default:
+                    throw invalid("system: Input should be a string or a list");
+            }
+        }
+
+        /**
+         * Append the text of an array of content blocks, the parser on its
+         * START_ARRAY; images are written as parts only where allowed
+         */
+        private void appendBlocks(JsonParser parser, boolean images) throws IOException {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == JsonToken.START_OBJECT) {
+                    appendBlock(parser, images);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void appendBlock(JsonParser parser, boolean images) throws IOException {
+            // The type may come after the text, so text is appended first and dropped again if need be
+            int mark = textLength;
+            String type = null;
+            ImageSource image = null;
+            String id = null;
+            String name = null;
+            ByteArrayBuilder input = null;
+            boolean isError = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                boolean textual = type == null || "text".equals(type) || "tool_result".equals(type);
+                boolean toolUse = type == null || "tool_use".equals(type);
+                if ("type".equals(field)) {
+                    type = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                } else if (("id".equals(field) || "tool_use_id".equals(field)) && value == JsonToken.VALUE_STRING) {
+                    id = parser.getText();
+                } else if ("name".equals(field) && value == JsonToken.VALUE_STRING) {
+                    name = parser.getText();
+                } else if ("is_error".equals(field)) {
+                    isError = value == JsonToken.VALUE_TRUE;
+                } else if ("input".equals(field) && value == JsonToken.START_OBJECT && toolUse && images) {
+                    input = new ByteArrayBuilder();
+                    try (JsonGenerator inputGen = jsonFactory.createGenerator(input)) {
+                        inputGen.copyCurrentStructure(parser);
+                    }
+                } else if ("text".equals(field) && value == JsonToken.VALUE_STRING && textual) {
+                    appendText(parser);
+                } else if ("content".equals(field) && value == JsonToken.VALUE_STRING && textual) {
+                    appendText(parser);
+                } else if ("content".equals(field) && value == JsonToken.START_ARRAY && textual) {
+                    appendBlocks(parser, false);
+                } else if ("source".equals(field) && value == JsonToken.START_OBJECT) {
+                    // Image and document data is too large to cache, so the prefix ends before this message
+                    stopCaching();
+                    if (images && (type == null || "image".equals(type))) {
+                        image = readImageSource(parser, "image".equals(type));
+                    } else {
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if ("tool_result".equals(type) && images && leadingToolResults) {
+                writeToolMessage(id, mark, isError);
+                return;
+            }
+            if (images) {
+                leadingToolResults = false;
+            }
+            if ("tool_use".equals(type) && images) {
+                textLength = mark;
+                toolCalls.add(new ToolCall(id, name, input));
+            } else if ("image".equals(type) && images) {
+                // Streaming the image wrote out the text before it
+                textLength = Math.min(mark, textLength);
+                if (image == null) {
+                    throw invalid("messages." + messageCount + ".content: image block needs a source");
+                }
+                if (!image.written) {
+                    writeImage(image);
+                }
+            } else if (!"text".equals(type) && !"tool_result".equals(type)) {
+                textLength = mark;
+                log.debug("Dropped {} content block", type);
+            }
+        }
+
+        /**
+         * Write a leading tool result as a tool message ahead of the message
+         * it came in, taking back the text appended for it
+         */
+        private void writeToolMessage(String toolUseId, int mark, boolean isError) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("role", "tool");
+            gen.writeStringField("tool_call_id", toolUseId);
+            gen.writeFieldName("content");
+            if (isError) {
+                gen.writeString("Error: " + new String(text, mark, textLength - mark));
+            } else {
+                gen.writeString(text, mark, textLength - mark);
+            }
+            gen.writeEndObject();
+            promptChars += textLength - mark;
+            textLength = mark;
+            toolMessages++;
+        }
+
+        /**
+         * Read the source of an image block, the parser on its START_OBJECT.
+         * Base64 data is streamed into an image part when the block is known
+         * to be an image and its media type has been seen; otherwise it is
+         * decoded into a buffer and written once the block is complete.
+         */
+        private ImageSource readImageSource(JsonParser parser, boolean isImage) throws IOException {
+            ImageSource image = new ImageSource();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+                    image.type = parser.getText();
+                } else if ("media_type".equals(field) && value == JsonToken.VALUE_STRING) {
+                    image.mediaType = mediaType(parser.getText());
+                } else if ("url".equals(field) && value == JsonToken.VALUE_STRING) {
+                    image.url = parser.getText();
+                } else if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                    if (isImage && "base64".equals(image.type) && image.mediaType != null && !image.written) {
+                        startImagePart();
+                        gen.writeRawValue("\"data:" + image.mediaType + ";base64,");
+                        gen.flush();
+                        OutputStream encoder = Base64.getEncoder().wrap(messagesOut);
+                        readImageData(parser, encoder);
+                        encoder.close();
+                        messagesOut.write('"');
+                        endImagePart();
+                        image.written = true;
+                    } else {
+                        image.data = new ByteArrayBuilder();
+                        readImageData(parser, image.data);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return image;
+        }
+
+        private void readImageData(JsonParser parser, OutputStream out) throws IOException {
+            try {
+                parser.readBinaryValue(BASE64, new CappedOutputStream(out));
+            } catch (IllegalArgumentException e) {
+                throw invalid("messages." + messageCount + ".content: image data is not valid base64");
+            }
+        }
+
+        private void writeImage(ImageSource image) throws IOException {
+            if ("url".equals(image.type) && image.url != null) {
+                startImagePart();
+                gen.writeString(image.url);
+                endImagePart();
+            } else if ("base64".equals(image.type) && image.data != null) {
+                if (image.mediaType == null) {
+                    throw invalid("messages." + messageCount + ".content: image source needs a media_type");
+                }
+                startImagePart();
+                gen.writeRawValue("\"data:" + image.mediaType + ";base64,");
+                gen.flush();
+                OutputStream encoder = Base64.getEncoder().wrap(messagesOut);
+                encoder.write(image.data.toByteArray());
+                encoder.close();
+                messagesOut.write('"');
+                endImagePart();
+            } else {
+                throw invalid("messages." + messageCount + ".content: image source must be base64 data or a url");
+            }
+        }
+
+        private String mediaType(String mediaType) {
+            if (!IMAGE_MEDIA_TYPES.contains(mediaType)) {
+                throw invalid("messages." + messageCount + ".content: image media_type must be one of "
+                        + "image/jpeg, image/png, image/gif, image/webp");
+            }
+            return mediaType;
+        }
+
+        private void appendText(JsonParser parser) throws IOException {
+            int length = parser.getTextLength();
+            if (length == 0) {
+                return;
+            }
+            int separator = textLength > 0 ? 1 : 0;
+            if (textLength + separator + length > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + separator + length));
+            }
+            if (separator > 0) {
+                text[textLength++] = '\n';
+            }
+            System.arraycopy(parser.getTextCharacters(), parser.getTextOffset(), text, textLength, length);
+            textLength += length;
+        }
+
+        /**
+         * Counts decoded image bytes against the per-request cap while passing them on
+         */
+        private final class CappedOutputStream extends OutputStream {
+            private final OutputStream out;
+
+            CappedOutputStream(OutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                count(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                count(len);
+                out.write(b, off, len);
+            }
+
+            private void count(int length) {
+                imageBytes += length;
+                if (imageBytes > maxImageBytes) {
+                    throw new AnthropicApiException("request_too_large", HttpStatus.PAYLOAD_TOO_LARGE,
+                            "Image data exceeds the limit of " + maxImageBytes + " bytes per request");
+                }
+            }
+        }
+
+        /**
+         * The messages array: a head with the opening bracket and the system
+         * message, and the messages written so far
+         */
+        RawJson finish(String system) throws IOException {
+            ByteArrayBuilder headOut = new ByteArrayBuilder(system != null ? system.length() + 64 : 1);
+            try (JsonGenerator head = jsonFactory.createGenerator(headOut)) {
+                head.writeRaw('[');
+                if (system != null && !system.trim().isEmpty()) {
+                    head.writeStartObject();
+                    head.writeStringField("role", "system");
+                    head.writeStringField("content", system);
+                    head.writeEndObject();
+                    if (messageCount > 0) {
+                        head.writeRaw(',');
+                    }
+                }
+            }
+            return new RawJson(headOut.toByteArray(), messagesTail);
+        }
+    }
+
+    /**
+     * A tool_use block of the current message; input holds its encoded input object
+     */
+    private record ToolCall(String id, String name, ByteArrayBuilder input) {
+    }
+
+    /**
+     * Source of one image block; data holds decoded bytes that could not be streamed
+     */
+    private static final class ImageSource {
+        private String type;
+        private String mediaType;
+        private String url;
+        private ByteArrayBuilder data;
+        private boolean written;
+    }
+
+    private static String stringValue(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NULL:
+                return null;
+            default:
+                throw invalid(field + ": Input should be a valid string");
+        }
+    }
+
+    /**
+     * An integer that fits in an int; fractions and out-of-range values are
+     * rejected rather than truncated or clamped
+     */
+    private static Integer intValue(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() != JsonParser.NumberType.INT) {
+                    throw invalid(field + ": Input should be a valid 32-bit integer");
+                }
+                return parser.getIntValue();
+            case VALUE_NULL:
+                return null;
+            default:
+                throw invalid(field + ": Input should be a valid integer");
+        }
+    }
+
+    private static Double doubleValue(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                try {
+                    return Double.valueOf(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw invalid(field + ": Input should be a valid number");
+                }
+            default:
+                throw invalid(field + ": Input should be a valid number");
+        }
+    }
+
+    private static Boolean booleanValue(JsonParser parser, String field) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                if ("true".equals(parser.getText()) || "false".equals(parser.getText())) {
+                    return Boolean.valueOf(parser.getText());
+                }
+                throw invalid(field + ": Input should be a valid boolean");
+            default:
+                throw invalid(field + ": Input should be a valid boolean");
+        }
+    }
+
+    private static List<String> stringList(JsonParser parser, String field) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw invalid(field + ": Input should be a valid list");
+        }
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(stringValue(parser, field));
+        }
+        return values;
+    }
+
+    static AnthropicApiException invalid(String message) {
+        return new AnthropicApiException("invalid_request_error", HttpStatus.BAD_REQUEST, message);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Byte-level decoder for the upstream OpenAI SSE stream.
+ *
+ * Raw network buffers are scanned for line breaks and the "data:" field of each
+ * event is collected in a reused byte array; once the event's terminating blank
+ * line arrives, Jackson parses the payload directly from that byte range.
+ * No intermediate Strings are created, and events split across TCP chunks are
+ * stitched together before parsing.
+ *
+ * One instance per stream; buffers must be passed in order from a single thread
+ * at a time.
+ */
+@Slf4j
+public class OpenAISseDecoder {
+    /**
+     * Marker emitted when the upstream sends "data: [DONE]"
+     */
+    public static final OpenAIStreamChunk DONE = new OpenAIStreamChunk();
+
+    private static final byte[] DATA_FIELD = {'d', 'a', 't', 'a', ':'};
+    private static final byte[] DONE_PAYLOAD = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    private final ObjectReader chunkReader;
+
+    // Layout: [eventStart, eventEnd) holds the joined data payload of the current
+    // event; the line being read is accumulated at [lineStart, lineEnd).
+    private byte[] buffer = new byte[1024];
+    private boolean hasData;
+    private int eventStart;
+    private int eventEnd;
+    private int lineStart;
+    private int lineEnd;
+
+    public OpenAISseDecoder(ObjectMapper objectMapper) {
+        this.chunkReader = objectMapper.readerFor(OpenAIStreamChunk.class);
+    }
+
+    /**
+     * Consume one network buffer and return the chunks of every event it completes.
+     * The buffer is released before returning.
+     */
+    public List<OpenAIStreamChunk> decode(DataBuffer dataBuffer) {
+        List<OpenAIStreamChunk> chunks = null;
+        try {
+            while (dataBuffer.readableByteCount() > 0) {
+                int start = dataBuffer.readPosition();
+                int newline = dataBuffer.indexOf(b -> b == '\n', start);
+                int count = (newline == -1 ? dataBuffer.writePosition() : newline) - start;
+
+                ensureCapacity(lineEnd + count);
+                dataBuffer.read(buffer, lineEnd, count);
+                lineEnd += count;
+
+                if (newline == -1) {
+                    break;
+                }
+                dataBuffer.readPosition(newline + 1);
+                chunks = completeLine(chunks);
+            }
+        } finally {
+            DataBufferUtils.release(dataBuffer);
+        }
+        return chunks != null ? chunks : Collections.emptyList();
+    }
+
+    /**
+     * Dispatch whatever is left when the upstream closes without a final blank line.
+     */
+    public List<OpenAIStreamChunk> flush() {
+        List<OpenAIStreamChunk> chunks = null;
+        if (lineEnd > lineStart) {
+            chunks = completeLine(null);
+        }
+        if (hasData) {
+            chunks = dispatch(chunks);
+        }
+        return chunks != null ? chunks : Collections.emptyList();
+    }
+
+    private List<OpenAIStreamChunk> completeLine(List<OpenAIStreamChunk> chunks) {
+        int end = lineEnd;
+        if (end > lineStart && buffer[end - 1] == '\r') {
+            end--;
+        }
+
+        if (end == lineStart) {
+            // Blank line terminates the event
+            if (hasData) {
+                chunks = dispatch(chunks);
+            }
+        } else if (startsWith(lineStart, end, DATA_FIELD)) {
+            int payload = lineStart + DATA_FIELD.length;
+            if (payload < end && buffer[payload] == ' ') {
+                payload++;
+            }
+            int length = end - payload;
+            if (!hasData) {
+                // First data line: parse in place, no copy
+                eventStart = payload;
+                eventEnd = end;
+                hasData = true;
+            } else {
+                // Continuation line: join with '\n' per the SSE spec
+                buffer[eventEnd] = '\n';
+                System.arraycopy(buffer, payload, buffer, eventEnd + 1, length);
+                eventEnd += 1 + length;
+            }
+        }
+        // Other fields (event:, id:, retry:) and comments are ignored
+
+        lineStart = hasData ? eventEnd + 1 : 0;
+        lineEnd = lineStart;
+        return chunks;
+    }
+
+    private List<OpenAIStreamChunk> dispatch(List<OpenAIStreamChunk> chunks) {
+        int length = eventEnd - eventStart;
+        hasData = false;
+        lineStart = 0;
+        lineEnd = 0;
+
+        if (length == 0) {
+            return chunks;
+        }
+        if (chunks == null) {
+            chunks = new ArrayList<>(2);
+        }
+        if (length == DONE_PAYLOAD.length && startsWith(eventStart, eventEnd, DONE_PAYLOAD)) {
+            chunks.add(DONE);
+            return chunks;
+        }
+
+        try {
+            chunks.add(chunkReader.readValue(buffer, eventStart, length));
+        } catch (Exception e) {
+            log.error("Error parsing streaming chunk", e);
+        }
+        return chunks;
+    }
+
+    private boolean startsWith(int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int required) {
+        // One spare byte for the '\n' that joins multi-line data
+        if (required + 1 > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, required + 1));
+        }
+    }
+}
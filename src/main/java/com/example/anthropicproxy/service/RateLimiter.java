@@ -0,0 +1,258 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-API-key requests-per-minute and tokens-per-minute limits. Each limit is
+ * a GCRA bucket held in a single AtomicLong (the theoretical arrival time),
+ * so admission is one CAS per bucket and never blocks. A request reserves its
+ * estimated token cost (prompt size plus max_tokens) up front; the
+ * reservation is corrected once the upstream reports actual usage.
+ *
+ * Client keys are not authenticated here, so buckets for unknown keys are
+ * bounded: when per-key limits are configured, only those keys get buckets of
+ * their own and every other key shares the default one; otherwise each key
+ * gets its own bucket up to max-tracked-clients, and keys beyond that share
+ * an overflow bucket until a periodic sweep drops idle ones.
+ */
+@Component
+public class RateLimiter {
+    private static final String ANONYMOUS = "anonymous";
+    private static final long NANOS_PER_MINUTE = Duration.ofMinutes(1).toNanos();
+    // Rough prompt size estimate: ~4 characters per token plus per-message framing
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int TOKENS_PER_MESSAGE = 4;
+    // Full-map sweeps for idle buckets run at most this often
+    private static final long SWEEP_INTERVAL_NANOS = Duration.ofSeconds(1).toNanos();
+
+    private final ProxyConfigProperties.RateLimit config;
+    // Buckets of keys with configured limits, never swept
+    private final Map<String, ClientBuckets> configured;
+    // Buckets of other keys; only used when no keys are configured
+    private final Map<String, ClientBuckets> clients = new ConcurrentHashMap<>();
+    // Shared by unconfigured keys when keys are configured, else by keys beyond the tracking cap
+    private final ClientBuckets shared;
+    private final AtomicLong nextSweepAt = new AtomicLong(System.nanoTime());
+
+    private final ProxyMetrics.Counter rejectedRequests;
+    private final ProxyMetrics.Counter rejectedTokens;
+    private final ProxyMetrics.Counter overflowRequests;
+
+    public RateLimiter(ProxyConfigProperties proxyConfig, ProxyMetrics metrics) {
+        this.config = proxyConfig.getRateLimit();
+        String name = "proxy_rate_limited_requests_total";
+        String help = "Requests rejected by the per-client rate limiter";
+        this.rejectedRequests = metrics.counter(name, help, "limit", "requests");
+        this.rejectedTokens = metrics.counter(name, help, "limit", "tokens");
+        this.overflowRequests = metrics.counter("proxy_rate_limit_overflow_requests_total",
+                "Requests of untracked API keys admitted against the shared overflow bucket");
+        Map<String, ClientBuckets> buckets = new HashMap<>();
+        config.getClients().forEach((key, limits) -> buckets.put(key, newBuckets(limits)));
+        this.configured = Map.copyOf(buckets);
+        this.shared = newBuckets(config.getDefaults());
+        metrics.gauge("proxy_rate_limit_tracked_clients", "API keys with rate limit state", clients::size);
+    }
+
+    /**
+     * Client identity: the Anthropic x-api-key header, else a bearer token
+     */
+    public static String clientKey(HttpHeaders headers) {
+        String apiKey = headers.getFirst("x-api-key");
+        if (apiKey != null && !apiKey.isBlank()) {
+            return apiKey;
+        }
+        String authorization = headers.getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        return ANONYMOUS;
+    }
+
+    /**
+     * Admit a request or throw a rate_limit_error carrying retry-after. The
+     * returned permit must be settled with the actual token usage.
+     */
+    public Permit acquire(String clientKey, TranscodedRequest request) {
+        long promptTokens = estimatePromptTokens(request.promptChars(), request.messageCount());
+        long maxTokens = request.maxTokens() != null ? request.maxTokens() : 0;
+        if (!config.isEnabled()) {
+            return new Permit(null, promptTokens, promptTokens + maxTokens);
+        }
+
+        long now = System.nanoTime();
+        ClientBuckets buckets = buckets(clientKey, now);
+        long wait = buckets.requests.tryAcquire(1, now);
+        if (wait > 0) {
+            rejectedRequests.increment();
+            throw AnthropicApiException.rateLimited("Rate limit exceeded: too many requests per minute",
+                    Duration.ofNanos(wait));
+        }
+        // A single request larger than the whole budget drains it rather than never fitting
+        long reserved = Math.min(promptTokens + maxTokens, buckets.tokens.capacity());
+        wait = buckets.tokens.tryAcquire(reserved, now);
+        if (wait > 0) {
+            buckets.requests.adjust(-1, now);
+            rejectedTokens.increment();
+            throw AnthropicApiException.rateLimited("Rate limit exceeded: too many tokens per minute",
+                    Duration.ofNanos(wait));
+        }
+        return new Permit(buckets, promptTokens, reserved);
+    }
+
+    static long estimatePromptTokens(long promptChars, int messages) {
+        return promptChars / CHARS_PER_TOKEN + (long) messages * TOKENS_PER_MESSAGE;
+    }
+
+    /**
+     * Buckets a key is admitted against. A new key is only tracked while the
+     * map is below its cap; a sweep of idle buckets runs at most once per
+     * interval, so a flood of new keys meets the overflow bucket rather than
+     * a full-map scan per request.
+     */
+    private ClientBuckets buckets(String clientKey, long now) {
+        if (!configured.isEmpty()) {
+            ClientBuckets buckets = configured.get(clientKey);
+            return buckets != null ? buckets : shared;
+        }
+        ClientBuckets buckets = clients.get(clientKey);
+        if (buckets != null) {
+            return buckets;
+        }
+        if (clients.size() >= config.getMaxTrackedClients()) {
+            sweepIfDue(now);
+            if (clients.size() >= config.getMaxTrackedClients()) {
+                overflowRequests.increment();
+                return shared;
+            }
+        }
+        return clients.computeIfAbsent(clientKey, key -> newBuckets(config.getDefaults()));
+    }
+
+    private static ClientBuckets newBuckets(ProxyConfigProperties.RateLimit.Limits limits) {
+        return new ClientBuckets(new Bucket(limits.getRequestsPerMinute()), new Bucket(limits.getTokensPerMinute()));
+    }
+
+    /**
+     * Drop buckets that have refilled completely; they hold no state a fresh
+     * bucket would not. Only the caller that claims the interval sweeps.
+     */
+    private void sweepIfDue(long now) {
+        long due = nextSweepAt.get();
+        if (now - due >= 0 && nextSweepAt.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+            clients.values().removeIf(buckets -> buckets.requests.isFull(now) && buckets.tokens.isFull(now));
+        }
+    }
+
+    private record ClientBuckets(Bucket requests, Bucket tokens) {
+    }
+
+    /**
+     * Generic cell rate algorithm: the bucket is a single timestamp that
+     * advances by one emission interval per unit consumed, and a request fits
+     * if that timestamp stays within one minute's worth of burst of now.
+     */
+    static final class Bucket {
+        private final long perMinute;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE / 2);
+
+        Bucket(long perMinute) {
+            this.perMinute = Math.max(1, perMinute);
+            this.intervalNanos = Math.max(1, NANOS_PER_MINUTE / this.perMinute);
+            this.burstNanos = intervalNanos * this.perMinute;
+        }
+
+        long capacity() {
+            return perMinute;
+        }
+
+        /**
+         * Consume units; returns 0 on success, else the nanoseconds until they would fit
+         */
+        long tryAcquire(long units, long now) {
+            while (true) {
+                long current = theoreticalArrival.get();
+                long next = Math.max(current, now) + units * intervalNanos;
+                long wait = next - now - burstNanos;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (theoreticalArrival.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Charge (positive) or refund (negative) units without an admission check
+         */
+        void adjust(long units, long now) {
+            while (true) {
+                long current = theoreticalArrival.get();
+                long next = Math.max(Math.max(current, now) + units * intervalNanos, now);
+                if (theoreticalArrival.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            return theoreticalArrival.get() <= now;
+        }
+    }
+
+    /**
+     * Token reservation of one admitted request
+     */
+    public static final class Permit {
+        private final ClientBuckets buckets;
+        private final long promptTokens;
+        private final long reservedTokens;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        Permit(ClientBuckets buckets, long promptTokens, long reservedTokens) {
+            this.buckets = buckets;
+            this.promptTokens = promptTokens;
+            this.reservedTokens = reservedTokens;
+        }
+
+        public long getPromptTokens() {
+            return promptTokens;
+        }
+
+        /**
+         * Replace the reservation with the tokens actually used; only the first call counts
+         */
+        public void settle(long actualTokens) {
+            if (buckets != null && settled.compareAndSet(false, true) && actualTokens != reservedTokens) {
+                buckets.tokens.adjust(actualTokens - reservedTokens, System.nanoTime());
+            }
+        }
+
+        /**
+         * Settle against reported usage, keeping the reservation when none was reported
+         */
+        public void settle(OpenAIUsage usage) {
+            if (usage == null) {
+                settle(reservedTokens);
+            } else if (usage.getTotalTokens() != null) {
+                settle(usage.getTotalTokens());
+            } else {
+                settle((usage.getPromptTokens() != null ? usage.getPromptTokens() : promptTokens)
+                        + (usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0));
+            }
+        }
+    }
+}
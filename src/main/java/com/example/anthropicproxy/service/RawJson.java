@@ -0,0 +1,157 @@
+package com.example.anthropicproxy.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSON value that is already encoded, copied into the output as-is when
+ * the object holding it is serialized. Kept as UTF-8 in two parts, so a
+ * prefix that is only known at the end (the system message of a transcoded
+ * request) is written ahead of the rest without copying it.
+ */
+public final class RawJson implements JsonSerializable {
+    private final Part head;
+    private final Part tail;
+
+    public RawJson(byte[] head, byte[] tail) {
+        this.head = new Part(head);
+        this.tail = new Part(tail);
+    }
+
+    public RawJson(byte[] utf8) {
+        this(utf8, new byte[0]);
+    }
+
+    /**
+     * Encoded size in bytes
+     */
+    public int length() {
+        return head.utf8.length + tail.utf8.length;
+    }
+
+    /**
+     * Parser over the encoded value
+     */
+    public JsonParser createParser(JsonFactory factory) throws IOException {
+        return factory.createParser(new SequenceInputStream(
+                new ByteArrayInputStream(head.utf8), new ByteArrayInputStream(tail.utf8)));
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeRawValue(head);
+        gen.writeRaw(tail);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+        serialize(gen, serializers);
+    }
+
+    @Override
+    public String toString() {
+        return head.getValue() + tail.getValue();
+    }
+
+    /**
+     * UTF-8 bytes written unquoted; they are JSON already, so the quoted forms are not supported
+     */
+    private static final class Part implements SerializableString {
+        private final byte[] utf8;
+
+        Part(byte[] utf8) {
+            this.utf8 = utf8;
+        }
+
+        @Override
+        public String getValue() {
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return utf8;
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (offset + utf8.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(utf8, 0, buffer, offset, utf8.length);
+            return utf8.length;
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) {
+            if (utf8.length > buffer.remaining()) {
+                return -1;
+            }
+            buffer.put(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            String value = getValue();
+            if (offset + value.length() > buffer.length) {
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) {
+            throw new UnsupportedOperationException("Raw JSON is not a string value");
+        }
+    }
+}
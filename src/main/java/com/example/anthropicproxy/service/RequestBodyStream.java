@@ -0,0 +1,162 @@
+package com.example.anthropicproxy.service;
+
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A request body as the transcoder's parser reads it, counted against the
+ * body limit. Bytes are only kept from an offset the prefix cache marks, so
+ * it can compare and store the messages array without the rest of the body
+ * being held. The parser reads in chunks and only needs the current one,
+ * so without a mark everything before it is dropped. Offsets are positions
+ * in the body, as reported by the parser.
+ */
+final class RequestBodyStream extends InputStream {
+    private static final int CHUNK = 8192;
+
+    private final InputStream in;
+    private final long maxBytes;
+
+    private byte[] buffer = new byte[CHUNK];
+    // Body offset of buffer[0], bytes held in buffer, and the offset of the parser's next byte
+    private long bufferStart;
+    private int filled;
+    private long position;
+    private long keepFrom = -1;
+    private long keepLimit;
+    private boolean eof;
+
+    RequestBodyStream(InputStream in, long maxBytes) {
+        this.in = in;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keep the bytes from offset on, which must be in the chunk the parser
+     * read last. Once the parser is more than limit bytes past offset they
+     * are released.
+     */
+    void keep(long offset, long limit) {
+        if (offset < bufferStart) {
+            throw new IllegalStateException("Offset " + offset + " already dropped");
+        }
+        keepFrom = offset;
+        keepLimit = limit;
+    }
+
+    /**
+     * Stop keeping bytes; they are dropped on the parser's next read
+     */
+    void release() {
+        keepFrom = -1;
+    }
+
+    boolean isKept() {
+        return keepFrom >= 0;
+    }
+
+    /**
+     * Bytes kept so far, including any read ahead of the parser
+     */
+    long keptBytes() {
+        return keepFrom < 0 ? 0 : bufferStart + filled - keepFrom;
+    }
+
+    /**
+     * Read ahead of the parser until the body is held up to offset end, or
+     * up to its end if shorter; returns the offset it is held up to
+     */
+    long fillTo(long end) throws IOException {
+        while (bufferStart + filled < end && fetch()) {
+            // Read ahead
+        }
+        return bufferStart + filled;
+    }
+
+    /**
+     * Position of the first byte from offset that differs from other, or
+     * -1 if all length bytes are equal; the bytes must be held
+     */
+    int mismatch(long offset, byte[] other, int otherOffset, int length) {
+        int from = (int) (offset - bufferStart);
+        return Arrays.mismatch(buffer, from, from + length, other, otherOffset, otherOffset + length);
+    }
+
+    /**
+     * A copy of the held bytes from offset from to offset to
+     */
+    byte[] copy(long from, long to) {
+        int start = (int) (from - bufferStart);
+        return Arrays.copyOfRange(buffer, start, start + (int) (to - from));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == bufferStart + filled) {
+            if (keepFrom < 0) {
+                // The parser is done with its previous chunk
+                bufferStart = position;
+                filled = 0;
+            }
+            if (!fetch()) {
+                return -1;
+            }
+        }
+        int from = (int) (position - bufferStart);
+        int n = Math.min(len, filled - from);
+        System.arraycopy(buffer, from, b, off, n);
+        position += n;
+        if (keepFrom >= 0 && position - keepFrom > keepLimit) {
+            keepFrom = -1;
+        }
+        return n;
+    }
+
+    /**
+     * Append the next chunk of the body to the buffer, dropping what is
+     * neither kept nor ahead of the parser; false at the end of the body
+     */
+    private boolean fetch() throws IOException {
+        if (eof) {
+            return false;
+        }
+        long retainFrom = keepFrom >= 0 ? Math.min(keepFrom, position) : position;
+        int drop = (int) (retainFrom - bufferStart);
+        if (drop > 0 && filled + CHUNK > buffer.length) {
+            System.arraycopy(buffer, drop, buffer, 0, filled - drop);
+            bufferStart += drop;
+            filled -= drop;
+        }
+        if (filled + CHUNK > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, filled + CHUNK));
+        }
+        int n = in.read(buffer, filled, CHUNK);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        filled += n;
+        if (bufferStart + filled > maxBytes) {
+            throw new AnthropicApiException("request_too_large", HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Request body exceeds the limit of " + maxBytes + " bytes");
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
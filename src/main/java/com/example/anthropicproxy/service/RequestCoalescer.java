@@ -0,0 +1,93 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import org.reactivestreams.Publisher;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight deduplication of upstream calls. While a call for a given
+ * request fingerprint is in flight, identical requests subscribe to the same
+ * publisher instead of opening another upstream connection. Streams are
+ * replayed, so a late joiner first receives the chunks already emitted. The
+ * entry is dropped as soon as the upstream call terminates or every
+ * subscriber has cancelled.
+ */
+@Component
+public class RequestCoalescer {
+    private final boolean enabled;
+    private final Map<RequestFingerprint, InFlight> calls = new ConcurrentHashMap<>();
+    private final Map<RequestFingerprint, InFlight> streams = new ConcurrentHashMap<>();
+
+    private final ProxyMetrics.Counter coalescedCalls;
+    private final ProxyMetrics.Counter coalescedStreams;
+
+    public RequestCoalescer(ProxyConfigProperties proxyConfig, ProxyMetrics metrics) {
+        this.enabled = proxyConfig.getCoalesce().isEnabled();
+
+        String name = "proxy_coalesced_requests_total";
+        String help = "Requests served by joining an identical in-flight upstream call";
+        this.coalescedCalls = metrics.counter(name, help, "mode", "non_streaming");
+        this.coalescedStreams = metrics.counter(name, help, "mode", "streaming");
+        metrics.gauge("proxy_inflight_upstream_calls", "Distinct upstream calls currently shared by the coalescer",
+                calls::size, "mode", "non_streaming");
+        metrics.gauge("proxy_inflight_upstream_calls", "Distinct upstream calls currently shared by the coalescer",
+                streams::size, "mode", "streaming");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Share a single upstream Mono between identical concurrent requests
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> coalesce(RequestFingerprint key, Supplier<Mono<T>> call) {
+        InFlight existing = calls.get(key);
+        if (existing == null) {
+            InFlight created = new InFlight();
+            created.publisher = Mono.defer(call)
+                    .doFinally(signal -> calls.remove(key, created))
+                    .share();
+            existing = calls.putIfAbsent(key, created);
+            if (existing == null) {
+                return (Mono<T>) created.publisher;
+            }
+        }
+        coalescedCalls.increment();
+        return (Mono<T>) existing.publisher;
+    }
+
+    /**
+     * Share a single upstream Flux between identical concurrent requests,
+     * replaying already-emitted elements to late subscribers
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Flux<T> coalesceStream(RequestFingerprint key, Supplier<Flux<T>> call) {
+        InFlight existing = streams.get(key);
+        if (existing == null) {
+            InFlight created = new InFlight();
+            created.publisher = Flux.defer(call)
+                    .doFinally(signal -> streams.remove(key, created))
+                    .replay()
+                    .refCount();
+            existing = streams.putIfAbsent(key, created);
+            if (existing == null) {
+                return (Flux<T>) created.publisher;
+            }
+        }
+        coalescedStreams.increment();
+        return (Flux<T>) existing.publisher;
+    }
+
+    private static final class InFlight {
+        Publisher<?> publisher;
+    }
+}
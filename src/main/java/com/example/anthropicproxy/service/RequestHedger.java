@@ -0,0 +1,193 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests for non-streaming completions. If the first attempt has not
+ * answered within the hedge delay, a second attempt is started and whichever
+ * succeeds first wins; the other is cancelled. The delay is either fixed or
+ * the live latency percentile of the model. Hedges are paid for from a credit
+ * budget that every primary request tops up, which caps them at a fixed
+ * share of traffic.
+ */
+@Component
+@Slf4j
+public class RequestHedger {
+    // Budget credits are kept in thousandths of a hedge
+    private static final long CREDITS_PER_HEDGE = 1000;
+
+    private final ProxyConfigProperties.Hedging config;
+    private final long creditsPerRequest;
+    private final long maxCredits;
+    private final AtomicLong credits = new AtomicLong();
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    private final ProxyMetrics metrics;
+    private final ProxyMetrics.Counter hedged;
+    private final ProxyMetrics.Counter hedgeWins;
+    private final ProxyMetrics.Counter budgetExhausted;
+
+    public RequestHedger(ProxyConfigProperties proxyConfig, ProxyMetrics metrics) {
+        this.config = proxyConfig.getHedging();
+        this.creditsPerRequest = Math.round(config.getBudgetPercent() * CREDITS_PER_HEDGE / 100);
+        this.maxCredits = config.getMaxBurst() * CREDITS_PER_HEDGE;
+        this.metrics = metrics;
+        this.hedged = metrics.counter("proxy_hedged_requests_total", "Second attempts started for slow requests");
+        this.hedgeWins = metrics.counter("proxy_hedge_wins_total", "Hedged requests answered by the second attempt");
+        this.budgetExhausted = metrics.counter("proxy_hedge_budget_exhausted_total",
+                "Slow requests that were not hedged because the budget was spent");
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Run attempt, hedging it with a second call once the model's hedge delay
+     * passes without a reply
+     */
+    public <T> Mono<T> hedge(String model, Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> {
+            deposit();
+            LatencyWindow window = latencies.computeIfAbsent(model, this::newWindow);
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+
+            Mono<T> primary = timed(attempt, window)
+                    .doOnError(error -> primaryFailed.tryEmitEmpty());
+            // The hedge branch ends empty if the primary fails first, so the
+            // primary's error is reported without waiting out the delay
+            Mono<T> hedge = Mono.firstWithSignal(Mono.delay(delayFor(window)), primaryFailed.asMono().then(Mono.empty()))
+                    .flatMap(tick -> {
+                        if (!withdraw()) {
+                            budgetExhausted.increment();
+                            return Mono.empty();
+                        }
+                        hedged.increment();
+                        log.debug("Hedging slow request for model {}", model);
+                        return timed(attempt, window).doOnNext(value -> hedgeWins.increment());
+                    });
+
+            return Mono.firstWithValue(primary, hedge)
+                    .onErrorMap(NoSuchElementException.class, RequestHedger::firstFailure);
+        });
+    }
+
+    /**
+     * Record the latency of each attempt; a cancelled loser still contributes
+     * its elapsed time so hedging does not hide the slow tail from the window
+     */
+    private <T> Mono<T> timed(Supplier<Mono<T>> attempt, LatencyWindow window) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return attempt.get().doFinally(signal -> {
+                if (signal != SignalType.ON_ERROR) {
+                    window.record(System.nanoTime() - start);
+                }
+            });
+        });
+    }
+
+    private Duration delayFor(LatencyWindow window) {
+        Duration delay = config.getDelay();
+        if (delay == null) {
+            long threshold = window.threshold();
+            delay = threshold > 0 ? Duration.ofNanos(threshold) : config.getFallbackDelay();
+        }
+        return delay.compareTo(config.getMinDelay()) < 0 ? config.getMinDelay() : delay;
+    }
+
+    private void deposit() {
+        long current;
+        do {
+            current = credits.get();
+            if (current >= maxCredits) {
+                return;
+            }
+        } while (!credits.compareAndSet(current, Math.min(maxCredits, current + creditsPerRequest)));
+    }
+
+    private boolean withdraw() {
+        long current;
+        do {
+            current = credits.get();
+            if (current < CREDITS_PER_HEDGE) {
+                return false;
+            }
+        } while (!credits.compareAndSet(current, current - CREDITS_PER_HEDGE));
+        return true;
+    }
+
+    private static Throwable firstFailure(NoSuchElementException error) {
+        // Both branches finished without a value: surface the primary's error
+        Throwable cause = error.getCause();
+        if (cause != null) {
+            List<Throwable> failures = Exceptions.unwrapMultiple(cause);
+            return failures.isEmpty() ? cause : failures.get(0);
+        }
+        return error;
+    }
+
+    private LatencyWindow newWindow(String model) {
+        LatencyWindow window = new LatencyWindow(config.getWindow(), config.getMinSamples(), config.getPercentile());
+        metrics.gauge("proxy_hedge_threshold_seconds", "Live latency percentile used as hedge delay",
+                () -> window.threshold() / 1e9, "model", model);
+        return window;
+    }
+
+    /**
+     * Ring buffer of recent latencies; the percentile is recomputed every few
+     * samples rather than on each lookup
+     */
+    private static final class LatencyWindow {
+        private static final int RECOMPUTE_EVERY = 16;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long[] samples;
+        private final int minSamples;
+        private final double percentile;
+        private long recorded;
+        private volatile long threshold;
+
+        LatencyWindow(int size, int minSamples, double percentile) {
+            this.samples = new long[Math.max(size, 1)];
+            this.minSamples = Math.min(minSamples, samples.length);
+            this.percentile = percentile;
+        }
+
+        void record(long nanos) {
+            lock.lock();
+            try {
+                samples[(int) (recorded % samples.length)] = nanos;
+                recorded++;
+                if (recorded >= minSamples && recorded % RECOMPUTE_EVERY == 0) {
+                    long[] sorted = Arrays.copyOf(samples, (int) Math.min(recorded, samples.length));
+                    Arrays.sort(sorted);
+                    threshold = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long threshold() {
+            return threshold;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.openai.OpenAIChoice;
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded cache of upstream responses for deterministic requests
+ * (temperature 0, single choice, non-streaming). Entries are keyed by the
+ * canonical fingerprint of the converted OpenAI request, expire after a fixed
+ * TTL, and are evicted in LRU order once the estimated retained bytes exceed
+ * the configured capacity.
+ */
+@Component
+public class ResponseCache {
+    // Rough per-entry overhead: key, map node, entry and response object headers
+    private static final long ENTRY_OVERHEAD_BYTES = 512;
+
+    private final ProxyConfigProperties.Cache config;
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<RequestFingerprint, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+
+    private final ProxyMetrics.Counter hits;
+    private final ProxyMetrics.Counter misses;
+    private final ProxyMetrics.Counter evictions;
+
+    public ResponseCache(ProxyConfigProperties proxyConfig, ProxyMetrics metrics) {
+        this.config = proxyConfig.getCache();
+        this.maxBytes = config.getMaxSize().toBytes();
+        this.ttlNanos = config.getTtl().toNanos();
+
+        this.hits = metrics.counter("proxy_response_cache_hits_total", "Response cache hits");
+        this.misses = metrics.counter("proxy_response_cache_misses_total", "Response cache misses");
+        this.evictions = metrics.counter("proxy_response_cache_evictions_total", "Response cache evictions (size or TTL)");
+        metrics.gauge("proxy_response_cache_bytes", "Estimated bytes retained by the response cache", this::size);
+        metrics.gauge("proxy_response_cache_entries", "Entries in the response cache", this::entryCount);
+    }
+
+    /**
+     * Whether a request's response may be served from / stored in the cache
+     */
+    public boolean isCacheable(OpenAICompletionRequest request) {
+        return config.isEnabled()
+                && !Boolean.TRUE.equals(request.getStream())
+                && request.getTemperature() != null && request.getTemperature() == 0.0
+                && (request.getN() == null || request.getN() == 1);
+    }
+
+    /**
+     * Per-request opt-out: clients send Cache-Control: no-cache or no-store
+     */
+    public static boolean allowedBy(String cacheControl) {
+        if (cacheControl == null) {
+            return true;
+        }
+        String directives = cacheControl.toLowerCase();
+        return !directives.contains("no-cache") && !directives.contains("no-store");
+    }
+
+    public OpenAICompletionResponse get(RequestFingerprint key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+                hits.increment();
+                return entry.response;
+            }
+            if (entry != null) {
+                remove(key, entry);
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(RequestFingerprint key, OpenAICompletionResponse response) {
+        long weight = weigh(response);
+        if (weight > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, new Entry(response, weight, System.nanoTime() + ttlNanos));
+            if (previous != null) {
+                currentBytes -= previous.weight;
+            }
+            currentBytes += weight;
+            evictIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long size() {
+        lock.lock();
+        try {
+            return currentBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long entryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIfNeeded() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<RequestFingerprint, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && currentBytes > maxBytes) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            currentBytes -= eldest.weight;
+            evictions.increment();
+        }
+        // Opportunistically drop expired entries from the LRU end
+        it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest.expiresAt - now > 0) {
+                break;
+            }
+            it.remove();
+            currentBytes -= eldest.weight;
+            evictions.increment();
+        }
+    }
+
+    private void remove(RequestFingerprint key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            currentBytes -= entry.weight;
+        }
+    }
+
+    /**
+     * Estimate retained heap: message text dominates, at up to 2 bytes per char
+     */
+    private static long weigh(OpenAICompletionResponse response) {
+        long weight = ENTRY_OVERHEAD_BYTES;
+        if (response.getChoices() != null) {
+            for (OpenAIChoice choice : response.getChoices()) {
+                if (choice.getMessage() != null && choice.getMessage().getContent() != null) {
+                    weight += 2L * choice.getMessage().getContent().toString().length();
+                }
+                weight += 128;
+            }
+        }
+        return weight;
+    }
+
+    private record Entry(OpenAICompletionResponse response, long weight, long expiresAt) {
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+
+/**
+ * An Anthropic messages request converted for the upstream: the OpenAI
+ * request to send, and what the proxy still needs from the original. The
+ * prompt size (system prompt and message text, in characters) feeds the rate
+ * limiter's token estimate.
+ */
+public record TranscodedRequest(OpenAICompletionRequest openaiRequest,
+                                String anthropicModel,
+                                boolean stream,
+                                Integer maxTokens,
+                                long promptChars,
+                                int messageCount) {
+}
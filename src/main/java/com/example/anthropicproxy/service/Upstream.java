@@ -0,0 +1,94 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import lombok.Getter;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One OpenAI-compatible endpoint in the {@link UpstreamPool}, together with
+ * the load and health state the balancer routes on.
+ */
+public class Upstream {
+    // Cost of an endpoint that has requests in flight but no latency sample yet
+    private static final double UNSAMPLED_PENALTY = Double.MAX_VALUE / 2;
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int weight;
+    @Getter
+    private final WebClient webClient;
+
+    final AtomicInteger outstanding = new AtomicInteger();
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    volatile long ejectedUntil;
+    // Guarded by the pool's ejection lock
+    int ejections;
+
+    ProxyMetrics.Counter succeeded;
+    ProxyMetrics.Counter failed;
+
+    private final ReentrantLock latencyLock = new ReentrantLock();
+    private final double decayNanos;
+    private volatile double ewmaNanos;
+    private long lastSampleAt;
+
+    Upstream(String name, int weight, WebClient webClient, long decayNanos) {
+        this.name = name;
+        this.weight = Math.max(1, weight);
+        this.webClient = webClient;
+        this.decayNanos = decayNanos;
+    }
+
+    boolean isAvailable(long now) {
+        return ejectedUntil - now <= 0;
+    }
+
+    /**
+     * Least outstanding requests, scaled down by weight
+     */
+    double outstandingCost() {
+        return (outstanding.get() + 1) / (double) weight;
+    }
+
+    /**
+     * Peak-EWMA cost: smoothed latency times the queue this request would join,
+     * scaled down by weight
+     */
+    double latencyCost() {
+        double ewma = ewmaNanos;
+        int pending = outstanding.get();
+        if (ewma == 0) {
+            return pending == 0 ? 0 : UNSAMPLED_PENALTY;
+        }
+        return ewma * (pending + 1) / weight;
+    }
+
+    /**
+     * Record a latency sample. Samples above the current average replace it
+     * outright, so the balancer backs off a slowing endpoint immediately and
+     * only trusts recovery gradually.
+     */
+    void observe(long latencyNanos, long now) {
+        latencyLock.lock();
+        try {
+            double ewma = ewmaNanos;
+            if (latencyNanos > ewma) {
+                ewmaNanos = latencyNanos;
+            } else {
+                double w = Math.exp(-(now - lastSampleAt) / decayNanos);
+                ewmaNanos = ewma * w + latencyNanos * (1 - w);
+            }
+            lastSampleAt = now;
+        } finally {
+            latencyLock.unlock();
+        }
+    }
+
+    double latencyEwmaSeconds() {
+        return ewmaNanos / 1e9;
+    }
+}
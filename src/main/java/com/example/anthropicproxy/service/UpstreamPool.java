@@ -0,0 +1,251 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.OpenAIConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Spreads upstream calls across the configured OpenAI-compatible endpoints.
+ * Each call picks two random available endpoints and takes the cheaper one
+ * (power of two choices), where cost is either the number of outstanding
+ * requests or the peak-EWMA latency times outstanding requests, divided by
+ * the endpoint weight. Endpoints that fail repeatedly are ejected for an
+ * exponentially growing period and then put back on probation.
+ */
+@Component
+@Slf4j
+public class UpstreamPool {
+    private final List<Upstream> upstreams;
+    private final OpenAIConfigProperties.Balancer config;
+    private final ReentrantLock ejectionLock = new ReentrantLock();
+
+    private final ProxyMetrics metrics;
+
+    public UpstreamPool(WebClient openaiWebClient, OpenAIConfigProperties openAIConfig, ProxyMetrics metrics) {
+        this.config = openAIConfig.getBalancer();
+        this.metrics = metrics;
+        long decayNanos = config.getEwmaDecay().toNanos();
+
+        List<Upstream> configured = new ArrayList<>();
+        if (openAIConfig.getUpstreams().isEmpty()) {
+            configured.add(new Upstream("default", 1, openaiWebClient, decayNanos));
+        }
+        for (OpenAIConfigProperties.Upstream endpoint : openAIConfig.getUpstreams()) {
+            String baseUrl = endpoint.getBaseUrl() != null ? endpoint.getBaseUrl() : openAIConfig.getBaseUrl();
+            String apiKey = endpoint.getApiKey() != null ? endpoint.getApiKey() : openAIConfig.getApiKey();
+            String name = endpoint.getName() != null ? endpoint.getName() : baseUrl;
+            WebClient webClient = openaiWebClient.mutate()
+                    .baseUrl(baseUrl)
+                    .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                    .build();
+            configured.add(new Upstream(name, endpoint.getWeight(), webClient, decayNanos));
+        }
+        this.upstreams = List.copyOf(configured);
+
+        for (Upstream upstream : upstreams) {
+            String[] tags = {"upstream", upstream.getName()};
+            upstream.succeeded = metrics.counter("proxy_upstream_requests_total", "Upstream calls by outcome",
+                    "upstream", upstream.getName(), "outcome", "success");
+            upstream.failed = metrics.counter("proxy_upstream_requests_total", "Upstream calls by outcome",
+                    "upstream", upstream.getName(), "outcome", "failure");
+            metrics.gauge("proxy_upstream_outstanding_requests", "Requests in flight to the upstream",
+                    upstream.outstanding::get, tags);
+            metrics.gauge("proxy_upstream_latency_ewma_seconds", "Peak-EWMA response latency of the upstream",
+                    upstream::latencyEwmaSeconds, tags);
+            metrics.gauge("proxy_upstream_ejected", "1 while the upstream is ejected by outlier detection",
+                    () -> upstream.isAvailable(System.nanoTime()) ? 0 : 1, tags);
+        }
+        log.info("Upstream pool: {} endpoint(s), strategy {}", upstreams.size(), config.getStrategy());
+    }
+
+    public List<Upstream> getUpstreams() {
+        return upstreams;
+    }
+
+    /**
+     * Run a single-response call against the selected upstream. Selection is
+     * deferred to subscription time so retries and shared calls re-balance.
+     */
+    public <T> Mono<T> execute(Function<Upstream, Mono<T>> call) {
+        return Mono.defer(() -> {
+            Attempt attempt = new Attempt(select());
+            return call.apply(attempt.upstream)
+                    .doOnSuccess(value -> attempt.succeeded())
+                    .doOnError(attempt::failed)
+                    .doFinally(signal -> attempt.end());
+        });
+    }
+
+    /**
+     * Run a streaming call against the selected upstream; latency is measured
+     * to the first element
+     */
+    public <T> Flux<T> executeStream(Function<Upstream, Flux<T>> call) {
+        return Flux.defer(() -> {
+            Attempt attempt = new Attempt(select());
+            return call.apply(attempt.upstream)
+                    .doOnNext(value -> attempt.responded())
+                    .doOnComplete(attempt::succeeded)
+                    .doOnError(attempt::failed)
+                    .doFinally(signal -> attempt.end());
+        });
+    }
+
+    Upstream select() {
+        int n = upstreams.size();
+        if (n == 1) {
+            return upstreams.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(n);
+        int j = random.nextInt(n - 1);
+        if (j >= i) {
+            j++;
+        }
+        Upstream a = upstreams.get(i);
+        Upstream b = upstreams.get(j);
+        long now = System.nanoTime();
+        if (a.isAvailable(now) && b.isAvailable(now)) {
+            return cheaper(a, b);
+        }
+
+        // Some endpoints are ejected: draw again from the rest, so an ejected
+        // candidate doesn't hand its partner the request regardless of cost
+        List<Upstream> available = new ArrayList<>(n);
+        for (Upstream upstream : upstreams) {
+            if (upstream.isAvailable(now)) {
+                available.add(upstream);
+            }
+        }
+        if (available.isEmpty()) {
+            // Everything is ejected: keep balancing rather than failing outright
+            return cheaper(a, b);
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+        i = random.nextInt(available.size());
+        j = random.nextInt(available.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        return cheaper(available.get(i), available.get(j));
+    }
+
+    private Upstream cheaper(Upstream a, Upstream b) {
+        return cost(a) <= cost(b) ? a : b;
+    }
+
+    private double cost(Upstream upstream) {
+        return config.getStrategy() == OpenAIConfigProperties.Balancer.Strategy.LEAST_OUTSTANDING
+                ? upstream.outstandingCost()
+                : upstream.latencyCost();
+    }
+
+    /**
+     * 5xx, 429 and transport errors count against an endpoint; other client
+     * errors say nothing about its health
+     */
+    static boolean isUpstreamFailure(Throwable error) {
+        if (error instanceof OpenAIApiException apiError) {
+            HttpStatusCode status = apiError.getStatusCode();
+            return status.is5xxServerError() || status.value() == HttpStatus.TOO_MANY_REQUESTS.value();
+        }
+        return true;
+    }
+
+    private void recordSuccess(Upstream upstream) {
+        upstream.succeeded.increment();
+        upstream.consecutiveFailures.set(0);
+        if (upstream.ejections > 0) {
+            ejectionLock.lock();
+            try {
+                upstream.ejections = 0;
+            } finally {
+                ejectionLock.unlock();
+            }
+        }
+    }
+
+    private void recordFailure(Upstream upstream) {
+        upstream.failed.increment();
+        if (upstream.consecutiveFailures.incrementAndGet() < config.getConsecutiveFailures()) {
+            return;
+        }
+        long now = System.nanoTime();
+        ejectionLock.lock();
+        try {
+            if (!upstream.isAvailable(now)) {
+                return;
+            }
+            long ejected = upstreams.stream().filter(u -> !u.isAvailable(now)).count();
+            if ((ejected + 1) * 100 > (long) upstreams.size() * config.getMaxEjectedPercent()) {
+                return;
+            }
+            upstream.ejections++;
+            long base = config.getBaseEjectionTime().toNanos();
+            long duration = Math.min(base << Math.min(upstream.ejections - 1, 16), config.getMaxEjectionTime().toNanos());
+            upstream.ejectedUntil = now + duration;
+            // One failure after re-admission is enough to eject again
+            upstream.consecutiveFailures.set(config.getConsecutiveFailures() - 1);
+        } finally {
+            ejectionLock.unlock();
+        }
+        metrics.counter("proxy_upstream_ejections_total", "Times the upstream was ejected by outlier detection",
+                "upstream", upstream.getName()).increment();
+        log.warn("Ejected upstream {} for {} ms after repeated failures",
+                upstream.getName(), (upstream.ejectedUntil - now) / 1_000_000);
+    }
+
+    /**
+     * Bookkeeping for one call: outstanding count, latency sample and outcome
+     */
+    private final class Attempt {
+        final Upstream upstream;
+        final long startedAt = System.nanoTime();
+        boolean responded;
+
+        Attempt(Upstream upstream) {
+            this.upstream = upstream;
+            upstream.outstanding.incrementAndGet();
+        }
+
+        void responded() {
+            if (!responded) {
+                responded = true;
+                long now = System.nanoTime();
+                upstream.observe(now - startedAt, now);
+            }
+        }
+
+        void succeeded() {
+            responded();
+            recordSuccess(upstream);
+        }
+
+        void failed(Throwable error) {
+            if (isUpstreamFailure(error)) {
+                recordFailure(upstream);
+            } else {
+                upstream.consecutiveFailures.set(0);
+            }
+        }
+
+        void end() {
+            upstream.outstanding.decrementAndGet();
+        }
+    }
+}
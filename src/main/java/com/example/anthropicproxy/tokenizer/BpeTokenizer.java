@@ -0,0 +1,265 @@
+package com.example.anthropicproxy.tokenizer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Byte-pair encoding token counter for tiktoken vocabularies (cl100k_base,
+ * o200k_base). The .tiktoken file, one "base64-token rank" pair per line, is
+ * memory-mapped and decoded once into a single byte pool; ranks are looked up
+ * through an open-addressing table keyed by a 64-bit hash of the token bytes,
+ * so the loaded table holds no object per vocabulary entry.
+ * Special tokens are not recognised; their text is counted as ordinary text.
+ */
+public final class BpeTokenizer {
+    private static final String CONTRACTIONS = "(?i:'s|'t|'re|'ve|'m|'ll|'d)";
+    private static final Pattern CL100K = Pattern.compile(CONTRACTIONS
+                    + "|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS);
+    private static final Pattern O200K = Pattern.compile(
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+" + CONTRACTIONS + "?"
+                    + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*" + CONTRACTIONS + "?"
+                    + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS);
+    private static final int NO_RANK = Integer.MAX_VALUE;
+
+    private final Pattern pattern;
+    // Token bytes, entry i spanning offsets[i] until offsets[i + 1]
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] ranks;
+    // Open-addressing table of entry index + 1 (0 = empty), with the full hash alongside
+    private final int[] slots;
+    private final long[] slotHashes;
+    private final int mask;
+    private final int entries;
+
+    private BpeTokenizer(Pattern pattern, byte[] pool, int[] offsets, int[] ranks, int entries) {
+        this.pattern = pattern;
+        this.entries = entries;
+        this.pool = pool;
+        this.offsets = offsets;
+        this.ranks = ranks;
+        int capacity = Integer.highestOneBit(Math.max(2, entries * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+        this.slotHashes = new long[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < entries; i++) {
+            long hash = hash(pool, offsets[i], offsets[i + 1]);
+            int slot = (int) hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+            slotHashes[slot] = hash;
+        }
+    }
+
+    /**
+     * Load a .tiktoken vocabulary; encoding selects the matching pre-tokenization
+     * pattern (cl100k_base or o200k_base)
+     */
+    public static BpeTokenizer load(Path vocabulary, String encoding) throws IOException {
+        Pattern pattern = switch (encoding) {
+            case "cl100k_base" -> CL100K;
+            case "o200k_base" -> O200K;
+            default -> throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        };
+        try (FileChannel channel = FileChannel.open(vocabulary, StandardOpenOption.READ)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // Decoded tokens are 3/4 of their base64 text, so the file size bounds the pool
+            byte[] pool = new byte[(int) Math.min(Integer.MAX_VALUE - 8, channel.size())];
+            int[] offsets = new int[1024];
+            int[] ranks = new int[1024];
+            byte[] line = new byte[256];
+            int entries = 0;
+            int used = 0;
+            Base64.Decoder decoder = Base64.getDecoder();
+            while (file.hasRemaining()) {
+                int length = 0;
+                byte b;
+                while (file.hasRemaining() && (b = file.get()) != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = b;
+                }
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                if (length == 0) {
+                    continue;
+                }
+                int space = indexOf(line, length, (byte) ' ');
+                if (space <= 0) {
+                    throw new IOException("Malformed vocabulary line " + (entries + 1) + " in " + vocabulary);
+                }
+                if (entries + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    ranks = Arrays.copyOf(ranks, ranks.length * 2);
+                }
+                byte[] token = decoder.decode(Arrays.copyOf(line, space));
+                offsets[entries] = used;
+                System.arraycopy(token, 0, pool, used, token.length);
+                used += token.length;
+                ranks[entries] = parseRank(line, space + 1, length, vocabulary);
+                entries++;
+            }
+            offsets[entries] = used;
+            return new BpeTokenizer(pattern, Arrays.copyOf(pool, used), offsets, ranks, entries);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte value) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseRank(byte[] line, int from, int to, Path vocabulary) throws IOException {
+        if (from >= to) {
+            throw new IOException("Missing rank in " + vocabulary);
+        }
+        int rank = 0;
+        for (int i = from; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Malformed rank in " + vocabulary);
+            }
+            rank = rank * 10 + digit;
+        }
+        return rank;
+    }
+
+    /**
+     * Number of tokens the text encodes to
+     */
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        byte[] scratch = new byte[64];
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            int start = matcher.start();
+            int end = matcher.end();
+            byte[] piece;
+            int length;
+            if (isAscii(text, start, end)) {
+                length = end - start;
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                for (int i = 0; i < length; i++) {
+                    scratch[i] = (byte) text.charAt(start + i);
+                }
+                piece = scratch;
+            } else {
+                piece = text.substring(start, end).getBytes(StandardCharsets.UTF_8);
+                length = piece.length;
+            }
+            tokens += countPiece(piece, length);
+        }
+        return tokens;
+    }
+
+    private static boolean isAscii(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tokens for one pre-tokenized piece: repeatedly merge the adjacent pair
+     * whose concatenation has the lowest rank, as tiktoken does
+     */
+    private int countPiece(byte[] piece, int length) {
+        if (length <= 1 || rank(piece, 0, length) != NO_RANK) {
+            return Math.min(length, 1);
+        }
+        // bounds[i] is where part i starts; pairRanks[i] is the rank of parts i and i + 1 merged
+        int parts = length;
+        int[] bounds = new int[length + 1];
+        int[] pairRanks = new int[length];
+        for (int i = 0; i <= length; i++) {
+            bounds[i] = i;
+        }
+        for (int i = 0; i < parts - 1; i++) {
+            pairRanks[i] = rank(piece, bounds[i], bounds[i + 2]);
+        }
+        while (parts > 1) {
+            int best = NO_RANK;
+            int at = -1;
+            for (int i = 0; i < parts - 1; i++) {
+                if (pairRanks[i] < best) {
+                    best = pairRanks[i];
+                    at = i;
+                }
+            }
+            if (at < 0) {
+                break;
+            }
+            // Merge parts at and at + 1 by dropping the boundary between them
+            System.arraycopy(bounds, at + 2, bounds, at + 1, parts - at - 1);
+            System.arraycopy(pairRanks, at + 1, pairRanks, at, parts - at - 2);
+            parts--;
+            if (at < parts - 1) {
+                pairRanks[at] = rank(piece, bounds[at], bounds[at + 2]);
+            }
+            if (at > 0) {
+                pairRanks[at - 1] = rank(piece, bounds[at - 1], bounds[at + 1]);
+            }
+        }
+        return parts;
+    }
+
+    private int rank(byte[] bytes, int from, int to) {
+        long hash = hash(bytes, from, to);
+        int slot = (int) hash & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (slotHashes[slot] == hash && matches(entry - 1, bytes, from, to)) {
+                return ranks[entry - 1];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_RANK;
+    }
+
+    private boolean matches(int entry, byte[] bytes, int from, int to) {
+        int start = offsets[entry];
+        return offsets[entry + 1] - start == to - from
+                && Arrays.equals(pool, start, start + (to - from), bytes, from, to);
+    }
+
+    // FNV-1a, finished with a multiply-shift so that the low bits used for slots are well mixed
+    private static long hash(byte[] bytes, int from, int to) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        return hash ^ (hash >>> 29) * 0xbf58476d1ce4e5b9L;
+    }
+
+    /**
+     * Number of vocabulary entries
+     */
+    public int size() {
+        return entries;
+    }
+}
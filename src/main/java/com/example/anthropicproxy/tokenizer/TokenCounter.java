@@ -0,0 +1,184 @@
+package com.example.anthropicproxy.tokenizer;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.model.anthropic.AnthropicCompletionRequest;
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.RawJson;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Prompt token counts for count_tokens requests, computed locally on the
+ * OpenAI messages and tool definitions the request transcodes to. Uses the
+ * configured tiktoken vocabulary, or estimates from text length when none is
+ * configured; each image counts a fixed estimate, since its size is not
+ * decoded. Counts of system prompts and tool definitions are cached, since
+ * clients resend the same ones with every request.
+ */
+@Slf4j
+@Component
+public class TokenCounter {
+    // Chat framing per message and for the assistant reply, as counted by OpenAI chat models
+    private static final int TOKENS_PER_MESSAGE = 3;
+    private static final int REPLY_PRIMING = 3;
+    // Estimate used without a vocabulary, the same as the rate limiter's
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final ConversionService conversionService;
+    private final JsonFactory jsonFactory;
+    private final BpeTokenizer tokenizer;
+    private final int tokensPerImage;
+    private final Map<String, Integer> cachedCounts = new ConcurrentHashMap<>();
+    private final int systemPromptCacheSize;
+
+    public TokenCounter(ConversionService conversionService, ObjectMapper objectMapper,
+                        ProxyConfigProperties proxyConfig) {
+        ProxyConfigProperties.Tokenizer config = proxyConfig.getTokenizer();
+        this.conversionService = conversionService;
+        this.jsonFactory = objectMapper.getFactory();
+        this.tokensPerImage = config.getTokensPerImage();
+        this.systemPromptCacheSize = config.getSystemPromptCacheSize();
+        this.tokenizer = config.getVocabulary() != null ? load(config) : null;
+        if (tokenizer == null) {
+            log.info("No tokenizer vocabulary configured, token counts are estimated");
+        }
+    }
+
+    private static BpeTokenizer load(ProxyConfigProperties.Tokenizer config) {
+        long start = System.nanoTime();
+        try {
+            BpeTokenizer tokenizer = BpeTokenizer.load(Path.of(config.getVocabulary()), config.getEncoding());
+            log.info("Loaded {} vocabulary ({} tokens) in {} ms", config.getEncoding(), tokenizer.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return tokenizer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load tokenizer vocabulary " + config.getVocabulary(), e);
+        }
+    }
+
+    /**
+     * Whether counts come from the BPE vocabulary rather than the length estimate
+     */
+    public boolean isExact() {
+        return tokenizer != null;
+    }
+
+    public int countInputTokens(AnthropicCompletionRequest request) {
+        OpenAICompletionRequest openaiRequest = conversionService.convertRequest(request);
+        RawJson messages = (RawJson) openaiRequest.getMessages();
+        int tokens = REPLY_PRIMING;
+        if (openaiRequest.getTools() instanceof RawJson tools) {
+            // Function definitions reach the model as their JSON schemas
+            tokens += countCached(tools.toString());
+        }
+        try (JsonParser parser = messages.createParser(jsonFactory)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                tokens += TOKENS_PER_MESSAGE + countMessage(parser);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return tokens;
+    }
+
+    /**
+     * Tokens of one OpenAI message, the parser on its start: the role, the
+     * content string or its text and image parts, and the name and
+     * arguments of tool calls
+     */
+    private int countMessage(JsonParser parser) throws IOException {
+        String role = "";
+        String content = "";
+        int tokens = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("role".equals(field)) {
+                role = parser.getText();
+            } else if ("content".equals(field) && parser.currentToken() == JsonToken.VALUE_STRING) {
+                content = parser.getText();
+            } else if ("content".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                tokens += countParts(parser);
+            } else if ("tool_calls".equals(field)) {
+                tokens += countToolCalls(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return tokens + count(role) + ("system".equals(role) ? countCached(content) : count(content));
+    }
+
+    private int countParts(JsonParser parser) throws IOException {
+        int tokens = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("text".equals(field) && parser.currentToken() == JsonToken.VALUE_STRING) {
+                    tokens += count(parser.getText());
+                } else if ("image_url".equals(field)) {
+                    tokens += tokensPerImage;
+                    parser.skipChildren();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private int countToolCalls(JsonParser parser) throws IOException {
+        int tokens = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                boolean function = "function".equals(parser.currentName());
+                if (parser.nextToken() != JsonToken.START_OBJECT || !function) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    parser.nextToken();
+                    if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                        tokens += count(parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private int countCached(String text) {
+        Integer cached = cachedCounts.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        int tokens = count(text);
+        if (cachedCounts.size() >= systemPromptCacheSize) {
+            // Start over rather than track recency; the prompts in use refill it within a few requests
+            cachedCounts.clear();
+        }
+        cachedCounts.put(text, tokens);
+        return tokens;
+    }
+
+    public int count(String text) {
+        if (tokenizer != null) {
+            return tokenizer.count(text);
+        }
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.anthropicproxy.accesslog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscRingBufferTest {
+
+    @Test
+    void roundsCapacityUpToAPowerOfTwo() {
+        assertEquals(4, new MpscRingBuffer<>(1).capacity());
+        assertEquals(4, new MpscRingBuffer<>(4).capacity());
+        assertEquals(8, new MpscRingBuffer<>(5).capacity());
+        assertEquals(1024, new MpscRingBuffer<>(1000).capacity());
+        assertEquals(1024, new MpscRingBuffer<>(1024).capacity());
+    }
+
+    @Test
+    void offerFailsWhenFullUntilAnItemIsPolled() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+    }
+
+    @Test
+    void keepsOrderOverSeveralLaps() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        assertNull(buffer.poll());
+        int next = 0;
+        int expected = 0;
+        // Uneven batches move the head and tail across the wrap-around at different points
+        for (int lap = 0; lap < 10; lap++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(buffer.offer(next++));
+            }
+            for (int i = 0; i < 2; i++) {
+                assertEquals(expected++, buffer.poll());
+            }
+            if (lap % 2 == 1) {
+                Integer item;
+                while ((item = buffer.poll()) != null) {
+                    assertEquals(expected++, item);
+                }
+            }
+        }
+        Integer item;
+        while ((item = buffer.poll()) != null) {
+            assertEquals(expected++, item);
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    void concurrentProducersNeitherLoseNorDuplicateItems() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    Integer item = producer * perProducer + i;
+                    while (!buffer.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        boolean[] seen = new boolean[producers * perProducer];
+        // The last item seen from each producer: its items arrive in the order it offered them
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        start.countDown();
+        int received = 0;
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (received < seen.length && System.nanoTime() < deadline) {
+            Integer item = buffer.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            assertFalse(seen[item], "duplicate " + item);
+            seen[item] = true;
+            int producer = item / perProducer;
+            assertTrue(item % perProducer > last[producer], "out of order " + item);
+            last[producer] = item % perProducer;
+            received++;
+        }
+        assertEquals(seen.length, received);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+    }
+}
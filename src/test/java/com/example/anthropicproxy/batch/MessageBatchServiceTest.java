@@ -0,0 +1,299 @@
+package com.example.anthropicproxy.batch;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatch;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchCreateRequest;
+import com.example.anthropicproxy.model.anthropic.AnthropicMessageBatchList;
+import com.example.anthropicproxy.model.openai.OpenAIChoice;
+import com.example.anthropicproxy.model.openai.OpenAICompletionRequest;
+import com.example.anthropicproxy.model.openai.OpenAICompletionResponse;
+import com.example.anthropicproxy.model.openai.OpenAIMessage;
+import com.example.anthropicproxy.model.openai.OpenAIRole;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.ModelMappingService;
+import com.example.anthropicproxy.service.OpenAIClientService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs batches against a stub upstream in a temporary directory, restarting
+ * the service on the same directory to check recovery
+ */
+class MessageBatchServiceTest {
+    private static final OpenAICompletionResponse RESPONSE = OpenAICompletionResponse.builder()
+            .id("chatcmpl-1")
+            .model("gpt-4o-mini")
+            .choices(List.of(OpenAIChoice.builder().index(0).finishReason("stop")
+                    .message(OpenAIMessage.builder().role(OpenAIRole.ASSISTANT).content("ok").build()).build()))
+            .usage(new OpenAIUsage(3, 1, 4))
+            .build();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<MessageBatchService> services = new ArrayList<>();
+    private ProxyConfigProperties proxyConfig;
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("batches");
+        proxyConfig = new ProxyConfigProperties();
+        proxyConfig.getBatches().setDirectory(directory.toString());
+        proxyConfig.getBatches().setInitialBackoff(Duration.ofMillis(1));
+        proxyConfig.getBatches().setMaxBackoff(Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (MessageBatchService service : services) {
+            service.close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void restartResendsOnlyUnfinishedRequests() throws Exception {
+        // Nothing completes before the restart
+        StubClient stalled = new StubClient(request -> Mono.never());
+        MessageBatchService first = start(stalled);
+        String id = first.create(batch(5)).getId();
+        awaitSent(stalled, 5);
+        first.close();
+
+        // Two results were written, the third was cut off mid-line by the crash
+        Path resultsFile = directory.resolve(id).resolve(MessageBatch.RESULTS_FILE);
+        Files.writeString(resultsFile,
+                "{\"custom_id\":\"req-1\",\"result\":{\"type\":\"succeeded\",\"message\":{}}}\n"
+                        + "{\"custom_id\":\"req-2\",\"result\":{\"type\":\"errored\",\"error\":{}}}\n"
+                        + "{\"custom_id\":\"req-3\",\"res");
+        Files.writeString(directory.resolve("batches.log"), "{\"event\":\"ended\",\"id\":\"" + id,
+                StandardOpenOption.APPEND);
+
+        StubClient upstream = new StubClient(request -> Mono.just(RESPONSE));
+        MessageBatchService second = start(upstream);
+        AnthropicMessageBatch resumed = awaitEnded(second, id);
+        assertEquals(List.of(3, 4, 5), upstream.sent.stream().sorted().toList());
+        assertCounts(resumed, 4, 1, 0, 0);
+
+        List<String> lines = Files.readAllLines(resultsFile);
+        assertEquals(5, lines.size());
+        List<String> customIds = new ArrayList<>();
+        for (String line : lines) {
+            JsonNode result = objectMapper.readTree(line);
+            customIds.add(result.get("custom_id").asText());
+        }
+        assertEquals(List.of("req-1", "req-2", "req-3", "req-4", "req-5"), customIds.stream().sorted().toList());
+        JsonNode message = objectMapper.readTree(lines.get(4)).get("result").get("message");
+        assertEquals("ok", message.get("content").get(0).get("text").asText());
+        second.close();
+
+        // The ended event is replayed without reading the results or calling the upstream again
+        StubClient idle = new StubClient(request -> Mono.just(RESPONSE));
+        MessageBatchService third = start(idle);
+        AnthropicMessageBatch ended = third.get(id);
+        assertEquals("ended", ended.getProcessingStatus());
+        assertCounts(ended, 4, 1, 0, 0);
+        assertTrue(idle.sent.isEmpty());
+        assertEquals(resultsFile, third.results(id));
+    }
+
+    @Test
+    void truncateToLastLineDropsOnlyThePartialLine() throws IOException {
+        Path file = directory.resolve("torn.jsonl");
+        Files.writeString(file, "{\"a\":1}\n{\"b\":2}\n{\"c\":");
+        MessageBatchLog.truncateToLastLine(file);
+        assertEquals("{\"a\":1}\n{\"b\":2}\n", Files.readString(file));
+        MessageBatchLog.truncateToLastLine(file);
+        assertEquals("{\"a\":1}\n{\"b\":2}\n", Files.readString(file));
+
+        Files.writeString(file, "no newline");
+        MessageBatchLog.truncateToLastLine(file);
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    void cancelReportsTheUnsentRequestsAsCanceled() throws Exception {
+        proxyConfig.getBatches().setConcurrency(1);
+        Sinks.One<OpenAICompletionResponse> held = Sinks.one();
+        StubClient upstream = new StubClient(request -> request.getMaxTokens() == 1 ? held.asMono() : Mono.just(RESPONSE));
+        MessageBatchService service = start(upstream);
+        String id = service.create(batch(3)).getId();
+        awaitSent(upstream, 1);
+
+        AnthropicMessageBatch canceling = service.cancel(id);
+        assertEquals("canceling", canceling.getProcessingStatus());
+        assertNotNull(canceling.getCancelInitiatedAt());
+        held.tryEmitValue(RESPONSE);
+
+        AnthropicMessageBatch ended = awaitEnded(service, id);
+        assertEquals(List.of(1), upstream.sent);
+        assertCounts(ended, 1, 0, 2, 0);
+        // Canceling an ended batch changes nothing
+        assertCounts(service.cancel(id), 1, 0, 2, 0);
+    }
+
+    @Test
+    void requestsNotStartedBeforeTheExpiryAreExpired() throws Exception {
+        proxyConfig.getBatches().setConcurrency(1);
+        proxyConfig.getBatches().setExpiry(Duration.ofMillis(200));
+        Sinks.One<OpenAICompletionResponse> held = Sinks.one();
+        StubClient upstream = new StubClient(request -> request.getMaxTokens() == 1 ? held.asMono() : Mono.just(RESPONSE));
+        MessageBatchService service = start(upstream);
+        String id = service.create(batch(3)).getId();
+        awaitSent(upstream, 1);
+        Thread.sleep(400);
+        held.tryEmitValue(RESPONSE);
+
+        AnthropicMessageBatch ended = awaitEnded(service, id);
+        assertEquals(List.of(1), upstream.sent);
+        assertCounts(ended, 1, 0, 0, 2);
+    }
+
+    @Test
+    void listPagesNewestFirst() throws Exception {
+        MessageBatchService service = start(new StubClient(request -> Mono.just(RESPONSE)));
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(service.create(batch(1)).getId());
+        }
+        for (String id : ids) {
+            awaitEnded(service, id);
+        }
+
+        AnthropicMessageBatchList page = service.list(2, null, null);
+        assertEquals(List.of(ids.get(4), ids.get(3)), ids(page));
+        assertTrue(page.isHasMore());
+        assertEquals(ids.get(4), page.getFirstId());
+        assertEquals(ids.get(3), page.getLastId());
+
+        page = service.list(2, null, page.getLastId());
+        assertEquals(List.of(ids.get(2), ids.get(1)), ids(page));
+        assertTrue(page.isHasMore());
+
+        page = service.list(2, null, page.getLastId());
+        assertEquals(List.of(ids.get(0)), ids(page));
+        assertFalse(page.isHasMore());
+
+        // Paging back towards the newest batch
+        page = service.list(2, ids.get(1), null);
+        assertEquals(List.of(ids.get(3), ids.get(2)), ids(page));
+        assertTrue(page.isHasMore());
+        page = service.list(2, ids.get(3), null);
+        assertEquals(List.of(ids.get(4)), ids(page));
+        assertFalse(page.isHasMore());
+
+        page = service.list(null, null, ids.get(0));
+        assertTrue(page.getData().isEmpty());
+        assertNull(page.getFirstId());
+        assertFalse(page.isHasMore());
+        assertEquals(5, service.list(null, null, null).getData().size());
+    }
+
+    private MessageBatchService start(StubClient upstream) throws IOException {
+        ConversionService conversionService = new ConversionService(new ModelMappingService(proxyConfig),
+                new AnthropicResponseWriter(objectMapper), objectMapper, proxyConfig, new ProxyMetrics());
+        MessageBatchService service = new MessageBatchService(proxyConfig, conversionService, upstream,
+                new AnthropicResponseWriter(objectMapper), objectMapper);
+        services.add(service);
+        return service;
+    }
+
+    /**
+     * Requests req-1 to req-n, told apart upstream by their max_tokens
+     */
+    private AnthropicMessageBatchCreateRequest batch(int size) throws IOException {
+        StringBuilder json = new StringBuilder("{\"requests\":[");
+        for (int i = 1; i <= size; i++) {
+            if (i > 1) {
+                json.append(',');
+            }
+            json.append("{\"custom_id\":\"req-").append(i).append("\",\"params\":{")
+                    .append("\"model\":\"claude-3-haiku-20240307\",\"max_tokens\":").append(i)
+                    .append(",\"messages\":[{\"role\":\"user\",\"content\":\"Hello\"}]}}");
+        }
+        json.append("]}");
+        return objectMapper.readValue(json.toString().getBytes(StandardCharsets.UTF_8),
+                AnthropicMessageBatchCreateRequest.class);
+    }
+
+    private static AnthropicMessageBatch awaitEnded(MessageBatchService service, String id) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        AnthropicMessageBatch batch = service.get(id);
+        while (!"ended".equals(batch.getProcessingStatus()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            batch = service.get(id);
+        }
+        assertEquals("ended", batch.getProcessingStatus());
+        return batch;
+    }
+
+    private static void awaitSent(StubClient upstream, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (upstream.sent.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, upstream.sent.size());
+    }
+
+    private static void assertCounts(AnthropicMessageBatch batch, int succeeded, int errored, int canceled, int expired) {
+        AnthropicMessageBatch.RequestCounts counts = batch.getRequestCounts();
+        assertEquals(0, counts.getProcessing());
+        assertEquals(succeeded, counts.getSucceeded());
+        assertEquals(errored, counts.getErrored());
+        assertEquals(canceled, counts.getCanceled());
+        assertEquals(expired, counts.getExpired());
+    }
+
+    private static List<String> ids(AnthropicMessageBatchList page) {
+        return page.getData().stream().map(AnthropicMessageBatch::getId).toList();
+    }
+
+    /**
+     * Records the max_tokens of every upstream call and answers with the given function
+     */
+    private static final class StubClient extends OpenAIClientService {
+        private final Function<OpenAICompletionRequest, Mono<OpenAICompletionResponse>> responder;
+        private final List<Integer> sent = new CopyOnWriteArrayList<>();
+
+        StubClient(Function<OpenAICompletionRequest, Mono<OpenAICompletionResponse>> responder) {
+            super(null, null, null, null, null, null, null);
+            this.responder = responder;
+        }
+
+        @Override
+        public Mono<OpenAICompletionResponse> createCompletion(OpenAICompletionRequest request, boolean useCache) {
+            sent.add(request.getMaxTokens());
+            return responder.apply(request);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.anthropicproxy.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BodyInputStreamTest {
+
+    @Test
+    void readsTheBuffersInOrder() throws IOException {
+        try (InputStream in = new BodyInputStream(Flux.just(buffer("{\"model\":"), buffer(""), buffer("\"x\"}")))) {
+            assertEquals("{\"model\":\"x\"}", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void requestsOnlyAFewBuffersAhead() throws IOException {
+        AtomicInteger emitted = new AtomicInteger();
+        Flux<DataBuffer> body = Flux.range(0, 100).map(i -> buffer("chunk" + i)).doOnNext(buffer -> emitted.incrementAndGet());
+        try (InputStream in = new BodyInputStream(body)) {
+            assertEquals('c', in.read());
+            assertTrue(emitted.get() <= 3, "emitted " + emitted.get());
+        }
+        // Closing cancels the rest of the body
+        assertTrue(emitted.get() <= 3, "emitted " + emitted.get());
+    }
+
+    @Test
+    void failsReadsWithTheBodyError() {
+        Flux<DataBuffer> body = Flux.concat(Flux.just(buffer("{")), Flux.error(new IllegalStateException("reset")));
+        InputStream in = new BodyInputStream(body);
+        IOException error = assertThrows(IOException.class, in::readAllBytes);
+        assertEquals("Request body failed: reset", error.getMessage());
+    }
+
+    private static DataBuffer buffer(String text) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
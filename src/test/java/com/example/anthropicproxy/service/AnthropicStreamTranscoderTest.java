@@ -0,0 +1,154 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.example.anthropicproxy.model.openai.OpenAIToolCall;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes the emitted SSE frames and checks the Anthropic event sequence
+ */
+class AnthropicStreamTranscoderTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private AnthropicStreamTranscoder transcoder;
+    private final List<Event> events = new ArrayList<>();
+
+    private record Event(String name, JsonNode data) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        transcoder = new AnthropicStreamTranscoder(new AnthropicResponseWriter(objectMapper), "msg_1",
+                "claude-3-5-sonnet-20241022");
+    }
+
+    @Test
+    void textStreamFollowsTheEventSequence() throws IOException {
+        send(text("He said \"hi\"\n"));
+        send(text("Grüße"));
+        send(OpenAIStreamChunk.builder().choices(List.of(OpenAIStreamChunk.OpenAIStreamChoice.builder()
+                .index(0).delta(new OpenAIStreamChunk.OpenAIDelta()).finishReason("stop").build())).build());
+        finish();
+
+        assertEquals(List.of("message_start", "content_block_start", "content_block_delta", "content_block_delta",
+                "content_block_stop", "message_delta", "message_stop"), names());
+        JsonNode message = events.get(0).data().get("message");
+        assertEquals("msg_1", message.get("id").asText());
+        assertEquals("claude-3-5-sonnet-20241022", message.get("model").asText());
+        assertEquals("text", events.get(1).data().get("content_block").get("type").asText());
+        assertEquals("He said \"hi\"\n", events.get(2).data().get("delta").get("text").asText());
+        assertEquals("Grüße", events.get(3).data().get("delta").get("text").asText());
+        assertEquals(0, events.get(4).data().get("index").asInt());
+        assertEquals("end_turn", events.get(5).data().get("delta").get("stop_reason").asText());
+        assertEquals(2, events.get(5).data().get("usage").get("output_tokens").asInt());
+    }
+
+    @Test
+    void toolCallsOpenToolUseBlocksAtTheNextIndexes() throws IOException {
+        send(text("Checking"));
+        send(toolCall(0, "call_1", "weather", "{\"city\":"));
+        send(toolCall(0, null, null, "\"Oslo \\\"N\\\"\\n\"}"));
+        send(toolCall(1, "call_2", "clock", "{}"));
+        OpenAIStreamChunk last = OpenAIStreamChunk.builder().choices(List.of(OpenAIStreamChunk.OpenAIStreamChoice.builder()
+                .index(0).finishReason("tool_calls").build())).usage(new OpenAIUsage(12, 7, 19)).build();
+        send(last);
+        finish();
+
+        assertEquals(List.of("message_start",
+                "content_block_start", "content_block_delta", "content_block_stop",
+                "content_block_start", "content_block_delta", "content_block_delta", "content_block_stop",
+                "content_block_start", "content_block_delta", "content_block_stop",
+                "message_delta", "message_stop"), names());
+        assertEquals(List.of(0, 0, 0, 1, 1, 1, 1, 2, 2, 2), blockIndexes());
+
+        JsonNode weather = events.get(4).data().get("content_block");
+        assertEquals("tool_use", weather.get("type").asText());
+        assertEquals("call_1", weather.get("id").asText());
+        assertEquals("weather", weather.get("name").asText());
+        assertEquals(0, weather.get("input").size());
+        assertEquals("input_json_delta", events.get(5).data().get("delta").get("type").asText());
+        // The fragments arrive escaped as strings and join to the arguments
+        String arguments = events.get(5).data().get("delta").get("partial_json").asText()
+                + events.get(6).data().get("delta").get("partial_json").asText();
+        assertEquals("{\"city\":\"Oslo \\\"N\\\"\\n\"}", arguments);
+        assertEquals("Oslo \"N\"\n", objectMapper.readTree(arguments).get("city").asText());
+        assertEquals("clock", events.get(8).data().get("content_block").get("name").asText());
+
+        JsonNode messageDelta = events.get(11).data();
+        assertEquals("tool_use", messageDelta.get("delta").get("stop_reason").asText());
+        assertEquals(7, messageDelta.get("usage").get("output_tokens").asInt());
+        assertEquals(12, transcoder.getInputTokens());
+    }
+
+    @Test
+    void errorEndsTheStream() throws IOException {
+        send(text("Partial"));
+        decode(transcoder.error("overloaded_error", "Slow client"));
+        assertEquals(0, transcoder.finish().length);
+
+        assertEquals(List.of("message_start", "content_block_start", "content_block_delta", "error"), names());
+        assertEquals("overloaded_error", events.get(3).data().get("error").get("type").asText());
+        assertTrue(transcoder.isFinished());
+    }
+
+    private void send(OpenAIStreamChunk chunk) throws IOException {
+        decode(transcoder.onChunk(chunk));
+    }
+
+    private void finish() throws IOException {
+        decode(transcoder.finish());
+    }
+
+    /**
+     * Split frames into events, checking each is "event: name\ndata: json" with a matching type
+     */
+    private void decode(byte[] frames) throws IOException {
+        String text = new String(frames, StandardCharsets.UTF_8);
+        assertTrue(text.isEmpty() || text.endsWith("\n\n"), text);
+        for (String frame : text.split("\n\n")) {
+            if (frame.isEmpty()) {
+                continue;
+            }
+            String[] lines = frame.split("\n", 2);
+            assertTrue(lines[0].startsWith("event: "), frame);
+            assertTrue(lines[1].startsWith("data: "), frame);
+            String name = lines[0].substring("event: ".length());
+            JsonNode data = objectMapper.readTree(lines[1].substring("data: ".length()));
+            assertEquals(name, data.get("type").asText());
+            events.add(new Event(name, data));
+        }
+    }
+
+    private List<String> names() {
+        return events.stream().map(Event::name).toList();
+    }
+
+    private List<Integer> blockIndexes() {
+        return events.stream().filter(event -> event.data().has("index"))
+                .map(event -> event.data().get("index").asInt()).toList();
+    }
+
+    private static OpenAIStreamChunk text(String content) {
+        return OpenAIStreamChunk.builder().choices(List.of(OpenAIStreamChunk.OpenAIStreamChoice.builder()
+                .index(0).delta(OpenAIStreamChunk.OpenAIDelta.builder().content(content).build()).build())).build();
+    }
+
+    private static OpenAIStreamChunk toolCall(int index, String id, String name, String arguments) {
+        OpenAIToolCall call = OpenAIToolCall.builder().index(index).id(id)
+                .function(OpenAIToolCall.Function.builder().name(name).arguments(arguments).build()).build();
+        return OpenAIStreamChunk.builder().choices(List.of(OpenAIStreamChunk.OpenAIStreamChoice.builder()
+                .index(0).delta(OpenAIStreamChunk.OpenAIDelta.builder().toolCalls(List.of(call)).build()).build()))
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private ProxyConfigProperties.CircuitBreaker config;
+
+    @BeforeEach
+    void setUp() {
+        config = new ProxyConfigProperties.CircuitBreaker();
+        config.setWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallRateThreshold(100);
+        config.setSlowCallDuration(Duration.ofSeconds(1));
+        config.setOpenDuration(Duration.ofHours(1));
+        config.setHalfOpenCalls(2);
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensWhenFailureRateCrossesThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void opensWhenSlowCallRateCrossesThreshold() {
+        config.setSlowCallRateThreshold(50);
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        long slow = Duration.ofSeconds(2).toNanos();
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        breaker.onSuccess(slow);
+        breaker.onSuccess(slow);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void oldOutcomesLeaveTheWindow() {
+        config.setFailureRateThreshold(60);
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        breaker.onFailure();
+        breaker.onFailure();
+        for (int i = 0; i < 8; i++) {
+            breaker.onSuccess(0);
+        }
+        // The first two failures are evicted, so the window holds 4 failures in 10 calls
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenAdmitsTrialCallsAndClosesWhenAllSucceed() {
+        config.setOpenDuration(Duration.ZERO);
+        CircuitBreaker breaker = open(new CircuitBreaker(config));
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // The window starts over once closed
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenReopensOnFailedTrial() {
+        config.setOpenDuration(Duration.ZERO);
+        CircuitBreaker breaker = open(new CircuitBreaker(config));
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(0);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenTreatsSlowTrialAsFailure() {
+        config.setOpenDuration(Duration.ZERO);
+        CircuitBreaker breaker = open(new CircuitBreaker(config));
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(Duration.ofSeconds(2).toNanos());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void releaseReturnsHalfOpenPermit() {
+        config.setOpenDuration(Duration.ZERO);
+        CircuitBreaker breaker = open(new CircuitBreaker(config));
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.release();
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void ignoresLateOutcomesWhileOpen() {
+        CircuitBreaker breaker = open(new CircuitBreaker(config));
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker open(CircuitBreaker breaker) {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.anthropic.AnthropicCompletionRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConversionServiceTest {
+    private static final String REQUEST = """
+            {
+              "model": "claude-3-5-sonnet-20241022",
+              "max_tokens": 1024,
+              "temperature": 0.4,
+              "top_p": 0.9,
+              "stop_sequences": ["END", "STOP"],
+              "system": "Be brief",
+              "metadata": {"user_id": "u-1"},
+              "tools": [
+                {"name": "weather", "description": "Current weather",
+                 "input_schema": {"type": "object", "properties": {"city": {"type": "string"}}}},
+                {"name": "clock"},
+                {"type": "web_search_20250305", "name": "web_search"}
+              ],
+              "tool_choice": {"type": "any", "disable_parallel_tool_use": true},
+              "messages": [
+                {"role": "user", "content": [
+                  {"type": "image", "source": {"type": "base64", "media_type": "image/png", "data": "iVBORw0KGgo="}},
+                  {"type": "text", "text": "Where is this?"},
+                  {"type": "image", "source": {"type": "url", "url": "https://example.com/a.jpg"}},
+                  {"type": "document", "source": {"type": "text", "data": "dropped"}}
+                ]},
+                {"role": "assistant", "content": [
+                  {"type": "text", "text": "Checking"},
+                  {"type": "tool_use", "id": "toolu_1", "name": "weather", "input": {"city": "Oslo"}},
+                  {"type": "tool_use", "id": "toolu_2", "name": "clock", "input": {}}
+                ]},
+                {"role": "user", "content": [
+                  {"type": "tool_result", "tool_use_id": "toolu_1", "content": [{"type": "text", "text": "4°C"}]},
+                  {"type": "tool_result", "tool_use_id": "toolu_2", "content": "timeout", "is_error": true},
+                  {"type": "text", "text": "And tomorrow?"}
+                ]},
+                {"role": "assistant", "content": "Probably \\"sunny\\""}
+              ]
+            }
+            """;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ConversionService conversionService;
+
+    @BeforeEach
+    void setUp() {
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        conversionService = new ConversionService(new ModelMappingService(proxyConfig),
+                new AnthropicResponseWriter(objectMapper), objectMapper, proxyConfig, new ProxyMetrics());
+    }
+
+    @Test
+    void boundRequestConvertsLikeItsBody() throws IOException {
+        byte[] body = REQUEST.getBytes(StandardCharsets.UTF_8);
+        TranscodedRequest transcoded = conversionService.transcodeRequest(body);
+        AnthropicCompletionRequest bound = objectMapper.readValue(body, AnthropicCompletionRequest.class);
+
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(transcoded.openaiRequest())),
+                objectMapper.readTree(objectMapper.writeValueAsBytes(conversionService.convertRequest(bound))));
+        assertEquals(transcoded.promptChars(), conversionService.transcodeRequest(bound).promptChars());
+    }
+
+    @Test
+    void boundRequestIsValidatedLikeItsBody() throws IOException {
+        AnthropicCompletionRequest bound = objectMapper.readValue(
+                REQUEST.replace("\"type\": \"any\"", "\"type\": \"tool\""), AnthropicCompletionRequest.class);
+
+        AnthropicApiException error = assertThrows(AnthropicApiException.class,
+                () -> conversionService.convertRequest(bound));
+        assertEquals("invalid_request_error", error.getErrorType());
+        assertEquals("tool_choice.name: Field required", error.getMessage());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipCompressorTest {
+    private GzipCompressor compressor;
+
+    @BeforeEach
+    void setUp() {
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        // One pooled deflater, so every body after the first reuses a reset one
+        proxyConfig.getCompression().setPoolSize(1);
+        compressor = new GzipCompressor(proxyConfig, new ProxyMetrics());
+    }
+
+    @Test
+    void emptyBodyRoundTrips() throws IOException {
+        assertArrayEquals(new byte[0], gunzip(compressor.compressResponse(new byte[0])));
+    }
+
+    @Test
+    void bodyLargerThanTheInitialBufferRoundTrips() throws IOException {
+        // Random bytes do not shrink, so the output outgrows the length / 4 first guess
+        byte[] body = new byte[200_000];
+        new Random(7).nextBytes(body);
+        byte[] compressed = compressor.compressResponse(body);
+        assertTrue(compressed.length > body.length / 4);
+        assertArrayEquals(body, gunzip(compressed));
+
+        byte[] json = "{\"type\":\"text\",\"text\":\"Grüße\"},".repeat(5_000).getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(json, gunzip(compressor.compressResponse(json)));
+        assertArrayEquals(body, gunzip(compressor.compressResponse(body)));
+    }
+
+    @Test
+    void buffersAreCompressedInOrderAsOneBody() throws IOException {
+        byte[] body = "{\"model\":\"gpt-4o\",\"messages\":[{\"role\":\"user\",\"content\":\"Hello\"}]}".repeat(100)
+                .getBytes(StandardCharsets.UTF_8);
+        List<ByteBuffer> buffers = List.of(
+                ByteBuffer.wrap(body, 0, 1),
+                ByteBuffer.wrap(new byte[0]),
+                ByteBuffer.wrap(body, 1, 4000),
+                // A direct buffer, as pooled network buffers are
+                ByteBuffer.allocateDirect(body.length - 4001).put(body, 4001, body.length - 4001).flip());
+        assertArrayEquals(body, gunzip(compressor.compress(buffers.iterator(), body.length)));
+    }
+
+    @Test
+    void acceptsGzipFollowsQualityValues() {
+        assertTrue(GzipCompressor.acceptsGzip(List.of("gzip")));
+        assertTrue(GzipCompressor.acceptsGzip(List.of("deflate, GZIP;q=0.8")));
+        assertTrue(GzipCompressor.acceptsGzip(List.of("br", "gzip")));
+        assertTrue(GzipCompressor.acceptsGzip(List.of("x-gzip")));
+        assertTrue(GzipCompressor.acceptsGzip(List.of("*;q=0.5")));
+        assertTrue(GzipCompressor.acceptsGzip(List.of("gzip;q=bad")));
+
+        assertFalse(GzipCompressor.acceptsGzip(List.of()));
+        assertFalse(GzipCompressor.acceptsGzip(List.of("identity")));
+        assertFalse(GzipCompressor.acceptsGzip(List.of("gzip;q=0")));
+        assertFalse(GzipCompressor.acceptsGzip(List.of("gzip; q=0.0, identity")));
+        assertFalse(GzipCompressor.acceptsGzip(List.of("*;q=0")));
+        // A listed gzip wins over the wildcard either way
+        assertFalse(GzipCompressor.acceptsGzip(List.of("gzip;q=0, *;q=1")));
+        assertTrue(GzipCompressor.acceptsGzip(List.of("gzip", "*;q=0")));
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        // The gzip header written by hand
+        assertArrayEquals(new byte[]{0x1f, (byte) 0x8b, 8}, Arrays.copyOf(compressed, 3));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
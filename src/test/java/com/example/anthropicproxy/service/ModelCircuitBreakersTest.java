@@ -0,0 +1,85 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelCircuitBreakersTest {
+    private ProxyConfigProperties proxyConfig;
+    private ModelCircuitBreakers breakers;
+
+    @BeforeEach
+    void setUp() {
+        proxyConfig = new ProxyConfigProperties();
+        ProxyConfigProperties.CircuitBreaker config = proxyConfig.getCircuitBreaker();
+        config.setWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setOpenDuration(Duration.ofHours(1));
+        config.setFallbackModels(Map.of("gpt-a", "gpt-b"));
+        breakers = new ModelCircuitBreakers(proxyConfig, new ModelMappingService(proxyConfig), new ProxyMetrics());
+    }
+
+    @Test
+    void serverErrorsTimeoutsAndTransportErrorsAreModelFailures() {
+        assertTrue(ModelCircuitBreakers.isModelFailure(new OpenAIApiException("error", HttpStatus.BAD_GATEWAY)));
+        assertTrue(ModelCircuitBreakers.isModelFailure(new TimeoutException()));
+        assertTrue(ModelCircuitBreakers.isModelFailure(new WebClientRequestException(new ConnectException(),
+                HttpMethod.POST, URI.create("http://upstream"), new HttpHeaders())));
+    }
+
+    @Test
+    void rateLimitingAndClientErrorsAreNotModelFailures() {
+        assertFalse(ModelCircuitBreakers.isModelFailure(new OpenAIApiException("error", HttpStatus.TOO_MANY_REQUESTS)));
+        assertFalse(ModelCircuitBreakers.isModelFailure(new OpenAIApiException("error", HttpStatus.BAD_REQUEST)));
+    }
+
+    @Test
+    void rateLimitedCallsDoNotOpenTheBreaker() {
+        for (int i = 0; i < 10; i++) {
+            call("gpt-a", new OpenAIApiException("rate limited", HttpStatus.TOO_MANY_REQUESTS));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breakers.forModel("gpt-a").getState());
+        assertEquals("gpt-a", breakers.execute("gpt-a", Mono::just).block());
+    }
+
+    @Test
+    void serverErrorsOpenTheBreakerAndRouteToTheFallback() {
+        for (int i = 0; i < 4; i++) {
+            call("gpt-a", new OpenAIApiException("unavailable", HttpStatus.SERVICE_UNAVAILABLE));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breakers.forModel("gpt-a").getState());
+        assertEquals("gpt-b", breakers.execute("gpt-a", Mono::just).block());
+    }
+
+    @Test
+    void rejectsWhenModelAndFallbackAreOpen() {
+        for (int i = 0; i < 4; i++) {
+            call("gpt-a", new OpenAIApiException("unavailable", HttpStatus.SERVICE_UNAVAILABLE));
+            call("gpt-b", new OpenAIApiException("unavailable", HttpStatus.SERVICE_UNAVAILABLE));
+        }
+        AnthropicApiException error = assertThrows(AnthropicApiException.class,
+                () -> breakers.execute("gpt-a", Mono::just).block());
+        assertEquals("overloaded_error", error.getErrorType());
+    }
+
+    private void call(String model, Throwable error) {
+        assertThrows(error.getClass(), () -> breakers.execute(model, target -> Mono.error(error)).block());
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelRoutesTest {
+    private static final String ROUTES = """
+            default: gpt-4.1
+            models:
+              claude-3-haiku-20240307: gpt-3.5-turbo
+              claude-3-haiku: gpt-3.5-turbo-haiku
+              claude-3-opus: gpt-4o
+              claude-3: gpt-4-claude3
+            prefixes:
+              anthropic.claude-3-haiku: bedrock-haiku
+              anthropic.claude-3: bedrock-claude3
+              anthropic.claude-3-opus: bedrock-opus
+            """;
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("model-routes");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void resolvesListedModelsExactly() {
+        ModelRoutes routes = parse(ROUTES, 16);
+        assertEquals("gpt-3.5-turbo", routes.resolve("claude-3-haiku-20240307"));
+        assertEquals("gpt-3.5-turbo-haiku", routes.resolve("claude-3-haiku"));
+        assertTrue(routes.isListed("claude-3-opus"));
+        assertFalse(routes.isListed("anthropic.claude-3-opus"));
+        assertEquals(List.of("claude-3-haiku-20240307", "claude-3-haiku", "claude-3-opus", "claude-3"),
+                List.copyOf(routes.models().keySet()));
+    }
+
+    @Test
+    void resolvesUnlistedNamesByTheLongestPrefixIgnoringCase() {
+        ModelRoutes routes = parse(ROUTES, 16);
+        assertEquals("gpt-3.5-turbo-haiku", routes.resolve("claude-3-haiku-20250101"));
+        assertEquals("gpt-3.5-turbo-haiku", routes.resolve("Claude-3-HAIKU-latest"));
+        assertEquals("gpt-4o", routes.resolve("claude-3-opus-20240229"));
+        // Shorter routes still match where the longer ones branch off
+        assertEquals("gpt-4-claude3", routes.resolve("claude-3-sonnet-20240229"));
+        assertEquals("gpt-4-claude3", routes.resolve("claude-3-haik"));
+
+        // Bedrock-style ids go through the prefix-only routes
+        assertEquals("bedrock-haiku", routes.resolve("anthropic.claude-3-haiku-20240307-v1:0"));
+        assertEquals("bedrock-opus", routes.resolve("anthropic.claude-3-opus-20240229-v1:0"));
+        assertEquals("bedrock-claude3", routes.resolve("ANTHROPIC.CLAUDE-3-SONNET-20240229-V1:0"));
+    }
+
+    @Test
+    void fallsBackToTheDefaultModel() {
+        ModelRoutes routes = parse(ROUTES, 16);
+        assertEquals("gpt-4.1", routes.resolve("claude-2.1"));
+        assertEquals("gpt-4.1", routes.resolve("claude"));
+        assertEquals("gpt-4.1", routes.resolve(""));
+        assertEquals("gpt-4.1", routes.resolve(null));
+        assertEquals("gpt-4.1", parse("default: gpt-4.1\n", 16).resolve("claude-3-haiku"));
+    }
+
+    @Test
+    void resolvesTheSameOnceTheMemoIsFull() {
+        ModelRoutes routes = parse(ROUTES, 2);
+        List<String> names = List.of("claude-3-haiku-a", "claude-3-opus-b", "claude-3-c", "anthropic.claude-3-d", "other");
+        List<String> expected = List.of("gpt-3.5-turbo-haiku", "gpt-4o", "gpt-4-claude3", "bedrock-claude3", "gpt-4.1");
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < names.size(); i++) {
+                assertEquals(expected.get(i), routes.resolve(names.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void rejectsMalformedTables() {
+        assertInvalid("- gpt-4.1\n", "Routes file must be a mapping");
+        assertInvalid("models:\n  claude-3-haiku: gpt-3.5-turbo\n", "Routes file has no default model");
+        assertInvalid("default: gpt-4.1\nmodels:\n  - claude-3-haiku\n", "'models' must be a mapping of model names");
+        assertInvalid("default: gpt-4.1\nprefixes:\n  anthropic.claude: \n",
+                "Invalid route in 'prefixes': anthropic.claude -> null");
+    }
+
+    @Test
+    void keepsThePreviousTableWhenAReloadedFileIsMalformed() throws IOException {
+        Path file = directory.resolve("model-routes.yml");
+        Files.writeString(file, ROUTES);
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        proxyConfig.getRouting().setFile(file.toString());
+        proxyConfig.getRouting().setWatch(false);
+        ModelMappingService service = new ModelMappingService(proxyConfig);
+        assertEquals("bedrock-haiku", service.mapModel("anthropic.claude-3-haiku-20240307-v1:0"));
+
+        Files.writeString(file, "default: gpt-4.1\nmodels: [broken\n");
+        service.reload();
+        assertEquals("bedrock-haiku", service.mapModel("anthropic.claude-3-haiku-20240307-v1:0"));
+        Files.writeString(file, "models:\n  claude-3-haiku: gpt-3.5-turbo\n");
+        service.reload();
+        assertEquals("gpt-3.5-turbo-haiku", service.mapModel("claude-3-haiku"));
+
+        Files.writeString(file, "default: gpt-5\nmodels:\n  claude-3-haiku: gpt-4o-mini\n");
+        service.reload();
+        assertEquals("gpt-4o-mini", service.mapModel("claude-3-haiku"));
+        assertEquals("gpt-5", service.mapModel("anthropic.claude-3-haiku-20240307-v1:0"));
+    }
+
+    private static ModelRoutes parse(String yaml, int memoSize) {
+        return ModelRoutes.parse(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)), memoSize);
+    }
+
+    private static void assertInvalid(String yaml, String message) {
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> parse(yaml, 16));
+        assertEquals(message, error.getMessage());
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpenAIRequestTranscoderTest {
+    private static final String TOOL_TURN = "{\"role\":\"assistant\",\"content\":[{\"type\":\"text\",\"text\":\"Checking\"},"
+            + "{\"type\":\"tool_use\",\"id\":\"toolu_1\",\"name\":\"weather\",\"input\":{\"city\":\"Oslo\"}}]}";
+    private static final String TOOL_RESULT = "{\"role\":\"user\",\"content\":[{\"type\":\"tool_result\","
+            + "\"tool_use_id\":\"toolu_1\",\"content\":\"4°C\"},{\"type\":\"text\",\"text\":\"And tomorrow?\"}]}";
+    private static final String IMAGE_TURN = "{\"role\":\"user\",\"content\":[{\"type\":\"image\",\"source\":"
+            + "{\"type\":\"base64\",\"media_type\":\"image/png\",\"data\":\"iVBORw0KGgo=\"}},"
+            + "{\"type\":\"text\",\"text\":\"What is this?\"}]}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ProxyMetrics metrics;
+    private OpenAIRequestTranscoder transcoder;
+    private OpenAIRequestTranscoder uncached;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new ProxyMetrics();
+        transcoder = newTranscoder(true);
+        uncached = newTranscoder(false);
+    }
+
+    private OpenAIRequestTranscoder newTranscoder(boolean prefixCache) {
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        proxyConfig.getPrefixCache().setEnabled(prefixCache);
+        return new OpenAIRequestTranscoder(new ModelMappingService(proxyConfig), objectMapper.getFactory(),
+                proxyConfig.getImages().getMaxBytesPerRequest().toBytes(),
+                new MessagePrefixCache(proxyConfig.getPrefixCache(), metrics));
+    }
+
+    @Test
+    void readsIntegerMaxTokens() throws IOException {
+        assertEquals(1024, transcode("1024").maxTokens());
+        assertEquals(Integer.MAX_VALUE, transcode(String.valueOf(Integer.MAX_VALUE)).maxTokens());
+        assertNull(transcode("null").maxTokens());
+    }
+
+    @Test
+    void rejectsFractionalMaxTokens() {
+        assertInvalid("1.5", "max_tokens: Input should be a valid integer");
+        assertInvalid("1e3", "max_tokens: Input should be a valid integer");
+        assertInvalid("\"1024\"", "max_tokens: Input should be a valid integer");
+    }
+
+    @Test
+    void rejectsMaxTokensOutsideTheIntRange() {
+        assertInvalid("1e12", "max_tokens: Input should be a valid integer");
+        assertInvalid("1099511627776", "max_tokens: Input should be a valid 32-bit integer");
+        assertInvalid("-1099511627776", "max_tokens: Input should be a valid 32-bit integer");
+    }
+
+    @Test
+    void prefixCacheOutputMatchesUncachedConversion() throws IOException {
+        String[][] turns = {
+                {user("Hi")},
+                {user("Hi"), assistant("Hello"), user("Weather in Oslo?")},
+                {user("Hi"), assistant("Hello"), user("Weather in Oslo?"), TOOL_TURN, TOOL_RESULT},
+                {user("Hi"), assistant("Hello"), user("Weather in Oslo?"), TOOL_TURN, TOOL_RESULT,
+                        assistant("Sunny"), IMAGE_TURN},
+                // The last message rewritten, as clients do when they move a cache breakpoint
+                {user("Hi"), assistant("Hello"), user("Weather in Oslo?"), TOOL_TURN, TOOL_RESULT,
+                        assistant("Sunny"), user("Thanks")},
+        };
+        for (String[] messages : turns) {
+            byte[] body = body("1024", ",\"system\":\"Be brief\"", messages);
+            TranscodedRequest expected = transcode(uncached, body);
+            TranscodedRequest actual = transcode(transcoder, body);
+            assertEquals(objectMapper.writeValueAsString(expected.openaiRequest()),
+                    objectMapper.writeValueAsString(actual.openaiRequest()));
+            assertEquals(expected.promptChars(), actual.promptChars());
+            assertEquals(expected.messageCount(), actual.messageCount());
+        }
+        assertEquals(1 + 3 + 5 + 6, reusedMessages());
+    }
+
+    @Test
+    void reusesMessagesUpToTheFirstDifference() throws IOException {
+        transcode(transcoder, body("1024", "", user("Hi"), assistant("Hello"), user("One")));
+        TranscodedRequest request = transcode(transcoder, body("1024", "", user("Hi"), assistant("Hello"), user("Two")));
+        assertEquals(2, reusedMessages());
+        assertEquals(3, request.messageCount());
+        assertEquals(objectMapper.writeValueAsString(
+                        transcode(uncached, body("1024", "", user("Hi"), assistant("Hello"), user("Two"))).openaiRequest()),
+                objectMapper.writeValueAsString(request.openaiRequest()));
+    }
+
+    @Test
+    void prefixCacheEndsBeforeTheFirstMessageWithAnImage() throws IOException {
+        byte[] body = body("1024", "", user("Hi"), assistant("Hello"), IMAGE_TURN, assistant("A logo"), user("Thanks"));
+        transcode(transcoder, body);
+        transcode(transcoder, body);
+        assertEquals(2, reusedMessages());
+
+        // An image in the first message leaves nothing to cache
+        byte[] imageFirst = body("1024", "", IMAGE_TURN, assistant("A logo"));
+        transcode(transcoder, imageFirst);
+        transcode(transcoder, imageFirst);
+        assertEquals(2, reusedMessages());
+    }
+
+    @Test
+    void prefixCacheReadsLongConversationsAcrossChunks() throws IOException {
+        String[] messages = new String[200];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = i % 2 == 0 ? user("Question " + i + " " + "x".repeat(200)) : assistant("Answer " + i);
+        }
+        byte[] first = body("1024", "", Arrays.copyOf(messages, 198));
+        byte[] next = body("1024", "", messages);
+        transcode(transcoder, first);
+        TranscodedRequest request = transcode(transcoder, next);
+        assertEquals(198, reusedMessages());
+        assertEquals(objectMapper.writeValueAsString(transcode(uncached, next).openaiRequest()),
+                objectMapper.writeValueAsString(request.openaiRequest()));
+    }
+
+    @Test
+    void rejectsBodiesOverTheLimitWhileReading() {
+        RequestBodyStream body = stream(body("1024", "", user("x".repeat(20_000))), 10_000);
+        AnthropicApiException error = assertThrows(AnthropicApiException.class, () -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+                transcoder.transcode(parser, body);
+            }
+        });
+        assertEquals("request_too_large", error.getErrorType());
+    }
+
+    @Test
+    void prefixCacheVerifiesTheBytesOfAMatch() throws IOException {
+        ProxyConfigProperties.PrefixCache config = new ProxyConfigProperties.PrefixCache();
+        MessagePrefixCache cache = new MessagePrefixCache(config, metrics);
+        byte[] cached = "[{\"role\":\"user\",\"content\":\"a\"}]".getBytes(StandardCharsets.UTF_8);
+        byte[] other = "[{\"role\":\"user\",\"content\":\"b\"}]".getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = "{\"role\":\"user\",\"content\":\"a\"}]".getBytes(StandardCharsets.UTF_8);
+        long key = 42;
+        cache.put(key, new MessagePrefixCache.Prefix(cached, new int[]{cached.length - 1}, encoded,
+                new int[]{encoded.length - 1}, new long[]{1}, new long[]{0}), null);
+
+        // Another conversation under the same key is compared byte for byte and not reused
+        assertNull(cache.longest(key, stream(other, Long.MAX_VALUE), 0));
+        MessagePrefixCache.Match match = cache.longest(key, stream(cached, Long.MAX_VALUE), 0);
+        assertNotNull(match);
+        assertEquals(1, match.messages());
+    }
+
+    private long reusedMessages() {
+        return metrics.counter("proxy_prefix_cache_reused_messages_total", "").get();
+    }
+
+    private TranscodedRequest transcode(String maxTokens) throws IOException {
+        return transcode(transcoder, body(maxTokens, "", user("Hi")));
+    }
+
+    private TranscodedRequest transcode(OpenAIRequestTranscoder transcoder, byte[] body) throws IOException {
+        RequestBodyStream stream = stream(body, Long.MAX_VALUE);
+        try (JsonParser parser = objectMapper.getFactory().createParser(stream)) {
+            return transcoder.transcode(parser, stream);
+        }
+    }
+
+    private static RequestBodyStream stream(byte[] body, long maxBytes) {
+        return new RequestBodyStream(new ByteArrayInputStream(body), maxBytes);
+    }
+
+    private static byte[] body(String maxTokens, String fields, String... messages) {
+        return ("{\"model\":\"claude-3-5-sonnet-20241022\",\"max_tokens\":" + maxTokens + fields
+                + ",\"messages\":[" + String.join(",", messages) + "]}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String user(String text) {
+        return "{\"role\":\"user\",\"content\":\"" + text + "\"}";
+    }
+
+    private static String assistant(String text) {
+        return "{\"role\":\"assistant\",\"content\":\"" + text + "\"}";
+    }
+
+    private void assertInvalid(String maxTokens, String message) {
+        AnthropicApiException error = assertThrows(AnthropicApiException.class, () -> transcode(maxTokens));
+        assertEquals("invalid_request_error", error.getErrorType());
+        assertEquals(message, error.getMessage());
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.model.openai.OpenAIStreamChunk;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class OpenAISseDecoderTest {
+    private static final String CHUNK = "{\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Grüße 😀\"}}]}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void decodesEventsSplitAtEveryByte() {
+        byte[] stream = ("data: " + CHUNK + "\r\n\r\ndata: [DONE]\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        // Covers splits inside "data:", inside the multi-byte characters and between \r and \n
+        for (int split = 1; split < stream.length; split++) {
+            List<OpenAIStreamChunk> chunks = decode(new OpenAISseDecoder(objectMapper),
+                    Arrays.copyOfRange(stream, 0, split), Arrays.copyOfRange(stream, split, stream.length));
+            assertEquals(2, chunks.size(), "split at " + split);
+            assertEquals("Grüße 😀", content(chunks.get(0)), "split at " + split);
+            assertSame(OpenAISseDecoder.DONE, chunks.get(1));
+        }
+    }
+
+    @Test
+    void decodesAStreamFedOneByteAtATime() {
+        byte[] stream = ("data: " + CHUNK + "\n\n").repeat(3).getBytes(StandardCharsets.UTF_8);
+        byte[][] parts = new byte[stream.length][];
+        for (int i = 0; i < stream.length; i++) {
+            parts[i] = new byte[]{stream[i]};
+        }
+        List<OpenAIStreamChunk> chunks = decode(new OpenAISseDecoder(objectMapper), parts);
+        assertEquals(3, chunks.size());
+        assertEquals("chatcmpl-1", chunks.get(2).getId());
+    }
+
+    @Test
+    void joinsMultiLineDataWithNewlines() {
+        List<OpenAIStreamChunk> chunks = decode(new OpenAISseDecoder(objectMapper), bytes(
+                "data: {\"id\":\"chatcmpl-1\",\n" + "data:\"choices\":[]}\n\n"));
+        assertEquals(1, chunks.size());
+        assertEquals("chatcmpl-1", chunks.get(0).getId());
+        assertEquals(0, chunks.get(0).getChoices().size());
+    }
+
+    @Test
+    void ignoresEventFieldsAndComments() {
+        List<OpenAIStreamChunk> chunks = decode(new OpenAISseDecoder(objectMapper), bytes(
+                ": keep-alive\n\nevent: message\nid: 7\nretry: 1000\ndata: " + CHUNK + "\n\n: done\nevent: end\n\n"));
+        assertEquals(1, chunks.size());
+        assertEquals("Grüße 😀", content(chunks.get(0)));
+    }
+
+    @Test
+    void decodesDoneAndSkipsMalformedEvents() {
+        List<OpenAIStreamChunk> chunks = decode(new OpenAISseDecoder(objectMapper), bytes(
+                "data: {\"id\":\n\ndata: " + CHUNK + "\n\ndata: [DONE]\n\n"));
+        assertEquals(2, chunks.size());
+        assertEquals("chatcmpl-1", chunks.get(0).getId());
+        assertSame(OpenAISseDecoder.DONE, chunks.get(1));
+    }
+
+    @Test
+    void flushDispatchesAnEventWithoutATrailingBlankLine() {
+        OpenAISseDecoder decoder = new OpenAISseDecoder(objectMapper);
+        assertEquals(0, decode(decoder, bytes("data: " + CHUNK + "\n")).size());
+        List<OpenAIStreamChunk> chunks = decoder.flush();
+        assertEquals(1, chunks.size());
+        assertEquals("Grüße 😀", content(chunks.get(0)));
+
+        // A last line without its line break
+        decoder = new OpenAISseDecoder(objectMapper);
+        assertEquals(0, decode(decoder, bytes("data: [DONE]")).size());
+        chunks = decoder.flush();
+        assertEquals(1, chunks.size());
+        assertSame(OpenAISseDecoder.DONE, chunks.get(0));
+        assertEquals(0, decoder.flush().size());
+    }
+
+    private static List<OpenAIStreamChunk> decode(OpenAISseDecoder decoder, byte[]... parts) {
+        List<OpenAIStreamChunk> chunks = new ArrayList<>();
+        for (byte[] part : parts) {
+            chunks.addAll(decoder.decode(DefaultDataBufferFactory.sharedInstance.wrap(part)));
+        }
+        return chunks;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String content(OpenAIStreamChunk chunk) {
+        return chunk.getChoices().get(0).getDelta().getContent();
+    }
+}
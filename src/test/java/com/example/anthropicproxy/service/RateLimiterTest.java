@@ -0,0 +1,214 @@
+package com.example.anthropicproxy.service;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.openai.OpenAIUsage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    private ProxyConfigProperties proxyConfig;
+    private ProxyConfigProperties.RateLimit config;
+
+    @BeforeEach
+    void setUp() {
+        proxyConfig = new ProxyConfigProperties();
+        config = proxyConfig.getRateLimit();
+        config.setEnabled(true);
+        config.setDefaults(limits(2, 1_000_000));
+    }
+
+    @Test
+    void eachKeyHasItsOwnBucket() {
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("a", request(0));
+        limiter.acquire("a", request(0));
+        assertRateLimited(() -> limiter.acquire("a", request(0)));
+        limiter.acquire("b", request(0));
+    }
+
+    @Test
+    void keysBeyondTheTrackingCapShareTheOverflowBucket() {
+        config.setMaxTrackedClients(2);
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("a", request(0));
+        limiter.acquire("b", request(0));
+
+        // Rotating keys past the cap does not hand out fresh buckets
+        limiter.acquire("c", request(0));
+        limiter.acquire("d", request(0));
+        assertRateLimited(() -> limiter.acquire("e", request(0)));
+
+        // Tracked keys keep their own budget
+        limiter.acquire("a", request(0));
+    }
+
+    @Test
+    void unconfiguredKeysShareTheDefaultBucketWhenKeysAreConfigured() {
+        config.setClients(Map.of("team", limits(3, 1_000_000)));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("random-1", request(0));
+        limiter.acquire("random-2", request(0));
+        assertRateLimited(() -> limiter.acquire("random-3", request(0)));
+
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("team", request(0));
+        }
+        assertRateLimited(() -> limiter.acquire("team", request(0)));
+    }
+
+    @Test
+    void rejectsRequestsOverTheTokenBudget() {
+        config.setDefaults(limits(100, 1000));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("a", request(600));
+        assertRateLimited(() -> limiter.acquire("a", request(600)));
+        // A request that fits the remaining budget is still admitted
+        limiter.acquire("a", request(300));
+    }
+
+    @Test
+    void bucketAdmitsOneMinuteOfBurstThenRefillsAtTheRate() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(60);
+        long now = 0;
+        assertEquals(0, bucket.tryAcquire(60, now));
+        assertEquals(SECOND, bucket.tryAcquire(1, now));
+        assertEquals(0, bucket.tryAcquire(1, now + SECOND));
+        assertEquals(SECOND, bucket.tryAcquire(1, now + SECOND));
+        assertFalse(bucket.isFull(now + 60 * SECOND));
+        assertTrue(bucket.isFull(now + 61 * SECOND));
+    }
+
+    @Test
+    void bucketRejectionConsumesNothing() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(60);
+        assertEquals(0, bucket.tryAcquire(50, 0));
+        assertEquals(40 * SECOND, bucket.tryAcquire(50, 0));
+        assertEquals(0, bucket.tryAcquire(10, 0));
+    }
+
+    @Test
+    void bucketAdjustChargesAndRefunds() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(60);
+        assertEquals(0, bucket.tryAcquire(60, 0));
+        bucket.adjust(-10, 0);
+        assertEquals(0, bucket.tryAcquire(10, 0));
+
+        bucket.adjust(5, 0);
+        assertEquals(6 * SECOND, bucket.tryAcquire(1, 0));
+    }
+
+    @Test
+    void bucketRefundNeverExceedsCapacity() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(60);
+        bucket.adjust(-1000, 0);
+        assertEquals(0, bucket.tryAcquire(60, 0));
+        assertEquals(SECOND, bucket.tryAcquire(1, 0));
+    }
+
+    @Test
+    void bucketGrantsExactlyItsCapacityUnderContention() throws InterruptedException {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(10_000);
+        AtomicInteger granted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    if (bucket.tryAcquire(1, 0) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(10_000, granted.get());
+    }
+
+    @Test
+    void permitSettlesReservationToActualTokens() {
+        config.setDefaults(limits(100, 1000));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        RateLimiter.Permit permit = limiter.acquire("a", request(800));
+        assertRateLimited(() -> limiter.acquire("a", request(800)));
+
+        permit.settle(100);
+        limiter.acquire("a", request(800));
+        assertRateLimited(() -> limiter.acquire("a", request(200)));
+    }
+
+    @Test
+    void permitSettlesOnlyOnce() {
+        config.setDefaults(limits(100, 1000));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        RateLimiter.Permit permit = limiter.acquire("a", request(800));
+        permit.settle(800);
+        permit.settle(0);
+        assertRateLimited(() -> limiter.acquire("a", request(800)));
+    }
+
+    @Test
+    void permitChargesUsageAboveTheReservation() {
+        config.setDefaults(limits(100, 1000));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("a", request(100)).settle(OpenAIUsage.builder().totalTokens(900).build());
+        assertRateLimited(() -> limiter.acquire("a", request(200)));
+        limiter.acquire("a", request(100));
+    }
+
+    @Test
+    void permitSettlesAgainstPromptAndCompletionTokens() {
+        config.setDefaults(limits(100, 1000));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("a", request(900))
+                .settle(OpenAIUsage.builder().promptTokens(50).completionTokens(50).build());
+        limiter.acquire("a", request(900));
+    }
+
+    @Test
+    void permitKeepsReservationWithoutUsage() {
+        config.setDefaults(limits(100, 1000));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        limiter.acquire("a", request(800)).settle((OpenAIUsage) null);
+        assertRateLimited(() -> limiter.acquire("a", request(800)));
+    }
+
+    @Test
+    void disabledLimiterIssuesUnboundPermits() {
+        config.setEnabled(false);
+        config.setDefaults(limits(1, 1));
+        RateLimiter limiter = new RateLimiter(proxyConfig, new ProxyMetrics());
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("a", request(1000)).settle(5000);
+        }
+    }
+
+    static TranscodedRequest request(int maxTokens) {
+        return new TranscodedRequest(null, "claude", false, maxTokens, 0, 0);
+    }
+
+    static ProxyConfigProperties.RateLimit.Limits limits(long requests, long tokens) {
+        ProxyConfigProperties.RateLimit.Limits limits = new ProxyConfigProperties.RateLimit.Limits();
+        limits.setRequestsPerMinute(requests);
+        limits.setTokensPerMinute(tokens);
+        return limits;
+    }
+
+    static void assertRateLimited(Runnable acquire) {
+        AnthropicApiException error = assertThrows(AnthropicApiException.class, acquire::run);
+        assertEquals("rate_limit_error", error.getErrorType());
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.anthropicproxy.tokenizer;
+
+import com.example.anthropicproxy.config.ProxyConfigProperties;
+import com.example.anthropicproxy.metrics.ProxyMetrics;
+import com.example.anthropicproxy.model.anthropic.AnthropicCompletionRequest;
+import com.example.anthropicproxy.service.AnthropicResponseWriter;
+import com.example.anthropicproxy.service.ConversionService;
+import com.example.anthropicproxy.service.ModelMappingService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Counts without a vocabulary, estimated at 4 characters per token
+ */
+class TokenCounterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ConversionService conversionService;
+    private TokenCounter tokenCounter;
+
+    @BeforeEach
+    void setUp() {
+        ProxyConfigProperties proxyConfig = new ProxyConfigProperties();
+        proxyConfig.getTokenizer().setTokensPerImage(1000);
+        conversionService = new ConversionService(new ModelMappingService(proxyConfig),
+                new AnthropicResponseWriter(objectMapper), objectMapper, proxyConfig, new ProxyMetrics());
+        tokenCounter = new TokenCounter(conversionService, objectMapper, proxyConfig);
+    }
+
+    @Test
+    void countsMessagesWithChatFraming() throws IOException {
+        // Reply priming 3, then per message 3 + role + content: system 3 + 2 + 2, user 3 + 1 + 3
+        assertEquals(17, tokenCounter.countInputTokens(request(
+                "\"system\":\"Be brief\",\"messages\":[{\"role\":\"user\",\"content\":\"Hello there\"}]")));
+    }
+
+    @Test
+    void countsTextPartsAndAnEstimatePerImage() throws IOException {
+        String image = "{\"type\":\"image\",\"source\":{\"type\":\"base64\",\"media_type\":\"image/png\","
+                + "\"data\":\"iVBORw0KGgo=\"}}";
+        AnthropicCompletionRequest request = request("\"messages\":[{\"role\":\"user\",\"content\":[" + image
+                + ",{\"type\":\"text\",\"text\":\"What is this?\"}," + image + "]}]");
+        assertEquals(3 + 3 + 1 + 4 + 2 * 1000, tokenCounter.countInputTokens(request));
+    }
+
+    @Test
+    void countsToolDefinitionsAsTheirSchemas() throws IOException {
+        String messages = "\"messages\":[{\"role\":\"user\",\"content\":\"Hello there\"}]";
+        AnthropicCompletionRequest withTools = request(messages + ",\"tools\":[{\"name\":\"weather\","
+                + "\"description\":\"Current weather\",\"input_schema\":{\"type\":\"object\","
+                + "\"properties\":{\"city\":{\"type\":\"string\"}}}}]");
+        String tools = conversionService.convertRequest(withTools).getTools().toString();
+
+        assertEquals(tokenCounter.countInputTokens(request(messages)) + tokenCounter.count(tools),
+                tokenCounter.countInputTokens(withTools));
+    }
+
+    @Test
+    void countsToolCallNamesAndArguments() throws IOException {
+        AnthropicCompletionRequest request = request("\"messages\":[{\"role\":\"assistant\",\"content\":["
+                + "{\"type\":\"tool_use\",\"id\":\"toolu_1\",\"name\":\"weather\",\"input\":{\"city\":\"Oslo\"}}]}]");
+        // Priming 3, then 3 + "assistant" 3 + "weather" 2 + {"city":"Oslo"} 4
+        assertEquals(15, tokenCounter.countInputTokens(request));
+    }
+
+    private AnthropicCompletionRequest request(String fields) throws IOException {
+        return objectMapper.readValue("{\"model\":\"claude-3-5-sonnet-20241022\",\"max_tokens\":1024," + fields + "}",
+                AnthropicCompletionRequest.class);
+    }
+}